@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.fraunhofer.fit.opcua;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+
+import java.util.Date;
+
+/**
+ * Synthetic tags and values for the benchmarks, in the form the service returns them.
+ */
+public class BenchmarkData {
+
+    // The kinds of values a benchmark can be run with
+    public static final String SCALAR = "scalar";
+    public static final String STRING = "string";
+    public static final String ARRAY = "array";
+    public static final String NULL = "null";
+
+    private static final StandardOPCUAService SERVICE = new StandardOPCUAService();
+
+    // Node IDs of the length found in PLC address spaces
+    public static String[] tagNames(int count) {
+        String[] tagNames = new String[count];
+        for (int i = 0; i < count; i++) {
+            tagNames[i] = "ns=2;s=PLC" + (i % 4) + ".Line" + (i % 16) + ".ProcessVariables.Variable" + i;
+        }
+        return tagNames;
+    }
+
+    public static DataValue dataValue(String valueType, int i, long time) {
+        Variant variant;
+        switch (valueType) {
+            case SCALAR:
+                variant = new Variant(20.0 + i * 0.125);
+                break;
+            case STRING:
+                variant = new Variant("State " + (i % 8) + " of line " + (i % 16));
+                break;
+            case ARRAY:
+                Double[] array = new Double[8];
+                for (int j = 0; j < array.length; j++) {
+                    array[j] = i + j * 0.5;
+                }
+                variant = new Variant(array);
+                break;
+            case NULL:
+                variant = Variant.NULL_VALUE;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown value type: " + valueType);
+        }
+        DateTime dateTime = new DateTime(new Date(time));
+        return new DataValue(variant, StatusCode.GOOD, dateTime, dateTime);
+    }
+
+    public static DataValue[] dataValues(String valueType, int count, long time) {
+        DataValue[] values = new DataValue[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = dataValue(valueType, i, time);
+        }
+        return values;
+    }
+
+    /**
+     * @return The lines of the values of all tags at the given time, as written by the service
+     */
+    public static String[] csvLines(String[] tagNames, String valueType, String returnTimestamp, long time) {
+        String[] lines = new String[tagNames.length];
+        for (int i = 0; i < tagNames.length; i++) {
+            lines[i] = SERVICE.writeCsv(tagNames[i], returnTimestamp, dataValue(valueType, i, time), false, "");
+        }
+        return lines;
+    }
+}
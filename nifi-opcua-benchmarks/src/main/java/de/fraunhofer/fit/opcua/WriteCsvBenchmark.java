@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.fraunhofer.fit.opcua;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of a value into the CSV line of GetOPCData and SubscribeOPCNodes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class WriteCsvBenchmark {
+
+    // A power of two, so that the next value is found with a mask
+    private static final int TAG_COUNT = 1024;
+
+    @Param({BenchmarkData.SCALAR, BenchmarkData.STRING, BenchmarkData.ARRAY, BenchmarkData.NULL})
+    public String valueType;
+
+    @Param({"Both", "SourceTimestamp"})
+    public String returnTimestamp;
+
+    private final StandardOPCUAService service = new StandardOPCUAService();
+    private String[] tagNames;
+    private DataValue[] values;
+    private int next;
+
+    @Setup
+    public void setup() {
+        tagNames = BenchmarkData.tagNames(TAG_COUNT);
+        values = BenchmarkData.dataValues(valueType, TAG_COUNT, System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public String writeCsv() {
+        int i = next++ & (TAG_COUNT - 1);
+        return service.writeCsv(tagNames[i], returnTimestamp, values[i], false, "");
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.fraunhofer.fit.processors.opcua;
+
+import de.fraunhofer.fit.opcua.BenchmarkData;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merging the values of all tags read by GetOPCData into one record.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MergeRecordBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int tagCount;
+
+    @Param({BenchmarkData.SCALAR, BenchmarkData.STRING, BenchmarkData.ARRAY, BenchmarkData.NULL})
+    public String valueType;
+
+    private byte[] values;
+
+    @Setup
+    public void setup() {
+        String[] lines = BenchmarkData.csvLines(BenchmarkData.tagNames(tagCount), valueType, "Both",
+                System.currentTimeMillis());
+        // getValue returns the lines trimmed
+        values = String.join("", lines).trim().getBytes();
+    }
+
+    @Benchmark
+    public String mergeRecord() {
+        return GetOPCData.mergeRecord(values, "Both");
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.fraunhofer.fit.processors.opcua.utils;
+
+import de.fraunhofer.fit.opcua.BenchmarkData;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregating the values of all tags of a subscription into records, one complete record per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RecordAggregatorBenchmark {
+
+    // Records with distinct timestamps, after which the aggregator starts over
+    private static final int RECORD_COUNT = 256;
+    private static final long MIN_PUBLISH_INTERVAL = 1000;
+
+    @Param({"10", "100", "1000"})
+    public int tagCount;
+
+    @Param({BenchmarkData.SCALAR, BenchmarkData.STRING, BenchmarkData.ARRAY, BenchmarkData.NULL})
+    public String valueType;
+
+    private List<String> tags;
+    private String[][] messages;
+    private RecordAggregator aggregator;
+    private int next;
+
+    @Setup
+    public void setup() {
+        String[] tagNames = BenchmarkData.tagNames(tagCount);
+        tags = Arrays.asList(tagNames);
+        messages = new String[RECORD_COUNT][];
+        long start = System.currentTimeMillis();
+        for (int r = 0; r < RECORD_COUNT; r++) {
+            messages[r] = BenchmarkData.csvLines(tagNames, valueType, "Both", start + r * MIN_PUBLISH_INTERVAL);
+        }
+        next = RECORD_COUNT;
+    }
+
+    @Benchmark
+    public List<String> aggregateRecord() {
+        if (next == RECORD_COUNT) {
+            aggregator = new RecordAggregator(tags, MIN_PUBLISH_INTERVAL);
+            next = 0;
+        }
+        for (String msg : messages[next++]) {
+            aggregator.aggregate(msg);
+        }
+        // The record is complete, so it is ready at once
+        return aggregator.getReadyRecords();
+    }
+}
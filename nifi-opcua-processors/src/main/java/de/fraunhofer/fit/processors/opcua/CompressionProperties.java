@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.fraunhofer.fit.processors.opcua;
+
+import de.fraunhofer.fit.processors.opcua.utils.Compressor;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.expression.ExpressionLanguageScope;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The properties of the compression shared by the processors which read values, and the compressor created from them.
+ */
+final class CompressionProperties {
+
+    // Processors set a description which tells when the kept values are output
+    static final PropertyDescriptor COMPRESSION_METHOD = new PropertyDescriptor
+            .Builder().name("Compression Method")
+            .description("Drops values which lie on the current trend of their tag. ExceptionDeviation keeps a " +
+                    "value if it differs from the last kept value by more than the deviation. SwingingDoor keeps " +
+                    "the values where the trend changes by more than the deviation.")
+            .required(true)
+            .defaultValue("None")
+            .allowableValues("None", "ExceptionDeviation", "SwingingDoor")
+            .build();
+
+    static final PropertyDescriptor COMPRESSION_DEVIATION = new PropertyDescriptor
+            .Builder().name("Compression Deviation")
+            .description("The deviation of the values of a tag from its trend which is ignored, in the unit of " +
+                    "the tag. Only valid when \"Compression Method\" is not None.")
+            .required(true)
+            .defaultValue("0")
+            .addValidator(StandardValidators.NUMBER_VALIDATOR)
+            .build();
+
+    static final PropertyDescriptor COMPRESSION_DEVIATION_FILE = new PropertyDescriptor
+            .Builder().name("Compression Deviation File")
+            .description("A file with lines of the form \"tag,deviation\", which set the deviation of single tags. " +
+                    "Tags not in the file use \"Compression Deviation\".")
+            .required(false)
+            .addValidator(StandardValidators.FILE_EXISTS_VALIDATOR)
+            .expressionLanguageSupported(ExpressionLanguageScope.VARIABLE_REGISTRY)
+            .build();
+
+    private CompressionProperties() {
+    }
+
+    /**
+     * Create the compressor configured by the compression properties.
+     *
+     * @param context The context of the processor
+     * @return The compressor, or null if the values are not compressed
+     * @throws ProcessException If the deviation file can't be read
+     */
+    static Compressor createCompressor(final ProcessContext context) {
+        Compressor.Method method;
+        switch (context.getProperty(COMPRESSION_METHOD).getValue()) {
+            case "ExceptionDeviation":
+                method = Compressor.Method.EXCEPTION_DEVIATION;
+                break;
+            case "SwingingDoor":
+                method = Compressor.Method.SWINGING_DOOR;
+                break;
+            default:
+                return null;
+        }
+
+        Map<String, Double> deviations = Collections.emptyMap();
+        String deviationFile = context.getProperty(COMPRESSION_DEVIATION_FILE)
+                .evaluateAttributeExpressions().getValue();
+        if (deviationFile != null) {
+            try {
+                deviations = Compressor.readDeviations(Paths.get(deviationFile));
+            } catch (IOException | NumberFormatException e) {
+                throw new ProcessException("Cannot read compression deviations from " + deviationFile, e);
+            }
+        }
+        return new Compressor(method, Double.parseDouble(context.getProperty(COMPRESSION_DEVIATION).getValue()),
+                deviations);
+    }
+}
@@ -17,6 +17,7 @@
 package de.fraunhofer.fit.processors.opcua;
 
 import de.fraunhofer.fit.opcua.OPCUAService;
+import de.fraunhofer.fit.processors.opcua.utils.Compressor;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
 import org.apache.nifi.annotation.lifecycle.OnScheduled;
@@ -37,6 +38,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
@@ -45,11 +47,15 @@ import java.util.stream.Collectors;
 @CapabilityDescription("Get the data of specified nodes from a OPC UA server.")
 public class GetOPCData extends AbstractProcessor {
 
+    // Set in onScheduled and only read by the concurrent tasks of onTrigger
     private final AtomicReference<String> timestamp = new AtomicReference<>();
     private final AtomicBoolean excludeNullValue = new AtomicBoolean();
-    private String nullValueString = "";
+    private volatile String nullValueString = "";
+    private volatile long maxAge;
+    private volatile int batchSize;
 
-    private List<String> tagList;
+    private volatile List<String> tagList;
+    private volatile Compressor compressor;
 
     public static final PropertyDescriptor OPCUA_SERVICE = new PropertyDescriptor.Builder()
             .name("OPC UA Service")
@@ -104,6 +110,25 @@ public class GetOPCData extends AbstractProcessor {
             .addValidator(Validator.VALID)
             .build();
 
+    public static final PropertyDescriptor BATCH_SIZE = new PropertyDescriptor
+            .Builder().name("Batch Size")
+            .description("The maximum number of tag list flowfiles whose tags are read with a single request. " +
+                    "Tags in several flowfiles are read once. Only used when \"Tag List Source\" is Flowfile.")
+            .required(true)
+            .defaultValue("100")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor MAX_AGE = new PropertyDescriptor
+            .Builder().name("Max Age")
+            .description("The age up to which values may be taken from the values last received by subscriptions " +
+                    "and scans of the OPC UA service, or from the cache of the server, instead of being read from " +
+                    "the device. 0 sec always reads the current values.")
+            .required(true)
+            .defaultValue("0 sec")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
     public static final PropertyDescriptor AGGREGATE_RECORD = new PropertyDescriptor
             .Builder().name("Aggregate Records")
             .description("Whether to aggregate records. If this is set to true, then variable with the same time stamp will be merged into a single line. This is useful for batch-based data.")
@@ -114,6 +139,18 @@ public class GetOPCData extends AbstractProcessor {
             .sensitive(false)
             .build();
 
+    public static final PropertyDescriptor COMPRESSION_METHOD = new PropertyDescriptor
+            .Builder().fromPropertyDescriptor(CompressionProperties.COMPRESSION_METHOD)
+            .description("Drops values which lie on the current trend of their tag, compared to the values of the " +
+                    "previous reads. ExceptionDeviation keeps a value if it differs from the last kept value by more " +
+                    "than the deviation. SwingingDoor keeps the values where the trend changes by more than the " +
+                    "deviation, which are output one read late. Not used when \"Aggregate Records\" is true.")
+            .build();
+
+    public static final PropertyDescriptor COMPRESSION_DEVIATION = CompressionProperties.COMPRESSION_DEVIATION;
+
+    public static final PropertyDescriptor COMPRESSION_DEVIATION_FILE = CompressionProperties.COMPRESSION_DEVIATION_FILE;
+
     public static final Relationship SUCCESS = new Relationship.Builder()
             .name("Success")
             .description("Successful OPC read")
@@ -137,7 +174,12 @@ public class GetOPCData extends AbstractProcessor {
         descriptors.add(NULL_VALUE_STRING);
         descriptors.add(TAG_LIST_SOURCE);
         descriptors.add(TAG_LIST_FILE);
+        descriptors.add(BATCH_SIZE);
+        descriptors.add(MAX_AGE);
         descriptors.add(AGGREGATE_RECORD);
+        descriptors.add(COMPRESSION_METHOD);
+        descriptors.add(COMPRESSION_DEVIATION);
+        descriptors.add(COMPRESSION_DEVIATION_FILE);
         this.descriptors = Collections.unmodifiableList(descriptors);
 
         final Set<Relationship> relationships = new HashSet<Relationship>();
@@ -161,11 +203,15 @@ public class GetOPCData extends AbstractProcessor {
 
         timestamp.set(context.getProperty(RETURN_TIMESTAMP).getValue());
         excludeNullValue.set(context.getProperty(EXCLUDE_NULL_VALUE).getValue().equals("Yes"));
-        if (context.getProperty(NULL_VALUE_STRING).isSet()) {
-            nullValueString = context.getProperty(NULL_VALUE_STRING).getValue();
-        }
+        nullValueString = context.getProperty(NULL_VALUE_STRING).isSet() ?
+                context.getProperty(NULL_VALUE_STRING).getValue() : "";
+
+        batchSize = context.getProperty(BATCH_SIZE).asInteger();
+        maxAge = context.getProperty(MAX_AGE).asTimePeriod(TimeUnit.MILLISECONDS);
+        compressor = CompressionProperties.createCompressor(context);
 
         // Now every time onSchedule is triggered, data will be read from file anew
+        tagList = null;
         if (context.getProperty(TAG_LIST_SOURCE).toString().equals("Local File")) {
             try {
                 tagList = parseFile(Paths.get(context.getProperty(TAG_LIST_FILE).evaluateAttributeExpressions().toString()));
@@ -178,8 +224,6 @@ public class GetOPCData extends AbstractProcessor {
     @Override
     public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
 
-        // Initialize  response variable
-        final AtomicReference<List<String>> requestedTagnames = new AtomicReference<>();
         // Submit to getValue
         OPCUAService opcUAService;
 
@@ -192,54 +236,89 @@ public class GetOPCData extends AbstractProcessor {
         }
 
         if (context.getProperty(TAG_LIST_SOURCE).toString().equals("Flowfile")) {
+            readFlowFileTags(opcUAService, context, session);
+            return;
+        }
 
-            // get FlowFile
-            FlowFile flowFile = session.get();
-            if (flowFile == null)
-                return;
+        List<String> requestedTagnames = tagList;
+        if (requestedTagnames == null)
+            return;
 
-            // Read tag name from flow file content
-            session.read(flowFile, in -> {
-                try {
-                    // TODO: combine this with parseFile
-                    List<String> tagname = new BufferedReader(new InputStreamReader(in))
-                            .lines().collect(Collectors.toList());
+        byte[] values = opcUAService.getValue(requestedTagnames, timestamp.get(),
+                excludeNullValue.get(), nullValueString, maxAge);
+        writeValues(context, session, session.create(), requestedTagnames, values);
+    }
 
-                    requestedTagnames.set(tagname);
+    // Read the tags of a batch of tag list flowfiles with one request, and write the values of each to its own flowfile
+    private void readFlowFileTags(final OPCUAService opcUAService, final ProcessContext context,
+                                  final ProcessSession session) {
 
-                } catch (Exception e) {
-                    getLogger().error("Failed to read flowfile " + e.getMessage());
-                }
-            });
+        List<FlowFile> flowFiles = session.get(batchSize);
+        if (flowFiles.isEmpty())
+            return;
 
-            session.remove(flowFile);
-        } else {
+        List<List<String>> requests = new ArrayList<>(flowFiles.size());
+        Set<String> mergedTagnames = new LinkedHashSet<>();
+        for (FlowFile flowFile : flowFiles) {
+            List<String> tagnames = new ArrayList<>();
+            // TODO: combine this with parseFile
+            session.read(flowFile, in -> new BufferedReader(new InputStreamReader(in)).lines()
+                    .filter(line -> !line.trim().isEmpty())
+                    .forEach(tagnames::add));
+            requests.add(tagnames);
+            mergedTagnames.addAll(tagnames);
+        }
 
-            if(tagList == null)
-                return;
+        List<String> tagnames = new ArrayList<>(mergedTagnames);
+        Map<String, String> lines = null;
+        try {
+            byte[] values = opcUAService.getValue(tagnames, timestamp.get(),
+                    excludeNullValue.get(), nullValueString, maxAge);
+            lines = splitLines(tagnames, values);
+        } catch (ProcessException e) {
+            // One invalid tag list must not fail the others, so they are read one by one
+            getLogger().warn("Reading the tags of " + flowFiles.size() + " flowfiles failed: " + e.getMessage()
+                    + ". Reading them one by one");
+        }
 
-            try {
-                requestedTagnames.set(tagList);
-            } catch (Exception ex) {
-                getLogger().error(ex.getMessage());
-                return;
+        for (int i = 0; i < flowFiles.size(); i++) {
+            FlowFile flowFile = flowFiles.get(i);
+            List<String> request = requests.get(i);
+            byte[] requestValues;
+            if (lines != null) {
+                List<String> requestLines = new ArrayList<>(request.size());
+                for (String tagname : request) {
+                    String line = lines.get(tagname);
+                    // Null values may have been excluded
+                    if (line != null) requestLines.add(line);
+                }
+                requestValues = String.join(System.lineSeparator(), requestLines).getBytes();
+            } else {
+                try {
+                    requestValues = opcUAService.getValue(request, timestamp.get(),
+                            excludeNullValue.get(), nullValueString, maxAge);
+                } catch (ProcessException e) {
+                    getLogger().error("Unable to read the tags of " + flowFile, e);
+                    session.transfer(flowFile, FAILURE);
+                    continue;
+                }
             }
+            writeValues(context, session, session.create(flowFile), request, requestValues);
+            session.remove(flowFile);
         }
+    }
 
-        FlowFile flowFile;
-        flowFile = session.get();
-        if (flowFile == null)
-            flowFile = session.create();
-
-        byte[] values = opcUAService.getValue(requestedTagnames.get(), timestamp.get(),
-                excludeNullValue.get(), nullValueString);
+    private void writeValues(final ProcessContext context, final ProcessSession session, FlowFile flowFile,
+                             List<String> requestedTagnames, byte[] values) {
 
         if(context.getProperty(AGGREGATE_RECORD).asBoolean()) {
-            values = mergeRecord(values).getBytes();
+            values = mergeRecord(values, timestamp.get()).getBytes();
             // add csvHeader attribute to flowfile
             Map<String, String> attrMap = new HashMap<>();
-            attrMap.put("csvHeader", "timestamp," + String.join(",", requestedTagnames.get()));
+            attrMap.put("csvHeader", "timestamp," + String.join(",", requestedTagnames));
             flowFile = session.putAllAttributes(flowFile, attrMap);
+        } else if (compressor != null) {
+            values = compress(values);
         }
 
         byte[] payload = values;
@@ -252,7 +331,20 @@ public class GetOPCData extends AbstractProcessor {
             getLogger().error("Unable to process", ex);
             session.transfer(flowFile, FAILURE);
         }
+    }
 
+    // Map the lines of getValue to their tags. The lines are in the order of the tags, and start with the tag
+    static Map<String, String> splitLines(List<String> tagnames, byte[] values) {
+        Map<String, String> lines = new HashMap<>();
+        int tag = 0;
+        for (String line : new String(values).split(System.lineSeparator())) {
+            line = line.trim();
+            // Skip the tags whose lines have been excluded
+            while (tag < tagnames.size() && !line.startsWith(tagnames.get(tag) + ",")) tag++;
+            if (tag == tagnames.size()) break;
+            lines.put(tagnames.get(tag++), line);
+        }
+        return lines;
     }
 
 
@@ -263,13 +355,45 @@ public class GetOPCData extends AbstractProcessor {
         return new BufferedReader(new StringReader(fileContent)).lines().collect(Collectors.toList());
     }
 
-    private String mergeRecord(byte[] values) {
+    // Keep only the lines which don't lie on the trend of their tag
+    private byte[] compress(byte[] values) {
+
+        // The timestamp used for the trend is the last one in the line, which is the source timestamp for "Both"
+        int timestampIndex = timestamp.get().equals("Both") ? 2 : 1;
+
+        String content = new String(values);
+        List<String> kept = new ArrayList<>();
+        Compressor compressor = this.compressor;
+        // The trends are shared by the concurrent tasks, so the lines of one read are compressed together
+        synchronized (compressor) {
+            for (String line : content.split(System.lineSeparator())) {
+                String[] fields = line.trim().split(",");
+                long time;
+                try {
+                    time = Long.parseLong(fields[timestampIndex]);
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    // Without a timestamp there is no trend
+                    kept.add(line);
+                    continue;
+                }
+                String value = String.join(",", Arrays.copyOfRange(fields, timestampIndex + 1, fields.length - 1));
+                compressor.compress(fields[0], time, value, fields[fields.length - 1].equals("0"), line, kept);
+            }
+        }
+
+        // split drops the trailing line separator, which is kept
+        String compressed = String.join(System.lineSeparator(), kept);
+        return (content.endsWith(System.lineSeparator()) ? compressed + System.lineSeparator() : compressed).getBytes();
+    }
+
+    // Merge the lines of getValue into one record, package-private for the benchmarks
+    static String mergeRecord(byte[] values, String returnTimestamp) {
 
         int SOURCE_TS_INDEX;
         int VALUE_INDEX;
         int STATUS_CODE_INDEX;
 
-        if (!timestamp.get().equals("Both")) {
+        if (!returnTimestamp.equals("Both")) {
             SOURCE_TS_INDEX = 1;
             VALUE_INDEX = 2;
             STATUS_CODE_INDEX = 3;
@@ -279,8 +403,10 @@ public class GetOPCData extends AbstractProcessor {
             STATUS_CODE_INDEX = 4;
         }
 
-        String[] rawMsgs = new String(values).split(System.lineSeparator());
-        if(rawMsgs.length == 0) return "";
+        String content = new String(values).trim();
+        // All values may have been excluded
+        if (content.isEmpty()) return "";
+        String[] rawMsgs = content.split(System.lineSeparator());
 
         StringBuilder sb = new StringBuilder();
         // Use the source timestamp of the first element as the timestamp
@@ -0,0 +1,412 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.fraunhofer.fit.processors.opcua;
+
+import de.fraunhofer.fit.opcua.HistoryPageConsumer;
+import de.fraunhofer.fit.opcua.OPCUAService;
+import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.behavior.Stateful;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.Validator;
+import org.apache.nifi.components.state.Scope;
+import org.apache.nifi.expression.ExpressionLanguageScope;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.*;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+@Tags({"opc", "history"})
+@InputRequirement(InputRequirement.Requirement.INPUT_ALLOWED)
+@Stateful(scopes = Scope.LOCAL, description = "The end of the last completed time slice is stored for every range " +
+        "being read, so that an interrupted read resumes from there instead of starting over.")
+@CapabilityDescription("Get the historical data of specified nodes within a time range from a OPC UA server. " +
+        "The result is streamed into multiple flowfiles, one for each HistoryRead response.")
+public class GetOPCHistory extends AbstractSessionFactoryProcessor {
+
+    public static final PropertyDescriptor OPCUA_SERVICE = new PropertyDescriptor.Builder()
+            .name("OPC UA Service")
+            .description("Specifies the OPC UA Service that can be used to access data")
+            .required(true)
+            .identifiesControllerService(OPCUAService.class)
+            .sensitive(false)
+            .build();
+
+    public static final PropertyDescriptor TAG_LIST_FILE = new PropertyDescriptor
+            .Builder().name("Tag List Location")
+            .description("The location of the tag list file")
+            .required(true)
+            .addValidator(StandardValidators.FILE_EXISTS_VALIDATOR)
+            .sensitive(false)
+            .expressionLanguageSupported(ExpressionLanguageScope.VARIABLE_REGISTRY)
+            .build();
+
+    public static final PropertyDescriptor START_TIME = new PropertyDescriptor
+            .Builder().name("Start Time")
+            .description("The start of the time range to read, in milliseconds since epoch. " +
+                    "If the processor has an incoming connection, attributes of the incoming flowfile can be used.")
+            .required(true)
+            .addValidator(StandardValidators.LONG_VALIDATOR)
+            .expressionLanguageSupported(ExpressionLanguageScope.FLOWFILE_ATTRIBUTES)
+            .build();
+
+    public static final PropertyDescriptor END_TIME = new PropertyDescriptor
+            .Builder().name("End Time")
+            .description("The end of the time range to read, in milliseconds since epoch. " +
+                    "If the processor has an incoming connection, attributes of the incoming flowfile can be used.")
+            .required(true)
+            .defaultValue("${now():toNumber()}")
+            .addValidator(StandardValidators.LONG_VALIDATOR)
+            .expressionLanguageSupported(ExpressionLanguageScope.FLOWFILE_ATTRIBUTES)
+            .build();
+
+    public static final PropertyDescriptor RETURN_TIMESTAMP = new PropertyDescriptor
+            .Builder().name("Return Timestamp")
+            .description("Allows to select the source, server, or both timestamps")
+            .required(true)
+            .sensitive(false)
+            .allowableValues("SourceTimestamp", "ServerTimestamp", "Both")
+            .defaultValue("Both")
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor EXCLUDE_NULL_VALUE = new PropertyDescriptor
+            .Builder().name("Exclude Null Value")
+            .description("Return data only for non null values")
+            .required(true)
+            .sensitive(false)
+            .allowableValues("No", "Yes")
+            .defaultValue("No")
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor NULL_VALUE_STRING = new PropertyDescriptor
+            .Builder().name("Null Value String")
+            .description("If removing null values, what string is used for null")
+            .required(false)
+            .sensitive(false)
+            .addValidator(Validator.VALID)
+            .build();
+
+    public static final PropertyDescriptor AGGREGATE_FUNCTION = new PropertyDescriptor
+            .Builder().name("Aggregate Function")
+            .description("If set to an aggregate function, the values are aggregated by the server (HistoryReadProcessed) " +
+                    "and only one value per node and processing interval is returned. \"None\" returns the raw values.")
+            .required(true)
+            .allowableValues("None", "Average", "Minimum", "Maximum", "Count", "TimeAverage", "Interpolative")
+            .defaultValue("None")
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROCESSING_INTERVAL = new PropertyDescriptor
+            .Builder().name("Processing Interval")
+            .description("The length of the interval each aggregated value is computed for, e.g. \"1 min\". " +
+                    "Only valid when \"Aggregate Function\" isn't \"None\".")
+            .required(true)
+            .defaultValue("1 min")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor SLICE_INTERVAL = new PropertyDescriptor
+            .Builder().name("Slice Interval")
+            .description("The time range is split into slices of this length, e.g. \"1 day\". " +
+                    "Slices are read in parallel and the progress is checkpointed after each completed slice.")
+            .required(true)
+            .defaultValue("1 day")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor MAX_CONCURRENT_READS = new PropertyDescriptor
+            .Builder().name("Max Concurrent Reads")
+            .description("The maximum number of HistoryRead requests in flight at the same time. " +
+                    "Each time slice and each group of \"Max Nodes Per Request\" nodes is read by a separate request chain.")
+            .required(true)
+            .defaultValue("4")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor MAX_VALUES_PER_NODE = new PropertyDescriptor
+            .Builder().name("Max Values Per Node")
+            .description("The maximum number of values the server returns for a node in a single response (NumValuesPerNode). " +
+                    "When there are more values in the time range, the server returns a continuation point, which is followed automatically. " +
+                    "Together with \"Max Nodes Per Request\" this bounds the size of each output flowfile.")
+            .required(true)
+            .defaultValue("1000")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor MAX_NODES_PER_REQUEST = new PropertyDescriptor
+            .Builder().name("Max Nodes Per Request")
+            .description("The maximum number of nodes read in a single HistoryRead request. " +
+                    "Set this according to the operation limits of the server.")
+            .required(true)
+            .defaultValue("100")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final Relationship SUCCESS = new Relationship.Builder()
+            .name("Success")
+            .description("Successful OPC history read")
+            .build();
+
+    public static final Relationship FAILURE = new Relationship.Builder()
+            .name("Failure")
+            .description("Failed OPC history read")
+            .build();
+
+    private List<PropertyDescriptor> descriptors;
+
+    private Set<Relationship> relationships;
+
+    private static final String CHECKPOINT_KEY_PREFIX = "history.";
+    // Processed reads of the same range with another aggregate produce other values, so they have their own keys
+    private static final String PROCESSED_CHECKPOINT_KEY_PREFIX = "processed.";
+
+    private final Object stateLock = new Object();
+
+    private volatile List<String> tagList;
+
+    @Override
+    protected void init(final ProcessorInitializationContext context) {
+        final List<PropertyDescriptor> descriptors = new ArrayList<>();
+        descriptors.add(OPCUA_SERVICE);
+        descriptors.add(TAG_LIST_FILE);
+        descriptors.add(START_TIME);
+        descriptors.add(END_TIME);
+        descriptors.add(RETURN_TIMESTAMP);
+        descriptors.add(EXCLUDE_NULL_VALUE);
+        descriptors.add(NULL_VALUE_STRING);
+        descriptors.add(AGGREGATE_FUNCTION);
+        descriptors.add(PROCESSING_INTERVAL);
+        descriptors.add(SLICE_INTERVAL);
+        descriptors.add(MAX_CONCURRENT_READS);
+        descriptors.add(MAX_VALUES_PER_NODE);
+        descriptors.add(MAX_NODES_PER_REQUEST);
+        this.descriptors = Collections.unmodifiableList(descriptors);
+
+        final Set<Relationship> relationships = new HashSet<>();
+        relationships.add(SUCCESS);
+        relationships.add(FAILURE);
+        this.relationships = Collections.unmodifiableSet(relationships);
+    }
+
+    @Override
+    public Set<Relationship> getRelationships() {
+        return this.relationships;
+    }
+
+    @Override
+    public final List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return descriptors;
+    }
+
+    @OnScheduled
+    public void onScheduled(final ProcessContext context) {
+        try {
+            tagList = parseFile(Paths.get(context.getProperty(TAG_LIST_FILE).evaluateAttributeExpressions().getValue()));
+        } catch (IOException e) {
+            getLogger().error("Error reading tag list from local file.");
+        }
+    }
+
+    @Override
+    public void onTrigger(final ProcessContext context, final ProcessSessionFactory sessionFactory) throws ProcessException {
+
+        final ProcessSession session = sessionFactory.createSession();
+
+        // If there is an incoming connection, every flowfile triggers one history read
+        FlowFile input = null;
+        if (context.hasIncomingConnection()) {
+            input = session.get();
+            if (input == null) {
+                session.commit();
+                return;
+            }
+        }
+
+        if (tagList == null) {
+            if (input != null) session.transfer(input, FAILURE);
+            session.commit();
+            return;
+        }
+
+        final OPCUAService opcUAService = context.getProperty(OPCUA_SERVICE)
+                .asControllerService(OPCUAService.class);
+
+        final long startTime;
+        final long endTime;
+        try {
+            startTime = context.getProperty(START_TIME).evaluateAttributeExpressions(input).asLong();
+            endTime = context.getProperty(END_TIME).evaluateAttributeExpressions(input).asLong();
+        } catch (Exception e) {
+            getLogger().error("Invalid time range: " + e.getMessage());
+            if (input != null) session.transfer(input, FAILURE);
+            session.commit();
+            return;
+        }
+
+        final String returnTimestamp = context.getProperty(RETURN_TIMESTAMP).getValue();
+        final boolean excludeNullValue = context.getProperty(EXCLUDE_NULL_VALUE).getValue().equals("Yes");
+        final String nullValueString = context.getProperty(NULL_VALUE_STRING).isSet() ?
+                context.getProperty(NULL_VALUE_STRING).getValue() : "";
+        final long sliceInterval = context.getProperty(SLICE_INTERVAL).asTimePeriod(TimeUnit.MILLISECONDS);
+        final int maxConcurrentReads = context.getProperty(MAX_CONCURRENT_READS).asInteger();
+        final int maxValuesPerNode = context.getProperty(MAX_VALUES_PER_NODE).asInteger();
+        final int maxNodesPerRequest = context.getProperty(MAX_NODES_PER_REQUEST).asInteger();
+        final String aggregateFunction = context.getProperty(AGGREGATE_FUNCTION).getValue();
+        final long processingInterval = context.getProperty(PROCESSING_INTERVAL).asTimePeriod(TimeUnit.MILLISECONDS);
+
+        // Without an input, pages are written in their own session, which is committed whenever a slice is completed.
+        // Only then the checkpoint is moved forward, so no slice is lost or emitted twice. With an input, the pages
+        // are children of the input in its session, which is only committed with the whole range, so an interrupted
+        // read is repeated from the start with its input, and no checkpoint is kept.
+        final boolean checkpointed = input == null;
+        final String checkpointKey = aggregateFunction.equals("None") ? CHECKPOINT_KEY_PREFIX + startTime :
+                PROCESSED_CHECKPOINT_KEY_PREFIX + aggregateFunction + "." + processingInterval + "." + startTime;
+        final long resumeTime = checkpointed ? Math.max(startTime, getCheckpoint(context, checkpointKey)) : startTime;
+        if (resumeTime > startTime) {
+            getLogger().info("Resuming history read of range starting at " + startTime + " from " + resumeTime);
+        }
+
+        final ProcessSession pageSession = checkpointed ? sessionFactory.createSession() : session;
+        final FlowFile parent = input;
+        // The pages of an input, which are transferred once the whole range has been read
+        final List<FlowFile> pages = new ArrayList<>();
+        final AtomicInteger pageIndex = new AtomicInteger(0);
+        final HistoryPageConsumer pageConsumer = new HistoryPageConsumer() {
+            @Override
+            public void onPage(byte[] page) throws ProcessException {
+                FlowFile flowFile = parent == null ? pageSession.create() : pageSession.create(parent);
+                flowFile = pageSession.write(flowFile, out -> out.write(page));
+
+                Map<String, String> attrMap = new HashMap<>();
+                attrMap.put("opcua.history.start", String.valueOf(startTime));
+                attrMap.put("opcua.history.end", String.valueOf(endTime));
+                attrMap.put("opcua.history.page", String.valueOf(pageIndex.getAndIncrement()));
+                flowFile = pageSession.putAllAttributes(flowFile, attrMap);
+
+                if (checkpointed) {
+                    pageSession.transfer(flowFile, SUCCESS);
+                } else {
+                    pages.add(flowFile);
+                }
+            }
+
+            @Override
+            public void onSliceComplete(long sliceEndTime) throws ProcessException {
+                if (checkpointed) {
+                    pageSession.commit();
+                    setCheckpoint(context, checkpointKey, sliceEndTime);
+                }
+            }
+        };
+
+        try {
+            if (aggregateFunction.equals("None")) {
+                opcUAService.getHistory(tagList, resumeTime, endTime, sliceInterval, maxConcurrentReads,
+                        maxValuesPerNode, maxNodesPerRequest, returnTimestamp, excludeNullValue, nullValueString,
+                        pageConsumer);
+            } else {
+                opcUAService.getProcessedHistory(tagList, resumeTime, endTime, aggregateFunction, processingInterval,
+                        sliceInterval, maxConcurrentReads, maxNodesPerRequest, returnTimestamp, excludeNullValue,
+                        nullValueString, pageConsumer);
+            }
+        } catch (ProcessException ex) {
+            getLogger().error("Unable to read history", ex);
+            if (checkpointed) {
+                pageSession.rollback();
+            } else {
+                session.remove(pages);
+                session.transfer(input, FAILURE);
+            }
+            session.commit();
+            context.yield();
+            return;
+        } catch (Throwable t) {
+            if (checkpointed) pageSession.rollback();
+            session.rollback(true);
+            throw t;
+        }
+
+        if (checkpointed) {
+            pageSession.commit();
+            removeCheckpoint(context, checkpointKey);
+        } else {
+            session.transfer(pages, SUCCESS);
+            session.remove(input);
+        }
+        session.commit();
+    }
+
+    private long getCheckpoint(final ProcessContext context, final String key) {
+        try {
+            String value = context.getStateManager().getState(Scope.LOCAL).get(key);
+            return value == null ? Long.MIN_VALUE : Long.parseLong(value);
+        } catch (IOException e) {
+            getLogger().warn("Failed to get checkpoint from state: " + e.getMessage());
+            return Long.MIN_VALUE;
+        }
+    }
+
+    private void setCheckpoint(final ProcessContext context, final String key, final long value) {
+        synchronized (stateLock) {
+            try {
+                Map<String, String> state = new HashMap<>(context.getStateManager().getState(Scope.LOCAL).toMap());
+                state.put(key, String.valueOf(value));
+                context.getStateManager().setState(state, Scope.LOCAL);
+            } catch (IOException e) {
+                getLogger().warn("Failed to checkpoint history read: " + e.getMessage());
+            }
+        }
+    }
+
+    private void removeCheckpoint(final ProcessContext context, final String key) {
+        synchronized (stateLock) {
+            try {
+                Map<String, String> state = new HashMap<>(context.getStateManager().getState(Scope.LOCAL).toMap());
+                if (state.remove(key) != null) {
+                    context.getStateManager().setState(state, Scope.LOCAL);
+                }
+            } catch (IOException e) {
+                getLogger().warn("Failed to remove checkpoint of history read: " + e.getMessage());
+            }
+        }
+    }
+
+    private List<String> parseFile(Path filePath) throws IOException {
+        byte[] encoded;
+        encoded = Files.readAllBytes(filePath);
+        String fileContent = new String(encoded, Charset.defaultCharset());
+        return new BufferedReader(new StringReader(fileContent)).lines()
+                .filter(line -> !line.trim().isEmpty())
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.fraunhofer.fit.processors.opcua;
+
+import de.fraunhofer.fit.opcua.OPCUAService;
+import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.*;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.*;
+
+@Tags({"opc", "write"})
+@InputRequirement(InputRequirement.Requirement.INPUT_REQUIRED)
+@WritesAttributes({@WritesAttribute(attribute = "opcua.write.status", description = "The status code of the first " +
+        "failed write, only set on flowfiles routed to failure")})
+@CapabilityDescription("Write values to the specified nodes of a OPC UA server. Each line of the incoming flowfile " +
+        "contains a node name and the value to write, separated by a comma.")
+public class PutOPCData extends AbstractProcessor {
+
+    public static final String STATUS_ATTRIBUTE = "opcua.write.status";
+
+    public static final PropertyDescriptor OPCUA_SERVICE = new PropertyDescriptor.Builder()
+            .name("OPC UA Service")
+            .description("Specifies the OPC UA Service that can be used to access data")
+            .required(true)
+            .identifiesControllerService(OPCUAService.class)
+            .sensitive(false)
+            .build();
+
+    public static final PropertyDescriptor MAX_NODES_PER_WRITE = new PropertyDescriptor
+            .Builder().name("Max Nodes Per Write")
+            .description("The maximum number of nodes written in a single Write request. " +
+                    "Set this according to the operation limits of the server.")
+            .required(true)
+            .defaultValue("100")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor MAX_CONCURRENT_WRITES = new PropertyDescriptor
+            .Builder().name("Max Concurrent Writes")
+            .description("The maximum number of Write requests in flight at the same time")
+            .required(true)
+            .defaultValue("4")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final Relationship SUCCESS = new Relationship.Builder()
+            .name("Success")
+            .description("The lines which were written successfully")
+            .build();
+
+    public static final Relationship FAILURE = new Relationship.Builder()
+            .name("Failure")
+            .description("The lines which could not be written")
+            .build();
+
+    private List<PropertyDescriptor> descriptors;
+
+    private Set<Relationship> relationships;
+
+    @Override
+    protected void init(final ProcessorInitializationContext context) {
+        final List<PropertyDescriptor> descriptors = new ArrayList<>();
+        descriptors.add(OPCUA_SERVICE);
+        descriptors.add(MAX_NODES_PER_WRITE);
+        descriptors.add(MAX_CONCURRENT_WRITES);
+
+        this.descriptors = Collections.unmodifiableList(descriptors);
+
+        final Set<Relationship> relationships = new HashSet<>();
+        relationships.add(SUCCESS);
+        relationships.add(FAILURE);
+        this.relationships = Collections.unmodifiableSet(relationships);
+    }
+
+    @Override
+    public Set<Relationship> getRelationships() {
+        return this.relationships;
+    }
+
+    @Override
+    public final List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return descriptors;
+    }
+
+    @Override
+    public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
+
+        FlowFile flowFile = session.get();
+        if (flowFile == null) return;
+
+        final OPCUAService opcUAService = context.getProperty(OPCUA_SERVICE)
+                .asControllerService(OPCUAService.class);
+        int maxNodesPerWrite = context.getProperty(MAX_NODES_PER_WRITE).asInteger();
+        int maxConcurrentWrites = context.getProperty(MAX_CONCURRENT_WRITES).asInteger();
+
+        List<String> lines = new ArrayList<>();
+        List<String> tagNames = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+
+        try {
+            session.read(flowFile, in -> {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, Charset.forName("UTF-8")))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.trim().isEmpty()) continue;
+                        // The node name ends at the first comma, the rest of the line is the value
+                        int idx = line.indexOf(',');
+                        if (idx < 0) {
+                            throw new ProcessException("Invalid line, expected <node>,<value>: " + line);
+                        }
+                        lines.add(line);
+                        tagNames.add(line.substring(0, idx).trim());
+                        values.add(line.substring(idx + 1));
+                    }
+                }
+            });
+        } catch (ProcessException e) {
+            getLogger().error("Unable to parse " + flowFile, e);
+            session.transfer(flowFile, FAILURE);
+            return;
+        }
+
+        if (lines.isEmpty()) {
+            session.transfer(flowFile, SUCCESS);
+            return;
+        }
+
+        long[] statusCodes;
+        try {
+            statusCodes = opcUAService.write(tagNames, values, maxNodesPerWrite, maxConcurrentWrites);
+        } catch (ProcessException e) {
+            getLogger().error("Unable to write values to OPC server", e);
+            session.transfer(session.penalize(flowFile), FAILURE);
+            context.yield();
+            return;
+        }
+
+        StringBuilder succeeded = new StringBuilder();
+        StringBuilder failed = new StringBuilder();
+        long firstFailure = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            // Good and Uncertain status codes have the severity bit 0x80000000 cleared
+            if ((statusCodes[i] & 0x80000000L) == 0) {
+                succeeded.append(lines.get(i)).append(System.lineSeparator());
+            } else {
+                getLogger().warn("Failed to write " + tagNames.get(i) + ", status code: "
+                        + String.format("0x%08X", statusCodes[i]));
+                if (failed.length() == 0) firstFailure = statusCodes[i];
+                failed.append(lines.get(i)).append(System.lineSeparator());
+            }
+        }
+
+        String status = String.format("0x%08X", firstFailure);
+        if (failed.length() == 0) {
+            session.transfer(flowFile, SUCCESS);
+        } else if (succeeded.length() == 0) {
+            flowFile = session.putAttribute(flowFile, STATUS_ATTRIBUTE, status);
+            session.transfer(session.penalize(flowFile), FAILURE);
+        } else {
+            // Split the lines, so that only the failed ones are retried
+            FlowFile successFlowFile = session.write(session.create(flowFile),
+                    out -> out.write(succeeded.toString().getBytes(Charset.forName("UTF-8"))));
+            session.transfer(successFlowFile, SUCCESS);
+
+            FlowFile failureFlowFile = session.write(session.create(flowFile),
+                    out -> out.write(failed.toString().getBytes(Charset.forName("UTF-8"))));
+            failureFlowFile = session.putAttribute(failureFlowFile, STATUS_ATTRIBUTE, status);
+            session.transfer(session.penalize(failureFlowFile), FAILURE);
+
+            session.remove(flowFile);
+        }
+    }
+}
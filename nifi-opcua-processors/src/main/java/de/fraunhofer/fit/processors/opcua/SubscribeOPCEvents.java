@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.fraunhofer.fit.processors.opcua;
+
+import de.fraunhofer.fit.opcua.OPCUAService;
+import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.processor.*;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Collectors;
+
+@Tags({"opc", "event", "alarm"})
+@InputRequirement(InputRequirement.Requirement.INPUT_FORBIDDEN)
+@WritesAttributes({@WritesAttribute(attribute = "opcua.event.count", description = "The number of events in the flowfile"),
+        @WritesAttribute(attribute = "mime.type", description = "application/json")})
+@CapabilityDescription("Subscribe to the events of a list of event notifier nodes, e.g. alarms and conditions, and " +
+        "output them in batches as JSON arrays.")
+public class SubscribeOPCEvents extends AbstractProcessor {
+
+    private OPCUAService opcUaService;
+    private volatile BlockingQueue<String> eventQueue;
+    private String subscriberUid;
+    private int batchSize;
+
+    public static final PropertyDescriptor OPCUA_SERVICE = new PropertyDescriptor.Builder()
+            .name("OPC UA Service")
+            .description("Specifies the OPC UA Service that can be used to access data")
+            .required(true)
+            .identifiesControllerService(OPCUAService.class)
+            .build();
+
+    public static final PropertyDescriptor NOTIFIER_NODES = new PropertyDescriptor
+            .Builder().name("Event Notifier Nodes")
+            .description("The nodes to receive events from, separated by a comma. The Server object i=2253 " +
+                    "notifies all events of the server.")
+            .required(true)
+            .defaultValue("i=2253")
+            .addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor SELECT_CLAUSES = new PropertyDescriptor
+            .Builder().name("Select Clauses")
+            .description("The fields selected from every event, separated by a comma. Each field is a browse path " +
+                    "relative to BaseEventType, e.g. \"Severity\" or \"ActiveState/Id\". \"ConditionId\" selects " +
+                    "the NodeId of the condition.")
+            .required(true)
+            .defaultValue("EventId,EventType,SourceName,Time,Message,Severity")
+            .addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor WHERE_CLAUSE = new PropertyDescriptor
+            .Builder().name("Where Clause")
+            .description("The conditions events must satisfy, joined by AND, e.g. " +
+                    "\"OfType i=2915 AND Severity >= 500\". If not set, all events are received.")
+            .required(false)
+            .addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor MIN_PUBLISH_INTERVAL = new PropertyDescriptor
+            .Builder().name("Minimum publish interval of subscription notification messages")
+            .description("The minimum publish interval of subscription notification messages in milliseconds.")
+            .required(true)
+            .defaultValue("1000")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor SERVER_QUEUE_SIZE = new PropertyDescriptor
+            .Builder().name("Server Queue Size")
+            .description("The number of events the server buffers for each notifier between two publish " +
+                    "responses. Oldest events are discarded when the buffer is full.")
+            .required(true)
+            .defaultValue("10000")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor MAX_QUEUE_SIZE = new PropertyDescriptor
+            .Builder().name("Max Queue Size")
+            .description("The maximum number of events buffered by the processor before they are written to " +
+                    "flowfiles. New events are dropped while the queue is full.")
+            .required(true)
+            .defaultValue("100000")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor BATCH_SIZE = new PropertyDescriptor
+            .Builder().name("Batch Size")
+            .description("The maximum number of events written to a single flowfile")
+            .required(true)
+            .defaultValue("1000")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final Relationship SUCCESS = new Relationship.Builder()
+            .name("Success")
+            .description("Events received from the OPC server")
+            .build();
+
+    private List<PropertyDescriptor> descriptors;
+
+    private Set<Relationship> relationships;
+
+    @Override
+    protected void init(final ProcessorInitializationContext context) {
+        final List<PropertyDescriptor> descriptors = new ArrayList<>();
+        descriptors.add(OPCUA_SERVICE);
+        descriptors.add(NOTIFIER_NODES);
+        descriptors.add(SELECT_CLAUSES);
+        descriptors.add(WHERE_CLAUSE);
+        descriptors.add(MIN_PUBLISH_INTERVAL);
+        descriptors.add(SERVER_QUEUE_SIZE);
+        descriptors.add(MAX_QUEUE_SIZE);
+        descriptors.add(BATCH_SIZE);
+
+        this.descriptors = Collections.unmodifiableList(descriptors);
+
+        final Set<Relationship> relationships = new HashSet<>();
+        relationships.add(SUCCESS);
+        this.relationships = Collections.unmodifiableSet(relationships);
+    }
+
+    @Override
+    public Set<Relationship> getRelationships() {
+        return this.relationships;
+    }
+
+    @Override
+    public final List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return descriptors;
+    }
+
+    @OnScheduled
+    public void onScheduled(final ProcessContext context) {
+
+        opcUaService = context.getProperty(OPCUA_SERVICE)
+                .asControllerService(OPCUAService.class);
+
+        batchSize = context.getProperty(BATCH_SIZE).asInteger();
+        eventQueue = new LinkedBlockingQueue<>(context.getProperty(MAX_QUEUE_SIZE).asInteger());
+
+        subscriberUid = opcUaService.subscribeEvents(
+                splitList(context.getProperty(NOTIFIER_NODES).getValue()),
+                splitList(context.getProperty(SELECT_CLAUSES).getValue()),
+                context.getProperty(WHERE_CLAUSE).getValue(),
+                eventQueue,
+                context.getProperty(MIN_PUBLISH_INTERVAL).asLong(),
+                context.getProperty(SERVER_QUEUE_SIZE).asInteger());
+    }
+
+    @Override
+    public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
+
+        List<String> events = new ArrayList<>(Math.min(batchSize, eventQueue.size()));
+        eventQueue.drainTo(events, batchSize);
+
+        if (events.isEmpty()) {
+            context.yield();
+            return;
+        }
+
+        // Every event is a JSON object already, so a batch is written as a JSON array
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < events.size(); i++) {
+            if (i > 0) sb.append(',');
+            sb.append(System.lineSeparator()).append(events.get(i));
+        }
+        sb.append(System.lineSeparator()).append(']');
+        byte[] outputBytes = sb.toString().getBytes(Charset.forName("UTF-8"));
+
+        FlowFile flowFile = session.create();
+        flowFile = session.write(flowFile, out -> out.write(outputBytes));
+
+        Map<String, String> attrMap = new HashMap<>();
+        attrMap.put("opcua.event.count", String.valueOf(events.size()));
+        attrMap.put(CoreAttributes.MIME_TYPE.key(), "application/json");
+        flowFile = session.putAllAttributes(flowFile, attrMap);
+
+        session.transfer(flowFile, SUCCESS);
+    }
+
+    @OnStopped
+    public void onStopped(final ProcessContext context) {
+
+        getLogger().debug("Unsubscribing from OPC Server...");
+        opcUaService.unsubscribe(subscriberUid);
+
+    }
+
+    private List<String> splitList(String value) {
+        return Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .collect(Collectors.toList());
+    }
+}
@@ -17,12 +17,23 @@
 package de.fraunhofer.fit.processors.opcua;
 
 import de.fraunhofer.fit.opcua.OPCUAService;
+import de.fraunhofer.fit.processors.opcua.utils.Compressor;
+import de.fraunhofer.fit.processors.opcua.utils.LatencyTracker;
+import de.fraunhofer.fit.processors.opcua.utils.MessageAggregator;
 import de.fraunhofer.fit.processors.opcua.utils.RecordAggregator;
+import de.fraunhofer.fit.processors.opcua.utils.Resampler;
+import de.fraunhofer.fit.processors.opcua.utils.SpillQueue;
+import de.fraunhofer.fit.processors.opcua.utils.WindowStatistics;
+import org.apache.nifi.annotation.behavior.Stateful;
+import org.apache.nifi.annotation.behavior.TriggerSerially;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
 import org.apache.nifi.annotation.lifecycle.OnScheduled;
 import org.apache.nifi.annotation.lifecycle.OnStopped;
 import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.components.state.Scope;
 import org.apache.nifi.expression.ExpressionLanguageScope;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.processor.*;
@@ -39,21 +50,70 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+@TriggerSerially
 @Tags({"opc"})
+@Stateful(scopes = Scope.LOCAL, description = "If gaps are backfilled, the last source timestamp seen for each node " +
+        "is stored, so that values changed while the processor was stopped can be read from history.")
 @CapabilityDescription("Subscribe to a list of nodes and output flowfiles when changes are detected.")
 public class SubscribeOPCNodes extends AbstractProcessor {
 
+    // Size of the segment files of the spill queue
+    private static final int SPILL_SEGMENT_SIZE = 64 * 1024 * 1024;
+    // Upper bound of messages handled in one session, so that a long queue is committed in parts
+    private static final int MAX_MESSAGES_PER_TRIGGER = 10000;
+    // Resampled rows and statistics windows wait this many minimum publish intervals for late values,
+    // like aggregated records
+    private static final int LATENESS_MULTIPLIER = 4;
+    // Names of the counters shown in the NiFi UI
+    static final String COUNTER_MESSAGES_RECEIVED = "Messages Received";
+    static final String COUNTER_QUEUE_DEPTH = "Queue Depth";
+
     private OPCUAService opcUaService;
     private BlockingQueue<String> msgQueue;
+    private long reportedQueueDepth;
+    private SpillQueue spillQueue;
     private List<String> tagNames;
+    // The tags as named in the queue messages, e.g. ns=0;i=2258 for a line i=2258 in the tag list file
+    private List<String> tagFullNames;
     private String subscriberUid;
     private boolean aggregateRecord;
     private boolean tsChangedNotify;
     private long minPublishInterval;
-    private RecordAggregator recordAggregator;
+    private MessageAggregator recordAggregator;
+    private int maxOpenRecords;
+    private int recordQuorum;
+    private long resampleInterval;
+    private Resampler.FillMethod fillMethod;
+    private long windowSize;
+    private long windowSlide;
+    private List<WindowStatistics.Statistic> windowStatistics;
+    private Compressor compressor;
+    private long maxHoldTime;
+    private boolean backfillGaps;
+    private long checkpointInterval;
+    private volatile long lastCheckpointTime;
+    // The last source timestamp of the values of each tag which have been emitted in a committed session
+    private final Map<String, Long> lastSourceTimes = new ConcurrentHashMap<>();
+    // The source timestamps of the values emitted in the current session, added to lastSourceTimes once it commits
+    private final Map<String, Long> sessionSourceTimes = new HashMap<>();
+    // The last source timestamp of the values which went into the aggregators, whose records may not be emitted yet
+    private final Map<String, Long> aggregatedSourceTimes = new HashMap<>();
+    private Path tagFilePath;
+    private long tagFileModified;
+    private long tagFileRefreshInterval;
+    private long lastTagFileRefresh;
+    private LatencyTracker latencyTracker;
+    private long latencyReportInterval;
+    private long latencyThreshold;
+    private long staleTagAge;
+    private long lastLatencyReport;
+    // Aggregators of previous tag lists, kept until their pending records have been published
+    private final List<MessageAggregator> retiredAggregators = new ArrayList<>();
 
     public static final PropertyDescriptor OPCUA_SERVICE = new PropertyDescriptor.Builder()
             .name("OPC UA Service")
@@ -81,6 +141,94 @@ public class SubscribeOPCNodes extends AbstractProcessor {
             .sensitive(false)
             .build();
 
+    public static final PropertyDescriptor MAX_OPEN_RECORDS = new PropertyDescriptor
+            .Builder().name("Max Open Records")
+            .description("The maximum number of timestamps aggregated at the same time. If a new timestamp arrives " +
+                    "while this many records are waiting for values, the oldest record is published early. " +
+                    "Only valid when \"Aggregate Records\" is true.")
+            .required(true)
+            .defaultValue("1000")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor RECORD_QUORUM = new PropertyDescriptor
+            .Builder().name("Record Completeness Quorum")
+            .description("The percentage of tags which must have a value for a timestamp, before its record is " +
+                    "published. Records which don't reach it are published after 4 times the minimum publish " +
+                    "interval. Only valid when \"Aggregate Records\" is true.")
+            .required(true)
+            .defaultValue("100")
+            .addValidator(StandardValidators.createLongValidator(1, 100, true))
+            .build();
+
+    public static final PropertyDescriptor RESAMPLE_INTERVAL = new PropertyDescriptor
+            .Builder().name("Resample Interval")
+            .description("If set, the values are aligned onto a time grid of this interval, and one record is " +
+                    "published for every interval instead of one record for every source timestamp. " +
+                    "Only valid when \"Aggregate Records\" is true.")
+            .required(false)
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor RESAMPLE_FILL_METHOD = new PropertyDescriptor
+            .Builder().name("Resample Fill Method")
+            .description("How the value of a tag at a grid point is determined. LastValue uses the last value " +
+                    "before the grid point, Linear interpolates between the values before and after it, and None " +
+                    "uses the last value within the interval ending at the grid point, or leaves it empty. " +
+                    "Only valid when \"Resample Interval\" is set.")
+            .required(true)
+            .defaultValue("LastValue")
+            .allowableValues("LastValue", "Linear", "None")
+            .build();
+
+    public static final PropertyDescriptor WINDOW_SIZE = new PropertyDescriptor
+            .Builder().name("Statistics Window Size")
+            .description("If set, statistics of the values of each tag are computed over time windows of this size, " +
+                    "and one record is published for every window instead of the values. \"Resample Interval\" " +
+                    "is ignored then. Only valid when \"Aggregate Records\" is true.")
+            .required(false)
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor WINDOW_SLIDE = new PropertyDescriptor
+            .Builder().name("Statistics Window Slide")
+            .description("The period between the starts of two windows, which must divide the window size. If not " +
+                    "set, the windows don't overlap. Only valid when \"Statistics Window Size\" is set.")
+            .required(false)
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor WINDOW_STATISTICS = new PropertyDescriptor
+            .Builder().name("Window Statistics")
+            .description("The statistics computed for each tag, separated by a comma. Possible values are min, max, " +
+                    "mean, count, first, last and stddev. Only valid when \"Statistics Window Size\" is set.")
+            .required(true)
+            .defaultValue("min,max,mean,count")
+            .addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor COMPRESSION_METHOD = new PropertyDescriptor
+            .Builder().fromPropertyDescriptor(CompressionProperties.COMPRESSION_METHOD)
+            .description("Drops values which lie on the current trend of their tag before they are output or " +
+                    "aggregated. ExceptionDeviation keeps a value if it differs from the last kept value by more " +
+                    "than the deviation. SwingingDoor keeps the values where the trend changes by more than the " +
+                    "deviation, which are output one value late, or after \"Compression Max Hold Time\".")
+            .build();
+
+    public static final PropertyDescriptor COMPRESSION_DEVIATION = CompressionProperties.COMPRESSION_DEVIATION;
+
+    public static final PropertyDescriptor COMPRESSION_DEVIATION_FILE = CompressionProperties.COMPRESSION_DEVIATION_FILE;
+
+    public static final PropertyDescriptor COMPRESSION_MAX_HOLD_TIME = new PropertyDescriptor
+            .Builder().name("Compression Max Hold Time")
+            .description("The longest time SwingingDoor holds back the last value of a tag, e.g. when the tag " +
+                    "stops changing. The value is output then, and starts a new trend. Only valid when " +
+                    "\"Compression Method\" is SwingingDoor.")
+            .required(true)
+            .defaultValue("5 min")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
     public static final PropertyDescriptor TS_CHANGE_NOTIFY = new PropertyDescriptor
             .Builder().name("Notified when Timestamp changed")
             .description("Whether the data should be collected, when only the timestamp of a variable has changed, but not its value.")
@@ -99,6 +247,120 @@ public class SubscribeOPCNodes extends AbstractProcessor {
             .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
             .build();
 
+    public static final PropertyDescriptor SCAN_PERIOD = new PropertyDescriptor
+            .Builder().name("Scan Period")
+            .description("If set, the nodes are not subscribed to, but read by the OPC UA service every period, at " +
+                    "the wall clock times which are a multiple of the period plus \"Scan Phase\". The values of " +
+                    "every scan are emitted, whether they changed or not. \"Notified when Timestamp changed\" and " +
+                    "\"Backfill Gaps\" don't apply to scans.")
+            .required(false)
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor SCAN_PHASE = new PropertyDescriptor
+            .Builder().name("Scan Phase")
+            .description("The offset of the scans from the multiples of \"Scan Period\", which must be less than " +
+                    "the period. Only valid when \"Scan Period\" is set.")
+            .required(true)
+            .defaultValue("0 sec")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor SCAN_CLASS = new PropertyDescriptor
+            .Builder().name("Scan Class")
+            .description("The name of the scan class. Processors with the same scan class share its scans, and must " +
+                    "use the same \"Scan Period\" and \"Scan Phase\". If not set, the processor has a scan class " +
+                    "of its own. Only valid when \"Scan Period\" is set.")
+            .required(false)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor BACKFILL_GAPS = new PropertyDescriptor
+            .Builder().name("Backfill Gaps")
+            .description("Whether values changed while the subscription was interrupted should be read from history. " +
+                    "This covers restarts of the processor or of Nifi as well as subscriptions recreated after a reconnect. " +
+                    "The server must support the HistoryRead service for the subscribed nodes.")
+            .required(true)
+            .defaultValue("false")
+            .allowableValues("true", "false")
+            .addValidator(StandardValidators.BOOLEAN_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor MAX_BACKFILL_PERIOD = new PropertyDescriptor
+            .Builder().name("Max Backfill Period")
+            .description("How far back gaps are filled at most. Values older than this are not read from history. " +
+                    "Only valid when \"Backfill Gaps\" is true.")
+            .required(true)
+            .defaultValue("1 hour")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor CHECKPOINT_INTERVAL = new PropertyDescriptor
+            .Builder().name("State Checkpoint Interval")
+            .description("How often the last source timestamp of each node is written to the processor state. " +
+                    "Values received after the last checkpoint may be emitted again after Nifi is restarted. " +
+                    "Only valid when \"Backfill Gaps\" is true.")
+            .required(true)
+            .defaultValue("10 sec")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor TAG_FILE_REFRESH_INTERVAL = new PropertyDescriptor
+            .Builder().name("Tag List Refresh Interval")
+            .description("How often the tag list file is checked for changes while the processor is running. " +
+                    "Nodes added to or removed from the file are added to or removed from the running subscription, " +
+                    "without recreating the other monitored items. Set to 0 sec to disable.")
+            .required(true)
+            .defaultValue("10 sec")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor SPILL_DIRECTORY = new PropertyDescriptor
+            .Builder().name("Spill Directory")
+            .description("If set, received messages are buffered in memory-mapped files in this directory instead " +
+                    "of the heap. Messages which haven't been written to flowfiles yet are kept when the processor " +
+                    "or Nifi is restarted. Each processor needs a directory of its own. Only valid when \"Aggregate " +
+                    "Records\" is false and \"Compression Method\" is None.")
+            .required(false)
+            .addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+            .expressionLanguageSupported(ExpressionLanguageScope.VARIABLE_REGISTRY)
+            .build();
+
+    public static final PropertyDescriptor MAX_SPILL_SIZE = new PropertyDescriptor
+            .Builder().name("Max Spill Size")
+            .description("The maximum disk space used by the spill directory. New messages are dropped when it " +
+                    "is full. Only valid when \"Spill Directory\" is set.")
+            .required(true)
+            .defaultValue("1 GB")
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor LATENCY_REPORT_INTERVAL = new PropertyDescriptor
+            .Builder().name("Latency Report Interval")
+            .description("How often a summary of the lag between the source timestamps of the values and the time " +
+                    "they are emitted or reached the server is logged, per tag and over all tags. Set to 0 sec to " +
+                    "disable latency tracking.")
+            .required(true)
+            .defaultValue("0 sec")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor LATENCY_THRESHOLD = new PropertyDescriptor
+            .Builder().name("Latency Threshold")
+            .description("If set, a warning bulletin lists the tags which emitted a value older than this in the " +
+                    "last report interval. Only valid when \"Latency Report Interval\" is set.")
+            .required(false)
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor STALE_TAG_AGE = new PropertyDescriptor
+            .Builder().name("Stale Tag Age")
+            .description("If set, a warning bulletin lists the tags which haven't received a value for longer than " +
+                    "this. Only valid when \"Latency Report Interval\" is set.")
+            .required(false)
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
     public static final Relationship SUCCESS = new Relationship.Builder()
             .name("Success")
             .description("Successful OPC read")
@@ -119,8 +381,31 @@ public class SubscribeOPCNodes extends AbstractProcessor {
         descriptors.add(OPCUA_SERVICE);
         descriptors.add(TAG_FILE_LOCATION);
         descriptors.add(AGGREGATE_RECORD);
+        descriptors.add(MAX_OPEN_RECORDS);
+        descriptors.add(RECORD_QUORUM);
+        descriptors.add(RESAMPLE_INTERVAL);
+        descriptors.add(RESAMPLE_FILL_METHOD);
+        descriptors.add(WINDOW_SIZE);
+        descriptors.add(WINDOW_SLIDE);
+        descriptors.add(WINDOW_STATISTICS);
+        descriptors.add(COMPRESSION_METHOD);
+        descriptors.add(COMPRESSION_DEVIATION);
+        descriptors.add(COMPRESSION_DEVIATION_FILE);
+        descriptors.add(COMPRESSION_MAX_HOLD_TIME);
         descriptors.add(TS_CHANGE_NOTIFY);
         descriptors.add(MIN_PUBLISH_INTERVAL);
+        descriptors.add(SCAN_PERIOD);
+        descriptors.add(SCAN_PHASE);
+        descriptors.add(SCAN_CLASS);
+        descriptors.add(BACKFILL_GAPS);
+        descriptors.add(MAX_BACKFILL_PERIOD);
+        descriptors.add(CHECKPOINT_INTERVAL);
+        descriptors.add(TAG_FILE_REFRESH_INTERVAL);
+        descriptors.add(SPILL_DIRECTORY);
+        descriptors.add(MAX_SPILL_SIZE);
+        descriptors.add(LATENCY_REPORT_INTERVAL);
+        descriptors.add(LATENCY_THRESHOLD);
+        descriptors.add(STALE_TAG_AGE);
 
         this.descriptors = Collections.unmodifiableList(descriptors);
 
@@ -142,6 +427,59 @@ public class SubscribeOPCNodes extends AbstractProcessor {
         return descriptors;
     }
 
+    @Override
+    protected Collection<ValidationResult> customValidate(final ValidationContext context) {
+        final List<ValidationResult> results = new ArrayList<>();
+
+        // The spill cursor is committed past every message read, so messages held back in an open record or by the
+        // compression would be lost on a restart
+        if (context.getProperty(SPILL_DIRECTORY).isSet()) {
+            if (context.getProperty(AGGREGATE_RECORD).asBoolean()) {
+                results.add(new ValidationResult.Builder()
+                        .subject(SPILL_DIRECTORY.getName())
+                        .valid(false)
+                        .explanation("a spill directory can't be used together with \"Aggregate Records\"")
+                        .build());
+            }
+            if (!"None".equals(context.getProperty(COMPRESSION_METHOD).getValue())) {
+                results.add(new ValidationResult.Builder()
+                        .subject(SPILL_DIRECTORY.getName())
+                        .valid(false)
+                        .explanation("a spill directory can't be used together with a \"Compression Method\"")
+                        .build());
+            }
+        }
+
+        if (!context.getProperty(WINDOW_SIZE).isSet()) {
+            return results;
+        }
+
+        long size = context.getProperty(WINDOW_SIZE).asTimePeriod(TimeUnit.MILLISECONDS);
+        long slide = context.getProperty(WINDOW_SLIDE).isSet() ?
+                context.getProperty(WINDOW_SLIDE).asTimePeriod(TimeUnit.MILLISECONDS) : size;
+        if (size <= 0 || slide <= 0 || size % slide != 0) {
+            results.add(new ValidationResult.Builder()
+                    .subject(WINDOW_SLIDE.getName())
+                    .valid(false)
+                    .explanation("the statistics window size must be a positive multiple of the window slide")
+                    .build());
+        }
+
+        for (String statistic : context.getProperty(WINDOW_STATISTICS).getValue().split(",")) {
+            try {
+                WindowStatistics.Statistic.valueOf(statistic.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                results.add(new ValidationResult.Builder()
+                        .subject(WINDOW_STATISTICS.getName())
+                        .input(statistic)
+                        .valid(false)
+                        .explanation("unknown window statistic")
+                        .build());
+            }
+        }
+        return results;
+    }
+
     @OnScheduled
     public void onScheduled(final ProcessContext context) {
 
@@ -150,72 +488,204 @@ public class SubscribeOPCNodes extends AbstractProcessor {
 
 
         try {
-            tagNames = parseFile(Paths.get(context.getProperty(TAG_FILE_LOCATION).evaluateAttributeExpressions().toString()));
+            tagFilePath = Paths.get(context.getProperty(TAG_FILE_LOCATION).evaluateAttributeExpressions().toString());
+            tagFileModified = Files.getLastModifiedTime(tagFilePath).toMillis();
+            tagNames = parseFile(tagFilePath);
         } catch (IOException e) {
             getLogger().error("Error reading tag list from local file.");
             return;
         }
 
         aggregateRecord = Boolean.valueOf(context.getProperty(AGGREGATE_RECORD).getValue());
+        maxOpenRecords = context.getProperty(MAX_OPEN_RECORDS).asInteger();
+        recordQuorum = context.getProperty(RECORD_QUORUM).asInteger();
+        resampleInterval = context.getProperty(RESAMPLE_INTERVAL).isSet() ?
+                context.getProperty(RESAMPLE_INTERVAL).asTimePeriod(TimeUnit.MILLISECONDS) : 0;
+        switch (context.getProperty(RESAMPLE_FILL_METHOD).getValue()) {
+            case "Linear":
+                fillMethod = Resampler.FillMethod.LINEAR;
+                break;
+            case "None":
+                fillMethod = Resampler.FillMethod.NONE;
+                break;
+            default:
+                fillMethod = Resampler.FillMethod.LAST_VALUE;
+        }
+        windowSize = context.getProperty(WINDOW_SIZE).isSet() ?
+                context.getProperty(WINDOW_SIZE).asTimePeriod(TimeUnit.MILLISECONDS) : 0;
+        windowSlide = context.getProperty(WINDOW_SLIDE).isSet() ?
+                context.getProperty(WINDOW_SLIDE).asTimePeriod(TimeUnit.MILLISECONDS) : windowSize;
+        // Both are validated by customValidate
+        windowStatistics = new ArrayList<>();
+        for (String statistic : context.getProperty(WINDOW_STATISTICS).getValue().split(",")) {
+            windowStatistics.add(WindowStatistics.Statistic.valueOf(statistic.trim().toUpperCase()));
+        }
+        compressor = CompressionProperties.createCompressor(context);
+        maxHoldTime = context.getProperty(COMPRESSION_MAX_HOLD_TIME).asTimePeriod(TimeUnit.MILLISECONDS);
         tsChangedNotify = Boolean.valueOf(context.getProperty(TS_CHANGE_NOTIFY).getValue());
         minPublishInterval = context.getProperty(MIN_PUBLISH_INTERVAL).asLong();
+        tagFileRefreshInterval = context.getProperty(TAG_FILE_REFRESH_INTERVAL).asTimePeriod(TimeUnit.MILLISECONDS);
+        lastTagFileRefresh = System.currentTimeMillis();
+        backfillGaps = context.getProperty(BACKFILL_GAPS).asBoolean();
+        checkpointInterval = context.getProperty(CHECKPOINT_INTERVAL).asTimePeriod(TimeUnit.MILLISECONDS);
+        long maxBackfillPeriod = backfillGaps ?
+                context.getProperty(MAX_BACKFILL_PERIOD).asTimePeriod(TimeUnit.MILLISECONDS) : 0;
+
+        // Restore the last source timestamps seen before the processor was stopped
+        lastSourceTimes.clear();
+        aggregatedSourceTimes.clear();
+        if (backfillGaps) {
+            try {
+                context.getStateManager().getState(Scope.LOCAL).toMap()
+                        .forEach((tag, time) -> lastSourceTimes.put(tag, Long.valueOf(time)));
+            } catch (IOException | NumberFormatException e) {
+                getLogger().warn("Failed to restore last source timestamps from state: " + e.getMessage());
+            }
+        }
+        lastCheckpointTime = System.currentTimeMillis();
+
+        latencyReportInterval = context.getProperty(LATENCY_REPORT_INTERVAL).asTimePeriod(TimeUnit.MILLISECONDS);
+        latencyTracker = latencyReportInterval > 0 ? new LatencyTracker() : null;
+        latencyThreshold = context.getProperty(LATENCY_THRESHOLD).isSet() ?
+                context.getProperty(LATENCY_THRESHOLD).asTimePeriod(TimeUnit.MILLISECONDS) : -1;
+        staleTagAge = context.getProperty(STALE_TAG_AGE).isSet() ?
+                context.getProperty(STALE_TAG_AGE).asTimePeriod(TimeUnit.MILLISECONDS) : -1;
+        lastLatencyReport = System.currentTimeMillis();
+
+        String spillDirectory = context.getProperty(SPILL_DIRECTORY).evaluateAttributeExpressions().getValue();
+        if (spillDirectory != null) {
+            try {
+                // Messages left in the directory by the last run are read first
+                spillQueue = new SpillQueue(Paths.get(spillDirectory), SPILL_SEGMENT_SIZE,
+                        context.getProperty(MAX_SPILL_SIZE).asDataSize(DataUnit.B).longValue());
+            } catch (IOException e) {
+                throw new ProcessException("Cannot open spill directory " + spillDirectory, e);
+            }
+            msgQueue = spillQueue;
+        } else if (msgQueue instanceof SpillQueue) {
+            msgQueue = new LinkedBlockingQueue<>();
+        }
 
-        subscriberUid = opcUaService.subscribe(tagNames, msgQueue, tsChangedNotify, minPublishInterval);
+        if (context.getProperty(SCAN_PERIOD).isSet()) {
+            String scanClass = context.getProperty(SCAN_CLASS).isSet() ?
+                    context.getProperty(SCAN_CLASS).getValue() : getIdentifier();
+            subscriberUid = opcUaService.subscribeScanClass(scanClass, tagNames,
+                    context.getProperty(SCAN_PERIOD).asTimePeriod(TimeUnit.MILLISECONDS),
+                    context.getProperty(SCAN_PHASE).asTimePeriod(TimeUnit.MILLISECONDS), msgQueue);
+        } else {
+            subscriberUid = opcUaService.subscribe(tagNames, msgQueue, tsChangedNotify, minPublishInterval,
+                    new HashMap<>(lastSourceTimes), maxBackfillPeriod);
+        }
+        tagFullNames = opcUaService.getFullNames(tagNames);
 
-        recordAggregator = new RecordAggregator(tagNames, minPublishInterval);
+        // Records still open when the processor was stopped are published by the next triggers with their previous
+        // header. If gaps are backfilled, their values are read from history again instead
+        if (aggregateRecord && !backfillGaps && recordAggregator != null) {
+            retiredAggregators.add(recordAggregator);
+        } else {
+            retiredAggregators.clear();
+        }
+        recordAggregator = createAggregator(tagNames);
     }
 
     @Override
     public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
+        try {
+            processMessages(context, session);
+        } catch (Throwable t) {
+            // The session is rolled back, so the messages it read from the spill directory are read again
+            if (spillQueue != null) spillQueue.rollback();
+            throw t;
+        }
+    }
+
+    private void processMessages(final ProcessContext context, final ProcessSession session) {
+
+        if (tagFileRefreshInterval > 0 && System.currentTimeMillis() - lastTagFileRefresh >= tagFileRefreshInterval) {
+            refreshTagList();
+        }
+
+        // Left over if the previous session failed
+        sessionSourceTimes.clear();
 
+        int received = 0;
         if(!aggregateRecord) {
-            String msg;
-            while ((msg = msgQueue.poll()) != null) {
-                // Write the results back out to a flow file
-                FlowFile flowFile = session.create();
-
-                byte[] outputMsgBytes = msg.getBytes();
-                if (flowFile != null) {
-                    try {
-                        flowFile = session.write(flowFile, (OutputStream out) -> out.write(outputMsgBytes));
-
-                        // Transfer data to flow file
-                        session.transfer(flowFile, SUCCESS);
-                    } catch (ProcessException ex) {
-                        getLogger().error("Unable to process", ex);
-                        session.transfer(flowFile, FAILURE);
-                    }
+            String rawMsg;
+            for (; received < MAX_MESSAGES_PER_TRIGGER && (rawMsg = msgQueue.poll()) != null; received++) {
+                for (String msg : compress(rawMsg)) {
+                    transferMessage(session, msg);
                 }
             }
+            for (String msg : releaseHeld()) {
+                transferMessage(session, msg);
+            }
         } else {
             String rawMsg;
-            while ((rawMsg = msgQueue.poll()) != null) {
-                recordAggregator.aggregate(rawMsg);
-            }
-
-            List<String> list = recordAggregator.getReadyRecords();
-            for(String msg: list) {
-                // Write the results back out to a flow file
-                FlowFile flowFile = session.create();
-
-                byte[] outputMsgBytes = msg.getBytes();
-                if (flowFile != null) {
-                    try {
-                        flowFile = session.write(flowFile, (OutputStream out) -> out.write(outputMsgBytes));
-
-                        // add header to attribute (remember to add time stamp colum to the first)
-                        Map<String, String> attrMap = new HashMap<>();
-                        attrMap.put("csvHeader", "timestamp," + String.join(",", tagNames) + System.getProperty("line.separator"));
-                        flowFile = session.putAllAttributes(flowFile, attrMap);
-
-                        // Transfer data to flow file
-                        session.transfer(flowFile, SUCCESS);
-                    } catch (ProcessException ex) {
-                        getLogger().error("Unable to process", ex);
-                        session.transfer(flowFile, FAILURE);
-                    }
+            for (; received < MAX_MESSAGES_PER_TRIGGER && (rawMsg = msgQueue.poll()) != null; received++) {
+                if (backfillGaps) trackSourceTime(rawMsg, aggregatedSourceTimes);
+                // Values are tracked when they enter the aggregation, and the records when they are emitted
+                if (latencyTracker != null) latencyTracker.record(rawMsg, System.currentTimeMillis());
+                for (String msg : compress(rawMsg)) {
+                    recordAggregator.aggregate(msg);
+                }
+            }
+            for (String msg : releaseHeld()) {
+                recordAggregator.aggregate(msg);
+            }
+
+            // Records started before the tag list changed are published with the previous header
+            long recordTime = Long.MIN_VALUE;
+            Iterator<MessageAggregator> retired = retiredAggregators.iterator();
+            while (retired.hasNext()) {
+                MessageAggregator aggregator = retired.next();
+                recordTime = Math.max(recordTime,
+                        transferRecords(session, aggregator.getReadyRecords(), aggregator.getColumns()));
+                if (aggregator.isEmpty()) retired.remove();
+            }
+
+            recordTime = Math.max(recordTime,
+                    transferRecords(session, recordAggregator.getReadyRecords(), recordAggregator.getColumns()));
+
+            // Records are published in the order of their timestamps, and values up to the timestamp of a published
+            // record won't be part of a later record
+            if (backfillGaps && recordTime != Long.MIN_VALUE) {
+                for (Map.Entry<String, Long> entry : aggregatedSourceTimes.entrySet()) {
+                    sessionSourceTimes.merge(entry.getKey(), Math.min(entry.getValue(), recordTime), Math::max);
+                }
+            }
+        }
+
+        if (received > 0) {
+            session.adjustCounter(COUNTER_MESSAGES_RECEIVED, received, false);
+        }
+        // Counters can only be adjusted, so the queue depth is kept up to date by adding its change
+        long queueDepth = msgQueue.size();
+        if (queueDepth != reportedQueueDepth) {
+            session.adjustCounter(COUNTER_QUEUE_DEPTH, queueDepth - reportedQueueDepth, false);
+            reportedQueueDepth = queueDepth;
+        }
+
+        if (spillQueue != null || backfillGaps) {
+            // Messages are only removed from the spill directory, and their source timestamps only checkpointed, once
+            // their flowfiles are safe in the repository
+            session.commit();
+            if (spillQueue != null) {
+                try {
+                    spillQueue.commit();
+                } catch (IOException e) {
+                    getLogger().warn("Failed to store the read position of the spill directory: " + e.getMessage());
                 }
             }
+            sessionSourceTimes.forEach((tag, time) -> lastSourceTimes.merge(tag, time, Math::max));
+            sessionSourceTimes.clear();
+        }
+
+        if (backfillGaps && System.currentTimeMillis() - lastCheckpointTime >= checkpointInterval) {
+            checkpoint(context);
+        }
+
+        if (latencyTracker != null && System.currentTimeMillis() - lastLatencyReport >= latencyReportInterval) {
+            reportLatency();
         }
 
     }
@@ -226,6 +696,196 @@ public class SubscribeOPCNodes extends AbstractProcessor {
         getLogger().debug("Unsubscribing from OPC Server...");
         opcUaService.unsubscribe(subscriberUid);
 
+        if (spillQueue != null) {
+            try {
+                spillQueue.close();
+            } catch (IOException e) {
+                getLogger().warn("Failed to close spill directory: " + e.getMessage());
+            }
+            spillQueue = null;
+        }
+
+        if (backfillGaps) {
+            checkpoint(context);
+        }
+
+    }
+
+    // The messages kept by the compression, which may include messages of earlier calls. Unlike in GetOPCData, the
+    // compressor needs no lock, as the processor runs one task at a time
+    private List<String> compress(String rawMsg) {
+        if (compressor == null) return Collections.singletonList(rawMsg);
+        List<String> kept = new ArrayList<>(2);
+        compressor.compress(rawMsg, kept);
+        return kept;
+    }
+
+    // The messages held back by the compression for longer than the maximum hold time
+    private List<String> releaseHeld() {
+        if (compressor == null) return Collections.emptyList();
+        List<String> released = new ArrayList<>();
+        compressor.releaseHeld(System.currentTimeMillis() - maxHoldTime, released);
+        return released;
+    }
+
+    private void transferMessage(final ProcessSession session, String msg) {
+        if (backfillGaps) trackSourceTime(msg, sessionSourceTimes);
+        if (latencyTracker != null) latencyTracker.record(msg, System.currentTimeMillis());
+
+        // Write the results back out to a flow file
+        FlowFile flowFile = session.create();
+
+        byte[] outputMsgBytes = msg.getBytes();
+        if (flowFile != null) {
+            try {
+                flowFile = session.write(flowFile, (OutputStream out) -> out.write(outputMsgBytes));
+
+                // Transfer data to flow file
+                session.transfer(flowFile, SUCCESS);
+            } catch (ProcessException ex) {
+                getLogger().error("Unable to process", ex);
+                session.transfer(flowFile, FAILURE);
+            }
+        }
+    }
+
+    private MessageAggregator createAggregator(List<String> tags) {
+        if (windowSize > 0) {
+            return new WindowStatistics(tags, windowSize, windowSlide, windowStatistics,
+                    LATENESS_MULTIPLIER * minPublishInterval);
+        }
+        if (resampleInterval > 0) {
+            return new Resampler(tags, resampleInterval, fillMethod,
+                    LATENESS_MULTIPLIER * minPublishInterval, maxOpenRecords);
+        }
+        return new RecordAggregator(tags, minPublishInterval, maxOpenRecords, recordQuorum);
+    }
+
+    // Transfer the records, and return the highest timestamp among them
+    private long transferRecords(final ProcessSession session, List<String> list, List<String> columns) {
+        long maxTime = Long.MIN_VALUE;
+        for(String msg: list) {
+            int timeEnd = msg.indexOf(',');
+            try {
+                maxTime = Math.max(maxTime, Long.parseLong(timeEnd < 0 ? msg.trim() : msg.substring(0, timeEnd)));
+            } catch (NumberFormatException e) {
+                // Not a record with a timestamp
+            }
+
+            if (latencyTracker != null) latencyTracker.recordRecord(msg, System.currentTimeMillis());
+
+            // Write the results back out to a flow file
+            FlowFile flowFile = session.create();
+
+            byte[] outputMsgBytes = msg.getBytes();
+            if (flowFile != null) {
+                try {
+                    flowFile = session.write(flowFile, (OutputStream out) -> out.write(outputMsgBytes));
+
+                    // add header to attribute (remember to add time stamp colum to the first)
+                    Map<String, String> attrMap = new HashMap<>();
+                    attrMap.put("csvHeader", "timestamp," + String.join(",", columns) + System.getProperty("line.separator"));
+                    flowFile = session.putAllAttributes(flowFile, attrMap);
+
+                    // Transfer data to flow file
+                    session.transfer(flowFile, SUCCESS);
+                } catch (ProcessException ex) {
+                    getLogger().error("Unable to process", ex);
+                    session.transfer(flowFile, FAILURE);
+                }
+            }
+        }
+        return maxTime;
+    }
+
+    // Apply changes of the tag list file to the running subscription
+    private void refreshTagList() {
+        lastTagFileRefresh = System.currentTimeMillis();
+
+        List<String> newTagNames;
+        long modified;
+        try {
+            modified = Files.getLastModifiedTime(tagFilePath).toMillis();
+            if (modified == tagFileModified) return;
+            newTagNames = parseFile(tagFilePath);
+        } catch (IOException e) {
+            getLogger().warn("Error reading tag list from local file: " + e.getMessage());
+            return;
+        }
+
+        if (!newTagNames.equals(tagNames)) {
+            List<String> newFullNames;
+            try {
+                newFullNames = opcUaService.getFullNames(newTagNames);
+                opcUaService.updateSubscription(subscriberUid, newTagNames);
+            } catch (ProcessException e) {
+                // The file is read again on the next refresh
+                getLogger().error("Updating subscription failed: " + e.getMessage());
+                return;
+            }
+
+            // The source timestamps are kept by the names of the messages
+            lastSourceTimes.keySet().retainAll(newFullNames);
+            aggregatedSourceTimes.keySet().retainAll(newFullNames);
+
+            if (aggregateRecord) {
+                retiredAggregators.add(recordAggregator);
+                recordAggregator = createAggregator(newTagNames);
+            }
+            tagNames = newTagNames;
+            tagFullNames = newFullNames;
+        }
+
+        tagFileModified = modified;
+    }
+
+    // Remember the source timestamp of a queue message, which has the form "tag,serverTime,sourceTime,value,status"
+    private void trackSourceTime(String msg, Map<String, Long> sourceTimes) {
+        int tagEnd = msg.indexOf(',');
+        int serverTimeEnd = tagEnd < 0 ? -1 : msg.indexOf(',', tagEnd + 1);
+        int sourceTimeEnd = serverTimeEnd < 0 ? -1 : msg.indexOf(',', serverTimeEnd + 1);
+        if (sourceTimeEnd <= serverTimeEnd + 1) return;
+
+        try {
+            long sourceTime = Long.parseLong(msg.substring(serverTimeEnd + 1, sourceTimeEnd));
+            sourceTimes.merge(msg.substring(0, tagEnd), sourceTime, Math::max);
+        } catch (NumberFormatException e) {
+            getLogger().debug("No source timestamp in message: " + msg);
+        }
+    }
+
+    // Log the latency of the last report interval, and warn about outliers and stale tags
+    private void reportLatency() {
+        long now = System.currentTimeMillis();
+        lastLatencyReport = now;
+
+        getLogger().info(latencyTracker.getSummary());
+        if (latencyThreshold >= 0) {
+            List<String> outliers = latencyTracker.getOutliers(latencyThreshold);
+            if (!outliers.isEmpty()) {
+                getLogger().warn(outliers.size() + " tags emitted values older than " + latencyThreshold + " ms: "
+                        + String.join("; ", outliers));
+            }
+        }
+        if (staleTagAge >= 0) {
+            List<String> staleTags = latencyTracker.getStaleTags(tagFullNames, now, staleTagAge);
+            if (!staleTags.isEmpty()) {
+                getLogger().warn(staleTags.size() + " tags haven't received a value for " + staleTagAge + " ms: "
+                        + String.join(", ", staleTags));
+            }
+        }
+        latencyTracker.clear(tagFullNames);
+    }
+
+    private void checkpoint(final ProcessContext context) {
+        Map<String, String> state = new HashMap<>();
+        lastSourceTimes.forEach((tag, time) -> state.put(tag, String.valueOf(time)));
+        try {
+            context.getStateManager().setState(state, Scope.LOCAL);
+            lastCheckpointTime = System.currentTimeMillis();
+        } catch (IOException e) {
+            getLogger().warn("Failed to store last source timestamps in state: " + e.getMessage());
+        }
     }
 
     private List<String> parseFile(Path filePath) throws IOException {
@@ -0,0 +1,208 @@
+package de.fraunhofer.fit.processors.opcua.utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Drops the values of tags which lie within a deviation of the current trend, like the compression of a historian.
+ *
+ * With exception deviation, a value is kept if it differs from the last kept value of its tag by more than the
+ * deviation. With swinging door trending, a value is kept if no straight line from the last kept value passes all
+ * values since then within the deviation. In that case the value before it ends the trend and is kept, so the values
+ * are emitted one value late. A value which is held back for too long can be released with releaseHeld.
+ *
+ * Values which are not numbers, or have a bad status, are always kept and start a new trend. The state of every tag
+ * is kept in primitive arrays, which grow when new tags appear.
+ */
+public class Compressor {
+
+    public enum Method { EXCEPTION_DEVIATION, SWINGING_DOOR }
+
+    private static final byte EMPTY = 0;
+    // A value has been kept, and no value is held back
+    private static final byte ARCHIVED = 1;
+    // The last value is held back, because it may lie on the trend
+    private static final byte HOLDING = 2;
+
+    private final Method method;
+    private final double defaultDeviation;
+    private final Map<String, Double> deviations;
+    private final Map<String, Integer> tagIndexes = new HashMap<>();
+
+    private byte[] states = new byte[0];
+    private double[] tagDeviations = new double[0];
+    private long[] archivedTimes = new long[0];
+    private double[] archivedValues = new double[0];
+    // Slopes of the doors through the values since the last kept value
+    private double[] upperSlopes = new double[0];
+    private double[] lowerSlopes = new double[0];
+    private long[] heldTimes = new long[0];
+    private double[] heldValues = new double[0];
+    private String[] heldMessages = new String[0];
+    // When the held values started to be held back, from System.currentTimeMillis()
+    private long[] heldSince = new long[0];
+
+    private final QueueMessage msg = new QueueMessage();
+
+    /**
+     * @param method The compression method
+     * @param defaultDeviation The deviation of tags which aren't in deviations
+     * @param deviations The deviations of single tags
+     */
+    public Compressor(Method method, double defaultDeviation, Map<String, Double> deviations) {
+        this.method = method;
+        this.defaultDeviation = defaultDeviation;
+        this.deviations = deviations;
+    }
+
+    /**
+     * Compress a queue message of the form "tag,serverTime,sourceTime,value,status". Malformed messages are kept.
+     *
+     * @param rawMsg The queue message
+     * @param out The list the kept messages are added to, which may be a message of an earlier call
+     */
+    public void compress(String rawMsg, List<String> out) {
+        if (!msg.parse(rawMsg)) {
+            out.add(rawMsg);
+            return;
+        }
+        compress(msg.tag, msg.sourceTime, msg.value, msg.good, rawMsg, out);
+    }
+
+    /**
+     * Compress a value of a tag.
+     *
+     * @param tag The tag of the value
+     * @param time The timestamp of the value in milliseconds
+     * @param value The value
+     * @param good Whether the status code of the value is good
+     * @param line The line representing the value, which is added to out if it is kept
+     * @param out The list the kept lines are added to, which may be a line of an earlier call
+     */
+    public void compress(String tag, long time, String value, boolean good, String line, List<String> out) {
+        int i = indexOf(tag);
+        double number = good ? QueueMessage.parseNumber(value) : Double.NaN;
+
+        if (Double.isNaN(number) || states[i] == EMPTY || time <= archivedTimes[i]) {
+            // Values which can't be compressed start a new trend
+            releaseHeld(i, out);
+            out.add(line);
+            if (Double.isNaN(number)) {
+                states[i] = EMPTY;
+            } else {
+                archive(i, time, number);
+            }
+            return;
+        }
+
+        double deviation = tagDeviations[i];
+        if (method == Method.EXCEPTION_DEVIATION) {
+            if (Math.abs(number - archivedValues[i]) > deviation) {
+                out.add(line);
+                archive(i, time, number);
+            }
+            return;
+        }
+
+        long dt = time - archivedTimes[i];
+        double upper = (number - archivedValues[i] - deviation) / dt;
+        double lower = (number - archivedValues[i] + deviation) / dt;
+        if (states[i] == HOLDING) {
+            upper = Math.max(upper, upperSlopes[i]);
+            lower = Math.min(lower, lowerSlopes[i]);
+        }
+
+        if (upper > lower) {
+            // The doors have opened, so the held value ends the trend, and a new trend starts from it
+            out.add(heldMessages[i]);
+            archive(i, heldTimes[i], heldValues[i]);
+            dt = time - archivedTimes[i];
+            upper = (number - archivedValues[i] - deviation) / dt;
+            lower = (number - archivedValues[i] + deviation) / dt;
+        }
+
+        if (states[i] != HOLDING) heldSince[i] = System.currentTimeMillis();
+        states[i] = HOLDING;
+        upperSlopes[i] = upper;
+        lowerSlopes[i] = lower;
+        heldTimes[i] = time;
+        heldValues[i] = number;
+        heldMessages[i] = line;
+    }
+
+    /**
+     * Release the values which have been held back since before a time, e.g. because their tags stopped changing. Each
+     * released value ends its trend, and a new trend starts from it.
+     *
+     * @param heldBefore The time in milliseconds, Long.MAX_VALUE to release all held values
+     * @param out The list the released lines are added to
+     */
+    public void releaseHeld(long heldBefore, List<String> out) {
+        for (int i = 0; i < tagIndexes.size(); i++) {
+            if (states[i] == HOLDING && heldSince[i] < heldBefore) {
+                out.add(heldMessages[i]);
+                archive(i, heldTimes[i], heldValues[i]);
+            }
+        }
+    }
+
+    private void archive(int i, long time, double value) {
+        states[i] = ARCHIVED;
+        archivedTimes[i] = time;
+        archivedValues[i] = value;
+        heldMessages[i] = null;
+    }
+
+    private void releaseHeld(int i, List<String> out) {
+        if (states[i] == HOLDING) {
+            out.add(heldMessages[i]);
+            heldMessages[i] = null;
+        }
+    }
+
+    /**
+     * Read the deviations of single tags from a file with lines of the form "tag,deviation".
+     *
+     * @param filePath The path of the file
+     * @return The deviations by tag
+     * @throws IOException Exceptions happens when reading the file
+     * @throws NumberFormatException If a deviation is not a number
+     */
+    public static Map<String, Double> readDeviations(Path filePath) throws IOException {
+        Map<String, Double> deviations = new HashMap<>();
+        for (String line : Files.readAllLines(filePath, StandardCharsets.UTF_8)) {
+            // Node IDs may contain commas, the deviation can't
+            int separator = line.lastIndexOf(',');
+            if (line.trim().isEmpty() || separator < 0) continue;
+            deviations.put(line.substring(0, separator).trim(),
+                    Double.parseDouble(line.substring(separator + 1).trim()));
+        }
+        return deviations;
+    }
+
+    private int indexOf(String tag) {
+        Integer index = tagIndexes.get(tag);
+        if (index != null) return index;
+
+        int i = tagIndexes.size();
+        if (i == states.length) {
+            int capacity = Math.max(16, i * 2);
+            states = Arrays.copyOf(states, capacity);
+            tagDeviations = Arrays.copyOf(tagDeviations, capacity);
+            archivedTimes = Arrays.copyOf(archivedTimes, capacity);
+            archivedValues = Arrays.copyOf(archivedValues, capacity);
+            upperSlopes = Arrays.copyOf(upperSlopes, capacity);
+            lowerSlopes = Arrays.copyOf(lowerSlopes, capacity);
+            heldTimes = Arrays.copyOf(heldTimes, capacity);
+            heldValues = Arrays.copyOf(heldValues, capacity);
+            heldMessages = Arrays.copyOf(heldMessages, capacity);
+            heldSince = Arrays.copyOf(heldSince, capacity);
+        }
+        tagDeviations[i] = deviations.getOrDefault(tag, defaultDeviation);
+        tagIndexes.put(tag, i);
+        return i;
+    }
+}
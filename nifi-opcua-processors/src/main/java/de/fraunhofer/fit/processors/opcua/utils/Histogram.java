@@ -0,0 +1,53 @@
+package de.fraunhofer.fit.processors.opcua.utils;
+
+import de.fraunhofer.fit.opcua.HistogramBuckets;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of non-negative durations, with the buckets of HistogramBuckets. The buckets are only allocated up to
+ * the highest value recorded, which keeps histograms of many tags small. It is not thread safe.
+ */
+class Histogram {
+
+    private long[] counts = new long[0];
+    private long count;
+    private long sum;
+    private long max;
+
+    void record(long value) {
+        if (value < 0) value = 0;
+        int bucket = HistogramBuckets.bucketOf(value);
+        if (bucket >= counts.length) {
+            counts = Arrays.copyOf(counts, bucket + 1);
+        }
+        counts[bucket]++;
+        count++;
+        sum += value;
+        if (value > max) max = value;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    long getMean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    long getMax() {
+        return max;
+    }
+
+    // The upper bound of the bucket holding the given fraction of the values, 0 if there are none
+    long getPercentile(double fraction) {
+        return HistogramBuckets.percentile(counts, count, fraction, max);
+    }
+
+    void clear() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+}
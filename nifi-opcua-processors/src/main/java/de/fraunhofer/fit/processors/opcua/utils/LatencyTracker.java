@@ -0,0 +1,164 @@
+package de.fraunhofer.fit.processors.opcua.utils;
+
+import java.util.*;
+
+/**
+ * Tracks how old the values of a subscription are, per tag and over all tags, so that lag can be attributed to the
+ * PLC and the server, or to the queue and Nifi.
+ *
+ * For each value, the server lag is the server timestamp minus the source timestamp, and the emit lag is the time
+ * the value is emitted minus the source timestamp. For aggregated records, the record lag is the time the record is
+ * emitted minus its timestamp. All lags are in milliseconds, and are collected until the tracker is cleared.
+ */
+public class LatencyTracker {
+
+    // Tags listed in the summary, with the highest emit lag first
+    private static final int SUMMARY_TAGS = 10;
+
+    private final Map<String, TagLatency> tags = new HashMap<>();
+    private final Histogram serverLag = new Histogram();
+    private final Histogram emitLag = new Histogram();
+    private final Histogram recordLag = new Histogram();
+    private final QueueMessage msg = new QueueMessage();
+
+    private static class TagLatency {
+        final Histogram serverLag = new Histogram();
+        final Histogram emitLag = new Histogram();
+        // The wall clock time the last value of the tag was received at
+        long lastReceived;
+    }
+
+    /**
+     * Record the lags of a queue message of the form "tag,serverTime,sourceTime,value,status".
+     * Malformed messages are ignored.
+     *
+     * @param rawMsg The queue message
+     * @param emitTime The time the value is emitted in milliseconds
+     */
+    public void record(String rawMsg, long emitTime) {
+        if (!msg.parse(rawMsg)) return;
+
+        TagLatency tag = tags.get(msg.tag);
+        if (tag == null) {
+            tag = new TagLatency();
+            tags.put(msg.tag, tag);
+        }
+        tag.lastReceived = emitTime;
+
+        long emit = emitTime - msg.sourceTime;
+        tag.emitLag.record(emit);
+        emitLag.record(emit);
+        if (msg.serverTime >= 0) {
+            long server = msg.serverTime - msg.sourceTime;
+            tag.serverLag.record(server);
+            serverLag.record(server);
+        }
+    }
+
+    /**
+     * Record the lag of an aggregated record, whose first column is its timestamp.
+     *
+     * @param record The record
+     * @param emitTime The time the record is emitted in milliseconds
+     */
+    public void recordRecord(String record, long emitTime) {
+        int end = record.indexOf(',');
+        try {
+            recordLag.record(emitTime - Long.parseLong(end < 0 ? record.trim() : record.substring(0, end)));
+        } catch (NumberFormatException e) {
+            // Not a record with a timestamp
+        }
+    }
+
+    /**
+     * @return The lags over all tags, followed by the tags with the highest emit lag
+     */
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Latency of ").append(emitLag.getCount()).append(" values of ").append(tags.size())
+                .append(" tags: emit lag ");
+        appendLag(sb, emitLag);
+        sb.append(", server lag ");
+        appendLag(sb, serverLag);
+        if (recordLag.getCount() > 0) {
+            sb.append(", record lag ");
+            appendLag(sb, recordLag);
+        }
+
+        List<Map.Entry<String, TagLatency>> entries = new ArrayList<>();
+        for (Map.Entry<String, TagLatency> entry : tags.entrySet()) {
+            if (entry.getValue().emitLag.getCount() > 0) entries.add(entry);
+        }
+        entries.sort((a, b) -> Long.compare(b.getValue().emitLag.getPercentile(0.99),
+                a.getValue().emitLag.getPercentile(0.99)));
+        for (Map.Entry<String, TagLatency> entry : entries.subList(0, Math.min(SUMMARY_TAGS, entries.size()))) {
+            sb.append(System.lineSeparator()).append(entry.getKey()).append(": emit lag ");
+            appendLag(sb, entry.getValue().emitLag);
+            sb.append(", server lag ");
+            appendLag(sb, entry.getValue().serverLag);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param threshold The emit lag in milliseconds above which a tag is an outlier
+     * @return A description of each tag with a value whose emit lag was above the threshold
+     */
+    public List<String> getOutliers(long threshold) {
+        List<String> outliers = new ArrayList<>();
+        for (Map.Entry<String, TagLatency> entry : tags.entrySet()) {
+            TagLatency tag = entry.getValue();
+            if (tag.emitLag.getMax() > threshold) {
+                // The part of the lag which isn't caused by the server is caused by the queue and Nifi
+                outliers.add(entry.getKey() + ": emit lag max " + tag.emitLag.getMax() + " ms, server lag max "
+                        + tag.serverLag.getMax() + " ms");
+            }
+        }
+        Collections.sort(outliers);
+        return outliers;
+    }
+
+    /**
+     * @param tagNames The tags which are subscribed
+     * @param now The current time in milliseconds
+     * @param maxAge The time in milliseconds after which a tag without new values is stale
+     * @return The tags which haven't received a value for longer than maxAge
+     */
+    public List<String> getStaleTags(Collection<String> tagNames, long now, long maxAge) {
+        List<String> stale = new ArrayList<>();
+        for (String tagName : tagNames) {
+            TagLatency tag = tags.get(tagName);
+            if (tag == null) {
+                tag = new TagLatency();
+                // Tags which never received a value are stale from now on
+                tag.lastReceived = now;
+                tags.put(tagName, tag);
+            } else if (now - tag.lastReceived > maxAge) {
+                stale.add(tagName);
+            }
+        }
+        return stale;
+    }
+
+    /**
+     * Clear the lags collected so far, but keep the time of the last value of every tag.
+     *
+     * @param tagNames The tags which are subscribed, all others are forgotten
+     */
+    public void clear(Collection<String> tagNames) {
+        tags.keySet().retainAll(new HashSet<>(tagNames));
+        for (TagLatency tag : tags.values()) {
+            tag.serverLag.clear();
+            tag.emitLag.clear();
+        }
+        serverLag.clear();
+        emitLag.clear();
+        recordLag.clear();
+    }
+
+    private static void appendLag(StringBuilder sb, Histogram histogram) {
+        sb.append("p50 ").append(histogram.getPercentile(0.5))
+                .append(" ms, p99 ").append(histogram.getPercentile(0.99))
+                .append(" ms, max ").append(histogram.getMax()).append(" ms");
+    }
+}
@@ -0,0 +1,21 @@
+package de.fraunhofer.fit.processors.opcua.utils;
+
+import java.util.List;
+
+/**
+ * Builds CSV records, which start with a timestamp column, from the queue messages of a subscription.
+ */
+public interface MessageAggregator {
+
+    // Add a queue message of the form "tag,serverTime,sourceTime,value,status"
+    void aggregate(String rawMsg);
+
+    // The records ready to be published, in time order
+    List<String> getReadyRecords();
+
+    // Whether all records have been published
+    boolean isEmpty();
+
+    // The names of the columns after the timestamp
+    List<String> getColumns();
+}
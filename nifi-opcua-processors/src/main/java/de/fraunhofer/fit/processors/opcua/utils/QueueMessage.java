@@ -0,0 +1,64 @@
+package de.fraunhofer.fit.processors.opcua.utils;
+
+/**
+ * Parses the queue messages of a subscription, which have the form "tag,serverTime,sourceTime,value,status".
+ * An instance is reused for all messages, so that only the tag and the value are allocated.
+ */
+class QueueMessage {
+
+    String tag;
+    // -1 if the message has no server timestamp
+    long serverTime;
+    long sourceTime;
+    String value;
+    boolean good;
+
+    // Returns false if the message is malformed
+    boolean parse(String rawMsg) {
+
+        // The value may contain commas, so the status code is taken from the end
+        int end = rawMsg.length();
+        while (end > 0 && Character.isWhitespace(rawMsg.charAt(end - 1))) end--;
+
+        int tagEnd = rawMsg.indexOf(',');
+        int serverTsEnd = tagEnd < 0 ? -1 : rawMsg.indexOf(',', tagEnd + 1);
+        int sourceTsEnd = serverTsEnd < 0 ? -1 : rawMsg.indexOf(',', serverTsEnd + 1);
+        int valueEnd = end == 0 ? -1 : rawMsg.lastIndexOf(',', end - 1);
+        if (sourceTsEnd < 0 || valueEnd < sourceTsEnd) return false;
+
+        sourceTime = parseTimeStamp(rawMsg, serverTsEnd + 1, sourceTsEnd);
+        if (sourceTime < 0) {
+            return false;
+        }
+        serverTime = parseTimeStamp(rawMsg, tagEnd + 1, serverTsEnd);
+
+        good = end - valueEnd == 2 && rawMsg.charAt(valueEnd + 1) == '0';
+        tag = rawMsg.substring(0, tagEnd);
+        value = rawMsg.substring(sourceTsEnd + 1, valueEnd);
+        return true;
+    }
+
+    // NaN if the value isn't a number
+    static double parseNumber(String value) {
+        if (value.isEmpty()) return Double.NaN;
+        char c = value.charAt(0);
+        if ((c < '0' || c > '9') && c != '-' && c != '+' && c != '.') return Double.NaN;
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    // Parse a non-negative number without creating a substring, -1 if it isn't one
+    private static long parseTimeStamp(String s, int start, int end) {
+        if (start >= end) return -1;
+        long result = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+}
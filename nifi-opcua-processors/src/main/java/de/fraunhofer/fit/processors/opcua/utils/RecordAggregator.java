@@ -2,120 +2,234 @@ package de.fraunhofer.fit.processors.opcua.utils;
 
 import java.util.*;
 
-public class RecordAggregator {
+/**
+ * Merges the values of different tags with the same source timestamp into a single CSV record.
+ *
+ * Open records are kept in a ring buffer sorted by timestamp. As values arrive mostly in time order, the matching
+ * record is found at the end of the buffer in constant time, and ready records are taken from its head in time order
+ * without sorting. Records are reused after they have been published.
+ *
+ * A record is ready as soon as values of enough tags have arrived, or after a fixed time as a fallback for tags which
+ * don't deliver. Records are published in time order, so a record which is still waiting holds back the later ones.
+ * Values which arrive after the record of their timestamp, or a later one, has been published are dropped, so that no
+ * timestamp is published twice.
+ */
+public class RecordAggregator implements MessageAggregator {
 
     // This variable indicates how long a record waits for notification messages from OPC server
-    private final int PUBLISH_INTERVAL_MULTIPLIER = 4;
-
-    // Index of elements in the queue message
-    private final int VARIABLE_ID_INDEX = 0;
-    private final int SOURCE_TS_INDEX = 2;
-    private final int VALUE_INDEX = 3;
-    private final int STATUS_CODE_INDEX = 4;
-
-    private long PUBLISH_THRESHOLD_TIME;
-    private List<String> tags;
-    private Map<String, Integer> tagOrderMap;
-    private Map<String, Record> recordMap;
+    private static final int PUBLISH_INTERVAL_MULTIPLIER = 4;
+
+    public static final int DEFAULT_MAX_OPEN_RECORDS = 1000;
+
+    private final List<String> tags;
+    private final Map<String, Integer> tagOrderMap;
+    private final long publishThresholdTime;
+    // Number of tags with a value which make a record ready
+    private final int requiredTags;
+
+    // Open records sorted by timestamp, the oldest at head
+    private final Record[] ring;
+    private int head;
+    private int size;
+    // The timestamp of the last published record, values up to which are late
+    private long publishedTime = Long.MIN_VALUE;
+    private long lateValues;
+
+    // Published records, which can be reused
+    private final Deque<Record> freeRecords = new ArrayDeque<>();
+    // Records published early because too many records were open
+    private final List<String> evicted = new ArrayList<>();
+    private final QueueMessage msg = new QueueMessage();
 
     // minPublishInterval is the minimum subscription notification publish interval from OPC UA server
     public RecordAggregator(List<String> tags, long minPublishInterval) {
+        this(tags, minPublishInterval, DEFAULT_MAX_OPEN_RECORDS);
+    }
+
+    // If more than maxOpenRecords timestamps are open, e.g. because a tag never delivers,
+    // the oldest record is published early
+    public RecordAggregator(List<String> tags, long minPublishInterval, int maxOpenRecords) {
+        this(tags, minPublishInterval, maxOpenRecords, 100);
+    }
+
+    // A record is published as soon as quorumPercent of the tags have a value in it
+    public RecordAggregator(List<String> tags, long minPublishInterval, int maxOpenRecords, int quorumPercent) {
 
         this.tags = tags;
         this.tagOrderMap = new HashMap<>();
-        this.recordMap = new HashMap<>();
-
-        PUBLISH_THRESHOLD_TIME = PUBLISH_INTERVAL_MULTIPLIER * minPublishInterval;
+        this.publishThresholdTime = PUBLISH_INTERVAL_MULTIPLIER * minPublishInterval;
+        this.ring = new Record[maxOpenRecords];
 
         // Create a map which with tag name as key and its order in list as value
         for (int i = 0; i < tags.size(); i++) {
             this.tagOrderMap.put(tags.get(i), i);
         }
 
+        // Duplicate tags only fill one column
+        this.requiredTags = Math.max(1, (int) Math.ceil(tagOrderMap.size() * quorumPercent / 100.0));
+
     }
 
+    @Override
     public void aggregate(String rawMsg) {
 
+        // Ditch all messages with bad status code
+        if (!msg.parse(rawMsg) || !msg.good) return;
+
+        // Get the index of the variable given in the message
+        Integer index = tagOrderMap.get(msg.tag);
+        if (index == null) {
+            return;
+        }
 
-            // msg has the following elements in order:
-            // 1. variable ID; 2. server time stamp; 3. source time stamp; 4. value; 5. status code
-            String[] msg = rawMsg.trim().split(",");
+        if (msg.sourceTime <= publishedTime) {
+            lateValues++;
+            return;
+        }
 
-            // Ditch all messages with bad status code
-            if (!msg[STATUS_CODE_INDEX].equals("0")) {
-                return;
-            }
+        // Update the value in the record array
+        getOrCreateRecord(msg.sourceTime).setValue(index, msg.value);
+    }
+
+
+    @Override
+    public List<String> getReadyRecords() {
+
+        List<String> list = new ArrayList<>(evicted);
+        evicted.clear();
+
+        // Records are published in time order, so a record which isn't ready yet holds back the later ones
+        long currentTime = System.currentTimeMillis();
+        while (size > 0 && ring[head].isReady(currentTime, publishThresholdTime, requiredTags)) {
+            list.add(removeHead());
+        }
+
+        return list;
+    }
 
-            String timeStamp = msg[SOURCE_TS_INDEX];
-            String variableId = msg[VARIABLE_ID_INDEX];
-            String value = msg[VALUE_INDEX];
+    @Override
+    public boolean isEmpty() {
+        return size == 0 && evicted.isEmpty();
+    }
 
-            // Check if a record is already exist for the given time stamp
-            Record rec;
-            if (recordMap.containsKey(timeStamp)) {
-                // Get the record with the same time stamp as the message
-                rec = recordMap.get(timeStamp);
+    @Override
+    public List<String> getColumns() {
+        return tags;
+    }
+
+    // The number of values dropped because their record had been published already
+    public long getLateValues() {
+        return lateValues;
+    }
+
+
+    private Record getOrCreateRecord(long timeStamp) {
+
+        // Usually the value belongs to the latest record, or a new one
+        if (size == 0) {
+            return insert(0, timeStamp);
+        }
+        Record last = get(size - 1);
+        if (last.getTimeStamp() == timeStamp) return last;
+        if (last.getTimeStamp() < timeStamp) return insert(size, timeStamp);
+
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midTimeStamp = get(mid).getTimeStamp();
+            if (midTimeStamp < timeStamp) {
+                low = mid + 1;
+            } else if (midTimeStamp > timeStamp) {
+                high = mid - 1;
             } else {
-                // Create a record
-                rec = new Record(timeStamp, tags.size());
-                // Insert it into the map
-                recordMap.put(timeStamp, rec);
+                return get(mid);
             }
-            // Get the index of the variable given in the message
-            if (!tagOrderMap.containsKey(variableId)) {
-                return;
-            }
-            int index = tagOrderMap.get(variableId);
-            // Update the value in the record array
-            rec.getRecordArray()[index] = value;
         }
+        return insert(low, timeStamp);
+    }
 
+    private Record insert(int position, long timeStamp) {
+        if (size == ring.length) {
+            evicted.add(removeHead());
+            if (position > 0) position--;
+        }
 
-    public List<String> getReadyRecords() {
+        Record rec = freeRecords.isEmpty() ? new Record(tags.size()) : freeRecords.pop();
+        rec.reset(timeStamp);
 
-        List<String> list = new ArrayList<>();
-        List<String> recordKeyList = new ArrayList<>(recordMap.keySet());
-        Collections.sort(recordKeyList);
-
-        for(String key : recordKeyList) {
-            Record rec = recordMap.get(key);
-            if(rec.isReady(PUBLISH_THRESHOLD_TIME)) {
-                list.add(key + "," +
-                        String.join(",", rec.getRecordArray()) +
-                        System.getProperty("line.separator"));
-                recordMap.remove(key);
-            }
+        // Shift the later records by one, which only happens for values arriving out of order
+        for (int i = size; i > position; i--) {
+            ring[(head + i) % ring.length] = ring[(head + i - 1) % ring.length];
         }
+        ring[(head + position) % ring.length] = rec;
+        size++;
 
-        return list;
+        return rec;
     }
 
+    private String removeHead() {
+        Record rec = ring[head];
+        ring[head] = null;
+        head = (head + 1) % ring.length;
+        size--;
+        publishedTime = rec.getTimeStamp();
+
+        String line = rec.toCsv();
+        freeRecords.push(rec);
+        return line;
+    }
+
+    private Record get(int i) {
+        return ring[(head + i) % ring.length];
+    }
 
     class Record {
 
-        private String timeStamp;
+        private long timeStamp;
         private long createdTime; // The createdTime is used to see whether a record is ready to be published
-        private String[] recordValues;
+        private final String[] recordValues;
+        // Bitset of the columns with a value
+        private final long[] filled;
+        private int filledCount;
 
-        Record(String timeStamp, int recordSize) {
+        Record(int recordSize) {
+            recordValues = new String[recordSize];
+            filled = new long[(recordSize + 63) / 64];
+        }
+
+        void reset(long timeStamp) {
             this.timeStamp = timeStamp;
             createdTime = System.currentTimeMillis();
-            recordValues = new String[recordSize];
             Arrays.fill(recordValues, "");
+            Arrays.fill(filled, 0L);
+            filledCount = 0;
         }
 
-        String[] getRecordArray() {
-            return recordValues;
+        void setValue(int index, String value) {
+            recordValues[index] = value;
+            long mask = 1L << index;
+            if ((filled[index >>> 6] & mask) == 0) {
+                filled[index >>> 6] |= mask;
+                filledCount++;
+            }
         }
 
-        String getTimeStamp() {
+        long getTimeStamp() {
             return timeStamp;
         }
 
-        boolean isReady(long timeThrashold) {
-            long currentTime = System.currentTimeMillis();
+        boolean isReady(long currentTime, long timeThreshold, int requiredTags) {
+            return filledCount >= requiredTags || (currentTime - createdTime) > timeThreshold;
+        }
 
-            return (currentTime - createdTime) > timeThrashold;
+        String toCsv() {
+            StringBuilder sb = new StringBuilder(32 + recordValues.length * 8);
+            sb.append(timeStamp);
+            for (String value : recordValues) {
+                sb.append(',').append(value);
+            }
+            return sb.append(System.getProperty("line.separator")).toString();
         }
 
     }
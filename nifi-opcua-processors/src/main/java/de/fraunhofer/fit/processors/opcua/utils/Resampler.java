@@ -0,0 +1,221 @@
+package de.fraunhofer.fit.processors.opcua.utils;
+
+import java.util.*;
+
+/**
+ * Aligns the values of the tags onto a fixed time grid, so that every interval produces one dense CSV record.
+ *
+ * The grid points are multiples of the interval. When a value arrives, the rows of the grid points between the
+ * previous value of its tag and this value are filled according to the fill method. A row is published once the
+ * source time has passed its grid point by the allowed lateness. While no values arrive, the source time advances
+ * with the wall clock, so rows are published for tags which don't change as well.
+ *
+ * Only rows which haven't been published yet are kept, at most maxPendingRows of them. If the source time jumps
+ * ahead by more than that, the rows in between are skipped.
+ */
+public class Resampler implements MessageAggregator {
+
+    public enum FillMethod {
+        // The last value at or before the grid point
+        LAST_VALUE,
+        // Linear interpolation between the values before and after the grid point, the last value for text
+        LINEAR,
+        // The last value in the interval ending at the grid point, empty if there is none
+        NONE
+    }
+
+    private static final long NO_VALUE = Long.MIN_VALUE;
+
+    private final List<String> tags;
+    private final Map<String, Integer> tagOrderMap = new HashMap<>();
+    private final long interval;
+    private final FillMethod fillMethod;
+    private final long allowedLateness;
+
+    // The last value of each tag
+    private final long[] lastTimes;
+    private final String[] lastValues;
+    private final double[] lastNumbers;
+
+    // Rows of the grid points from nextGridTime on, the oldest at head. A null value hasn't been filled yet
+    private final String[][] ring;
+    private int head;
+    private int size;
+    private long nextGridTime = NO_VALUE;
+
+    // The highest source timestamp received, and the wall clock time it was received at
+    private long maxSourceTime;
+    private long maxSourceWallTime;
+
+    private final Deque<String[]> freeRows = new ArrayDeque<>();
+    // Rows published early because too many rows were pending
+    private final List<String> evicted = new ArrayList<>();
+    private final QueueMessage msg = new QueueMessage();
+
+    public Resampler(List<String> tags, long interval, FillMethod fillMethod, long allowedLateness,
+                     int maxPendingRows) {
+
+        this.tags = tags;
+        this.interval = interval;
+        this.fillMethod = fillMethod;
+        this.allowedLateness = allowedLateness;
+        this.ring = new String[maxPendingRows][];
+
+        for (int i = 0; i < tags.size(); i++) {
+            this.tagOrderMap.put(tags.get(i), i);
+        }
+
+        lastTimes = new long[tags.size()];
+        lastValues = new String[tags.size()];
+        lastNumbers = new double[tags.size()];
+        Arrays.fill(lastTimes, NO_VALUE);
+    }
+
+    @Override
+    public void aggregate(String rawMsg) {
+
+        // Ditch all messages with bad status code
+        if (!msg.parse(rawMsg) || !msg.good) return;
+
+        Integer index = tagOrderMap.get(msg.tag);
+        if (index == null) {
+            return;
+        }
+
+        long time = msg.sourceTime;
+        long now = System.currentTimeMillis();
+        if (nextGridTime == NO_VALUE) {
+            nextGridTime = ceilToGrid(time);
+            maxSourceTime = time;
+            maxSourceWallTime = now;
+        } else if (time > maxSourceTime) {
+            maxSourceTime = time;
+            maxSourceWallTime = now;
+        }
+
+        long lastTime = lastTimes[index];
+        // Values older than the last value of the tag are ignored
+        if (time < lastTime) return;
+
+        String value = msg.value;
+        double number = QueueMessage.parseNumber(value);
+
+        if (fillMethod == FillMethod.NONE) {
+            long gridTime = ceilToGrid(time);
+            if (gridTime >= nextGridTime) row(gridTime)[index] = value;
+        } else {
+            // Fill the grid points after the last value up to this one
+            long first = ceilToGrid(lastTime == NO_VALUE || lastTime == time ? time : lastTime + 1);
+            long last = time - time % interval;
+            // At most one ring of rows is filled, even if the value jumps far ahead
+            long start = Math.max(Math.max(first, nextGridTime), last - (ring.length - 1) * interval);
+            for (long gridTime = start; gridTime <= last; gridTime += interval) {
+                row(gridTime)[index] = valueAt(gridTime, lastTime, lastValues[index], lastNumbers[index],
+                        time, value, number);
+            }
+        }
+
+        lastTimes[index] = time;
+        lastValues[index] = value;
+        lastNumbers[index] = number;
+    }
+
+    @Override
+    public List<String> getReadyRecords() {
+
+        List<String> list = new ArrayList<>(evicted);
+        evicted.clear();
+        if (nextGridTime == NO_VALUE) return list;
+
+        long watermark = maxSourceTime + (System.currentTimeMillis() - maxSourceWallTime) - allowedLateness;
+        while (nextGridTime <= watermark) {
+            list.add(removeHead());
+        }
+
+        return list;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0 && evicted.isEmpty();
+    }
+
+    @Override
+    public List<String> getColumns() {
+        return tags;
+    }
+
+
+    private String valueAt(long gridTime, long lastTime, String lastValue, double lastNumber,
+                           long time, String value, double number) {
+        if (gridTime == time) return value;
+        if (lastTime == NO_VALUE) return null;
+        if (fillMethod == FillMethod.LINEAR && !Double.isNaN(lastNumber) && !Double.isNaN(number)) {
+            double fraction = (double) (gridTime - lastTime) / (time - lastTime);
+            return String.valueOf(lastNumber + (number - lastNumber) * fraction);
+        }
+        return lastValue;
+    }
+
+    // The row of a grid point, creating the rows up to it
+    private String[] row(long gridTime) {
+        long index = (gridTime - nextGridTime) / interval;
+
+        if (index >= size + ring.length) {
+            // Publishing all rows in between would need unbounded memory, so only the pending ones are published
+            while (size > 0) {
+                evicted.add(removeHead());
+            }
+            nextGridTime = gridTime - (ring.length - 1) * interval;
+            index = ring.length - 1;
+        }
+
+        while (index >= size) {
+            if (size == ring.length) {
+                evicted.add(removeHead());
+                index--;
+            }
+            String[] row = freeRows.isEmpty() ? new String[tags.size()] : freeRows.pop();
+            Arrays.fill(row, null);
+            ring[(head + size) % ring.length] = row;
+            size++;
+        }
+        return ring[(int) ((head + index) % ring.length)];
+    }
+
+    // Publish the row of nextGridTime, which may not have been created yet
+    private String removeHead() {
+        String[] row;
+        if (size > 0) {
+            row = ring[head];
+            ring[head] = null;
+            head = (head + 1) % ring.length;
+            size--;
+        } else {
+            row = freeRows.isEmpty() ? new String[tags.size()] : freeRows.pop();
+            Arrays.fill(row, null);
+        }
+
+        StringBuilder sb = new StringBuilder(32 + row.length * 8);
+        sb.append(nextGridTime);
+        for (int i = 0; i < row.length; i++) {
+            String value = row[i];
+            if (value == null) {
+                // The grid point is after the last value of the tag
+                boolean carry = fillMethod != FillMethod.NONE && lastTimes[i] != NO_VALUE
+                        && lastTimes[i] <= nextGridTime;
+                value = carry ? lastValues[i] : "";
+            }
+            sb.append(',').append(value);
+        }
+
+        nextGridTime += interval;
+        freeRows.push(row);
+        return sb.append(System.getProperty("line.separator")).toString();
+    }
+
+    private long ceilToGrid(long time) {
+        long rest = time % interval;
+        return rest == 0 ? time : time - rest + interval;
+    }
+}
@@ -0,0 +1,459 @@
+package de.fraunhofer.fit.processors.opcua.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A queue of strings stored in memory-mapped, append-only segment files.
+ *
+ * Every element is appended to the last segment, and a read cursor moves through the segments in order. Elements are
+ * only removed for good when commit() is called, which stores the cursor and deletes the segments it has passed.
+ * After a restart, or a call of rollback(), all elements behind the last committed cursor are read again.
+ *
+ * Each element is stored as an int header holding its length plus one, followed by its UTF-8 bytes. New segments
+ * are zero filled, so a header of 0 marks the end of the data, and -1 marks a segment which was too full for the
+ * next element. The payload is written before the header, so an element torn by a crash is never read.
+ */
+public class SpillQueue extends AbstractQueue<String> implements BlockingQueue<String>, Closeable {
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CURSOR_FILE = "cursor";
+    private static final int HEADER_SIZE = 4;
+    private static final int END_OF_SEGMENT = -1;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxSegments;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    // Indexes of the segments on disk, from the committed read segment to the write segment
+    private final Deque<Long> segments = new ArrayDeque<>();
+    private final FileChannel cursorChannel;
+    private final ByteBuffer cursorBuffer = ByteBuffer.allocate(12);
+
+    private long writeSegment;
+    private MappedByteBuffer writeBuffer;
+    private int writePosition;
+
+    private long readSegment;
+    private MappedByteBuffer readBuffer;
+    private int readPosition;
+
+    // The cursor stored by the last commit, and the number of elements read since then
+    private long committedSegment;
+    private int committedPosition;
+    private long uncommitted;
+
+    private long count;
+
+    /**
+     * @param directory The directory of the segment files, which is created if it doesn't exist
+     * @param segmentSize The size of a segment file in bytes
+     * @param maxSize The maximum size of all segment files in bytes. Elements are rejected when it is reached
+     * @throws IOException Exceptions happens when opening or recovering the segment files
+     */
+    public SpillQueue(Path directory, int segmentSize, long maxSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = Math.max(2, maxSize / segmentSize);
+
+        Files.createDirectories(directory);
+
+        List<Long> existing = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                existing.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        Collections.sort(existing);
+
+        cursorChannel = FileChannel.open(directory.resolve(CURSOR_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (cursorChannel.size() >= cursorBuffer.capacity()) {
+            cursorChannel.read(cursorBuffer, 0);
+            cursorBuffer.flip();
+            readSegment = cursorBuffer.getLong();
+            readPosition = cursorBuffer.getInt();
+        } else {
+            readSegment = existing.isEmpty() ? 0 : existing.get(0);
+            readPosition = 0;
+        }
+
+        // Segments before the cursor have been committed already
+        for (long index : existing) {
+            if (index < readSegment) {
+                Files.deleteIfExists(segmentPath(index));
+            } else {
+                segments.addLast(index);
+            }
+        }
+        if (segments.isEmpty() || segments.peekFirst() != readSegment) {
+            // The committed segment is gone, e.g. because the directory was cleaned up
+            segments.clear();
+            segments.addLast(readSegment);
+            readPosition = 0;
+        }
+
+        committedSegment = readSegment;
+        committedPosition = readPosition;
+
+        // Count the elements behind the cursor and find the end of the data
+        readBuffer = map(readSegment);
+        long position = readPosition;
+        for (long index : segments) {
+            MappedByteBuffer buffer = index == readSegment ? readBuffer : map(index);
+            int pos = index == readSegment ? (int) position : 0;
+            while (pos <= segmentSize - HEADER_SIZE) {
+                int header = buffer.getInt(pos);
+                if (header <= 0) break;
+                pos += HEADER_SIZE + header - 1;
+                count++;
+            }
+            writeSegment = index;
+            writeBuffer = buffer;
+            writePosition = pos;
+        }
+    }
+
+    @Override
+    public boolean offer(String e) {
+        byte[] bytes = e.getBytes(StandardCharsets.UTF_8);
+        if (HEADER_SIZE + bytes.length > segmentSize - HEADER_SIZE) {
+            throw new IllegalArgumentException("Element of " + bytes.length + " bytes doesn't fit into a segment");
+        }
+
+        lock.lock();
+        try {
+            if (writePosition + HEADER_SIZE + bytes.length > segmentSize) {
+                if (segments.size() >= maxSegments) return false;
+                if (writePosition <= segmentSize - HEADER_SIZE) {
+                    writeBuffer.putInt(writePosition, END_OF_SEGMENT);
+                }
+                writeSegment++;
+                writeBuffer = map(writeSegment);
+                writePosition = 0;
+                segments.addLast(writeSegment);
+            }
+
+            ByteBuffer payload = writeBuffer.duplicate();
+            payload.position(writePosition + HEADER_SIZE);
+            payload.put(bytes);
+            writeBuffer.putInt(writePosition, bytes.length + 1);
+            writePosition += HEADER_SIZE + bytes.length;
+
+            count++;
+            notEmpty.signal();
+            return true;
+        } catch (IOException ex) {
+            throw new IllegalStateException("Cannot create segment " + writeSegment + " in " + directory, ex);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String poll() {
+        lock.lock();
+        try {
+            return count == 0 ? null : read();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String peek() {
+        lock.lock();
+        try {
+            if (count == 0) return null;
+            moveToData();
+            return new String(readBytes(readPosition), StandardCharsets.UTF_8);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(String e) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (!offer(e)) {
+                notFull.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(String e, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (!offer(e)) {
+                if (nanos <= 0) return false;
+                nanos = notFull.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                notEmpty.await();
+            }
+            return read();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (nanos <= 0) return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return read();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int drainTo(Collection<? super String> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super String> c, int maxElements) {
+        lock.lock();
+        try {
+            int n = 0;
+            while (n < maxElements && count > 0) {
+                c.add(read());
+                n++;
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return A read-only iterator over the elements behind the read cursor, oldest first. Elements read from the
+     * queue while iterating are skipped, elements added while iterating may or may not be returned
+     */
+    @Override
+    public Iterator<String> iterator() {
+        return new Itr();
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return (int) Math.min(count, Integer.MAX_VALUE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stores the read cursor, so that the elements read so far are not read again after a restart,
+     * and deletes the segments which have been read completely.
+     *
+     * @throws IOException Exceptions happens when writing the cursor file
+     */
+    public void commit() throws IOException {
+        lock.lock();
+        try {
+            cursorBuffer.clear();
+            cursorBuffer.putLong(readSegment).putInt(readPosition).flip();
+            cursorChannel.write(cursorBuffer, 0);
+            committedSegment = readSegment;
+            committedPosition = readPosition;
+            uncommitted = 0;
+
+            boolean deleted = false;
+            while (segments.peekFirst() < readSegment) {
+                // On Linux a mapped file can be deleted, the mapping is released by the garbage collector
+                Files.deleteIfExists(segmentPath(segments.pollFirst()));
+                deleted = true;
+            }
+            if (deleted) notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves the read cursor back to the last commit, so that the elements read since then are read again.
+     */
+    public void rollback() {
+        lock.lock();
+        try {
+            if (uncommitted == 0) return;
+            readSegment = committedSegment;
+            readBuffer = readSegment == writeSegment ? writeBuffer : mapUnchecked(readSegment);
+            readPosition = committedPosition;
+            count += uncommitted;
+            uncommitted = 0;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            writeBuffer.force();
+            cursorChannel.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Must be called with the lock held and count > 0
+    private String read() {
+        moveToData();
+        byte[] bytes = readBytes(readPosition);
+        readPosition += HEADER_SIZE + bytes.length;
+        count--;
+        uncommitted++;
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Move the cursor to the next segment, if the current one has no more elements
+    private void moveToData() {
+        while (readPosition > segmentSize - HEADER_SIZE || readBuffer.getInt(readPosition) <= 0) {
+            readSegment++;
+            readBuffer = readSegment == writeSegment ? writeBuffer : mapUnchecked(readSegment);
+            readPosition = 0;
+        }
+    }
+
+    private byte[] readBytes(int position) {
+        return readBytes(readBuffer, position);
+    }
+
+    private static byte[] readBytes(MappedByteBuffer buffer, int position) {
+        byte[] bytes = new byte[buffer.getInt(position) - 1];
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(position + HEADER_SIZE);
+        payload.get(bytes);
+        return bytes;
+    }
+
+    private MappedByteBuffer map(long index) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(index),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    private MappedByteBuffer mapUnchecked(long index) {
+        try {
+            return map(index);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open segment " + index + " in " + directory, e);
+        }
+    }
+
+    private Path segmentPath(long index) {
+        return directory.resolve(String.format("%020d", index) + SEGMENT_SUFFIX);
+    }
+
+    // Walks the segments with a cursor of its own, which is moved up to the read cursor when it falls behind
+    private class Itr implements Iterator<String> {
+
+        private long segment;
+        private MappedByteBuffer buffer;
+        private int position;
+        private String next;
+
+        Itr() {
+            lock.lock();
+            try {
+                segment = readSegment;
+                buffer = readBuffer;
+                position = readPosition;
+                advance();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (next == null) throw new NoSuchElementException();
+            String element = next;
+            lock.lock();
+            try {
+                advance();
+            } finally {
+                lock.unlock();
+            }
+            return element;
+        }
+
+        // Must be called with the lock held. Reads the element at the cursor into next, null if there is none
+        private void advance() {
+            if (segment < readSegment || (segment == readSegment && position < readPosition)) {
+                // Segments behind the read cursor may have been deleted by a commit
+                segment = readSegment;
+                buffer = readBuffer;
+                position = readPosition;
+            }
+
+            next = null;
+            while (position > segmentSize - HEADER_SIZE || buffer.getInt(position) <= 0) {
+                if (segment >= writeSegment) return;
+                segment++;
+                buffer = segment == writeSegment ? writeBuffer : mapUnchecked(segment);
+                position = 0;
+            }
+            byte[] bytes = readBytes(buffer, position);
+            position += HEADER_SIZE + bytes.length;
+            next = new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
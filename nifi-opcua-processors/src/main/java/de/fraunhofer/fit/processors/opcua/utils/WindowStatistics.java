@@ -0,0 +1,276 @@
+package de.fraunhofer.fit.processors.opcua.utils;
+
+import java.util.*;
+
+/**
+ * Computes statistics of the values of each tag over tumbling or sliding time windows, and publishes one CSV record
+ * per window instead of the values.
+ *
+ * Windows are split into panes of the slide period. Each pane keeps primitive accumulators per tag, which are merged
+ * when a window is published, so a value is only added once even if it belongs to several sliding windows. Mean and
+ * standard deviation are accumulated with Welford's algorithm and merged with the formula of Chan et al.
+ *
+ * A window is published once the source time has passed its end by the allowed lateness. While no values arrive,
+ * the source time advances with the wall clock. Values which are not numbers, or arrive after their window has been
+ * published, are ignored. Windows without any value are not published.
+ */
+public class WindowStatistics implements MessageAggregator {
+
+    public enum Statistic { MIN, MAX, MEAN, COUNT, FIRST, LAST, STDDEV }
+
+    private static final long NO_VALUE = Long.MIN_VALUE;
+
+    private final List<String> tags;
+    private final Map<String, Integer> tagOrderMap = new HashMap<>();
+    private final List<String> columns = new ArrayList<>();
+    private final Statistic[] statistics;
+    private final long slide;
+    private final int panesPerWindow;
+    private final long windowSize;
+    private final long allowedLateness;
+
+    // Accumulators of the panes, at index pane * tags + tag. The pane at head starts at windowStart
+    private final int paneCount;
+    private final long[] counts;
+    private final double[] mins;
+    private final double[] maxs;
+    private final double[] means;
+    private final double[] m2s;
+    private final double[] firsts;
+    private final double[] lasts;
+    private final long[] firstTimes;
+    private final long[] lastTimes;
+    private int head;
+    private long windowStart = NO_VALUE;
+    private long pendingValues;
+
+    // The highest source timestamp received, and the wall clock time it was received at
+    private long maxSourceTime;
+    private long maxSourceWallTime;
+
+    // Windows published early because a value was too far ahead
+    private final List<String> evicted = new ArrayList<>();
+    private final QueueMessage msg = new QueueMessage();
+
+    /**
+     * @param tags The tags, in the order of the columns
+     * @param windowSize The size of a window in milliseconds
+     * @param slide The period between the starts of two windows, equal to windowSize for tumbling windows
+     * @param statistics The statistics computed for each tag
+     * @param allowedLateness How long a window waits for late values after its end, in milliseconds
+     */
+    public WindowStatistics(List<String> tags, long windowSize, long slide, List<Statistic> statistics,
+                            long allowedLateness) {
+
+        if (slide <= 0 || windowSize % slide != 0) {
+            throw new IllegalArgumentException("The window size must be a multiple of the slide");
+        }
+
+        this.tags = tags;
+        this.statistics = statistics.toArray(new Statistic[0]);
+        this.slide = slide;
+        this.windowSize = windowSize;
+        this.panesPerWindow = (int) (windowSize / slide);
+        this.allowedLateness = allowedLateness;
+
+        for (int i = 0; i < tags.size(); i++) {
+            this.tagOrderMap.put(tags.get(i), i);
+            for (Statistic statistic : statistics) {
+                columns.add(tags.get(i) + "." + statistic.name().toLowerCase());
+            }
+        }
+
+        // Values may arrive up to the allowed lateness ahead of the oldest open window
+        paneCount = panesPerWindow + (int) ((allowedLateness + slide - 1) / slide) + 1;
+        int size = paneCount * tags.size();
+        counts = new long[size];
+        mins = new double[size];
+        maxs = new double[size];
+        means = new double[size];
+        m2s = new double[size];
+        firsts = new double[size];
+        lasts = new double[size];
+        firstTimes = new long[size];
+        lastTimes = new long[size];
+    }
+
+    @Override
+    public void aggregate(String rawMsg) {
+
+        // Ditch all messages with bad status code
+        if (!msg.parse(rawMsg) || !msg.good) return;
+
+        Integer index = tagOrderMap.get(msg.tag);
+        if (index == null) {
+            return;
+        }
+
+        double value = QueueMessage.parseNumber(msg.value);
+        if (Double.isNaN(value)) return;
+
+        long time = msg.sourceTime;
+        long paneStart = time - time % slide;
+        long now = System.currentTimeMillis();
+        if (windowStart == NO_VALUE) {
+            // The oldest window which contains the value
+            windowStart = paneStart - windowSize + slide;
+            maxSourceTime = time;
+            maxSourceWallTime = now;
+        } else if (time > maxSourceTime) {
+            maxSourceTime = time;
+            maxSourceWallTime = now;
+        }
+
+        // The window of the value has been published already
+        if (paneStart < windowStart) return;
+
+        long offset = (paneStart - windowStart) / slide;
+        if (offset >= 2L * paneCount) {
+            // Publishing every empty window in between isn't needed, so the ring starts over at the value
+            while (pendingValues > 0) {
+                publishWindow(evicted);
+            }
+            windowStart = paneStart - windowSize + slide;
+            offset = panesPerWindow - 1;
+        }
+        while (offset >= paneCount) {
+            publishWindow(evicted);
+            offset--;
+        }
+
+        int i = (int) ((head + offset) % paneCount) * tags.size() + index;
+        long n = ++counts[i];
+        if (n == 1) {
+            mins[i] = value;
+            maxs[i] = value;
+            means[i] = value;
+            m2s[i] = 0;
+            firsts[i] = value;
+            lasts[i] = value;
+            firstTimes[i] = time;
+            lastTimes[i] = time;
+        } else {
+            if (value < mins[i]) mins[i] = value;
+            if (value > maxs[i]) maxs[i] = value;
+            double delta = value - means[i];
+            means[i] += delta / n;
+            m2s[i] += delta * (value - means[i]);
+            if (time < firstTimes[i]) {
+                firsts[i] = value;
+                firstTimes[i] = time;
+            }
+            if (time >= lastTimes[i]) {
+                lasts[i] = value;
+                lastTimes[i] = time;
+            }
+        }
+        pendingValues++;
+    }
+
+    @Override
+    public List<String> getReadyRecords() {
+
+        List<String> list = new ArrayList<>(evicted);
+        evicted.clear();
+        if (windowStart == NO_VALUE) return list;
+
+        long watermark = maxSourceTime + (System.currentTimeMillis() - maxSourceWallTime) - allowedLateness;
+        while (windowStart + windowSize <= watermark) {
+            if (pendingValues == 0) {
+                // Skip the empty windows at once
+                long lastStart = watermark - windowSize;
+                windowStart = Math.max(windowStart, lastStart - lastStart % slide + slide);
+                break;
+            }
+            publishWindow(list);
+        }
+
+        return list;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return pendingValues == 0 && evicted.isEmpty();
+    }
+
+    @Override
+    public List<String> getColumns() {
+        return columns;
+    }
+
+
+    // Merge the panes of the oldest window into a record, and drop its first pane
+    private void publishWindow(List<String> list) {
+        int tagCount = tags.size();
+        StringBuilder sb = new StringBuilder(32 + columns.size() * 8);
+        sb.append(windowStart);
+        boolean hasValues = false;
+
+        for (int t = 0; t < tagCount; t++) {
+            long n = 0;
+            double min = 0, max = 0, mean = 0, m2 = 0, first = 0, last = 0;
+            long firstTime = 0, lastTime = 0;
+
+            for (int p = 0; p < panesPerWindow; p++) {
+                int i = (int) ((head + p) % paneCount) * tagCount + t;
+                long paneN = counts[i];
+                if (paneN == 0) continue;
+                if (n == 0) {
+                    min = mins[i];
+                    max = maxs[i];
+                    mean = means[i];
+                    m2 = m2s[i];
+                    first = firsts[i];
+                    firstTime = firstTimes[i];
+                    last = lasts[i];
+                    lastTime = lastTimes[i];
+                } else {
+                    min = Math.min(min, mins[i]);
+                    max = Math.max(max, maxs[i]);
+                    double delta = means[i] - mean;
+                    long total = n + paneN;
+                    mean += delta * paneN / total;
+                    m2 += m2s[i] + delta * delta * n * paneN / total;
+                    if (firstTimes[i] < firstTime) {
+                        first = firsts[i];
+                        firstTime = firstTimes[i];
+                    }
+                    if (lastTimes[i] >= lastTime) {
+                        last = lasts[i];
+                        lastTime = lastTimes[i];
+                    }
+                }
+                n += paneN;
+            }
+
+            hasValues |= n > 0;
+            for (Statistic statistic : statistics) {
+                sb.append(',');
+                if (statistic == Statistic.COUNT) {
+                    sb.append(n);
+                } else if (n > 0) {
+                    switch (statistic) {
+                        case MIN: sb.append(min); break;
+                        case MAX: sb.append(max); break;
+                        case MEAN: sb.append(mean); break;
+                        case FIRST: sb.append(first); break;
+                        case LAST: sb.append(last); break;
+                        case STDDEV: sb.append(Math.sqrt(m2 / n)); break;
+                    }
+                }
+            }
+        }
+
+        if (hasValues) {
+            list.add(sb.append(System.getProperty("line.separator")).toString());
+        }
+
+        // The first pane doesn't belong to any later window
+        for (int t = 0, i = head * tagCount; t < tagCount; t++, i++) {
+            pendingValues -= counts[i];
+            counts[i] = 0;
+        }
+        head = (head + 1) % paneCount;
+        windowStart += slide;
+    }
+}
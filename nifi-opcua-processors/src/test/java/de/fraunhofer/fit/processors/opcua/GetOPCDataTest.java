@@ -17,6 +17,7 @@
 package de.fraunhofer.fit.processors.opcua;
 
 import de.fraunhofer.fit.opcua.StandardOPCUAService;
+import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.reporting.InitializationException;
 import org.apache.nifi.util.MockFlowFile;
 import org.apache.nifi.util.TestRunner;
@@ -27,12 +28,17 @@ import org.junit.Test;
 import org.mockito.Mockito;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 
 public class GetOPCDataTest {
@@ -72,7 +78,7 @@ public class GetOPCDataTest {
                 "ns=4;s=S71500/ET200MP-Station_2.PLC_1.GlobalVars.I_MAG1_EXT,123456,123456,1,0\n" +
                 "ns=4;s=S71500/ET200MP-Station_2.PLC_1.GlobalVars.I_MAG1_RET,123456,123456,2,0").getBytes();
 
-        Mockito.doReturn(values).when(service).getValue(any(), any(), anyBoolean(), any());
+        Mockito.doReturn(values).when(service).getValue(any(), any(), anyBoolean(), any(), anyLong());
 
         testRunner.run();
 
@@ -104,7 +110,7 @@ public class GetOPCDataTest {
                         "ns=4;s=S71500/ET200MP-Station_2.PLC_1.GlobalVars.I_MAG3_RET,123456,123456,5,0"+ System.lineSeparator() +
                         "ns=4;s=S71500/ET200MP-Station_2.PLC_1.GlobalVars.I_MAG3_RET,123456,123456,6,0").getBytes();
 
-        Mockito.doReturn(values).when(service).getValue(any(), any(), anyBoolean(), any());
+        Mockito.doReturn(values).when(service).getValue(any(), any(), anyBoolean(), any(), anyLong());
 
         testRunner.run();
 
@@ -122,6 +128,113 @@ public class GetOPCDataTest {
 
     }
 
+    @Test
+    public void testGetDataFromFlowfiles() {
+
+        testRunner.setProperty(GetOPCData.OPCUA_SERVICE, "controller");
+        testRunner.setProperty(GetOPCData.RETURN_TIMESTAMP, "Both");
+        testRunner.setProperty(GetOPCData.EXCLUDE_NULL_VALUE, "Yes");
+        testRunner.setProperty(GetOPCData.TAG_LIST_SOURCE, "Flowfile");
+        testRunner.setProperty(GetOPCData.TAG_LIST_FILE, new File("src/test/resources/tags.txt").getAbsolutePath());
+
+        testRunner.enqueue("ns=2;s=a\nns=2;s=b\n");
+        testRunner.enqueue("ns=2;s=c\nns=2;s=a\n");
+
+        // The value of b is null, so its line is excluded
+        byte[] values = ("ns=2;s=a,123456,123456,1,0" + System.lineSeparator() +
+                "ns=2;s=c,123456,123456,3,0").getBytes();
+
+        Mockito.doReturn(values).when(service).getValue(any(), any(), anyBoolean(), any(), anyLong());
+
+        testRunner.run();
+
+        // The tags of both flowfiles are read with one request, and a is read once
+        verify(service, times(1)).getValue(eq(Arrays.asList("ns=2;s=a", "ns=2;s=b", "ns=2;s=c")),
+                any(), anyBoolean(), any(), anyLong());
+
+        List<MockFlowFile> results = testRunner.getFlowFilesForRelationship(GetOPCData.SUCCESS);
+        assertEquals(2, results.size());
+        results.get(0).assertContentEquals("ns=2;s=a,123456,123456,1,0");
+        results.get(1).assertContentEquals("ns=2;s=c,123456,123456,3,0" + System.lineSeparator() +
+                "ns=2;s=a,123456,123456,1,0");
+        testRunner.assertQueueEmpty();
+    }
+
+    @Test
+    public void testGetDataFromFlowfilesReadOneByOne() {
+
+        testRunner.setProperty(GetOPCData.OPCUA_SERVICE, "controller");
+        testRunner.setProperty(GetOPCData.RETURN_TIMESTAMP, "Both");
+        testRunner.setProperty(GetOPCData.EXCLUDE_NULL_VALUE, "Yes");
+        testRunner.setProperty(GetOPCData.TAG_LIST_SOURCE, "Flowfile");
+        testRunner.setProperty(GetOPCData.TAG_LIST_FILE, new File("src/test/resources/tags.txt").getAbsolutePath());
+
+        testRunner.enqueue("ns=2;s=a\n");
+        testRunner.enqueue("ns=2;s=invalid\n");
+
+        // The invalid tag fails the merged read and its own read
+        Mockito.doThrow(new ProcessException("Bad_NodeIdUnknown")).when(service)
+                .getValue(eq(Arrays.asList("ns=2;s=a", "ns=2;s=invalid")), any(), anyBoolean(), any(), anyLong());
+        Mockito.doThrow(new ProcessException("Bad_NodeIdUnknown")).when(service)
+                .getValue(eq(Arrays.asList("ns=2;s=invalid")), any(), anyBoolean(), any(), anyLong());
+        Mockito.doReturn("ns=2;s=a,123456,123456,1,0".getBytes()).when(service)
+                .getValue(eq(Arrays.asList("ns=2;s=a")), any(), anyBoolean(), any(), anyLong());
+
+        testRunner.run();
+
+        testRunner.assertTransferCount(GetOPCData.SUCCESS, 1);
+        testRunner.assertTransferCount(GetOPCData.FAILURE, 1);
+        testRunner.getFlowFilesForRelationship(GetOPCData.SUCCESS).get(0)
+                .assertContentEquals("ns=2;s=a,123456,123456,1,0");
+        testRunner.getFlowFilesForRelationship(GetOPCData.FAILURE).get(0).assertContentEquals("ns=2;s=invalid\n");
+    }
+
+    @Test
+    public void testGetDataWithAggregationWithoutValues() {
+
+        testRunner.setProperty(GetOPCData.OPCUA_SERVICE, "controller");
+        testRunner.setProperty(GetOPCData.RETURN_TIMESTAMP, "Both");
+        testRunner.setProperty(GetOPCData.EXCLUDE_NULL_VALUE, "Yes");
+        testRunner.setProperty(GetOPCData.TAG_LIST_SOURCE, "Flowfile");
+        testRunner.setProperty(GetOPCData.TAG_LIST_FILE, new File("src/test/resources/tags.txt").getAbsolutePath());
+        testRunner.setProperty(GetOPCData.AGGREGATE_RECORD, "true");
+
+        testRunner.enqueue("ns=2;s=a\n");
+
+        // The only value is null and excluded
+        Mockito.doReturn(new byte[0]).when(service).getValue(any(), any(), anyBoolean(), any(), anyLong());
+
+        testRunner.run();
+
+        testRunner.assertAllFlowFilesTransferred(GetOPCData.SUCCESS, 1);
+        testRunner.getFlowFilesForRelationship(GetOPCData.SUCCESS).get(0).assertContentEquals("");
+    }
+
+    @Test
+    public void testGetDataWithCompression() {
+
+        testRunner.setProperty(GetOPCData.OPCUA_SERVICE, "controller");
+        testRunner.setProperty(GetOPCData.RETURN_TIMESTAMP, "Both");
+        testRunner.setProperty(GetOPCData.EXCLUDE_NULL_VALUE, "Yes");
+        testRunner.setProperty(GetOPCData.TAG_LIST_SOURCE, "Local File");
+        testRunner.setProperty(GetOPCData.TAG_LIST_FILE, new File("src/test/resources/tags.txt").getAbsolutePath());
+        testRunner.setProperty(GetOPCData.COMPRESSION_METHOD, "ExceptionDeviation");
+        testRunner.setProperty(GetOPCData.COMPRESSION_DEVIATION, "0.1");
+
+        String sep = System.lineSeparator();
+        Mockito.doReturn(("ns=2;s=a,1,1,1,0" + sep + "ns=2;s=b,1,1,1,0" + sep).getBytes())
+                .doReturn(("ns=2;s=a,2,2,1.05,0" + sep + "ns=2;s=b,2,2,5,0" + sep).getBytes())
+                .when(service).getValue(any(), any(), anyBoolean(), any(), anyLong());
+
+        testRunner.run(2);
+
+        // The second value of a lies within the deviation
+        List<MockFlowFile> results = testRunner.getFlowFilesForRelationship(GetOPCData.SUCCESS);
+        assertEquals(2, results.size());
+        results.get(0).assertContentEquals("ns=2;s=a,1,1,1,0" + sep + "ns=2;s=b,1,1,1,0" + sep);
+        results.get(1).assertContentEquals("ns=2;s=b,2,2,5,0" + sep);
+    }
+
     @After
     public void shutdown() {
         testRunner.disableControllerService(service);
@@ -0,0 +1,242 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.fraunhofer.fit.processors.opcua;
+
+import de.fraunhofer.fit.opcua.HistoryPageConsumer;
+import de.fraunhofer.fit.opcua.StandardOPCUAService;
+import org.apache.nifi.components.state.Scope;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.reporting.InitializationException;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.stubbing.Answer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.spy;
+
+
+public class GetOPCHistoryTest {
+
+    private TestRunner testRunner;
+    private StandardOPCUAService service;
+
+    @Before
+    public void init() throws InitializationException {
+        testRunner = TestRunners.newTestRunner(GetOPCHistory.class);
+
+        // Use partial mock
+        service = spy(new StandardOPCUAService());
+        Mockito.doNothing().when(service).onEnabled(any());
+        Mockito.doNothing().when(service).shutdown();
+
+        testRunner.addControllerService("controller", service);
+
+        testRunner.setProperty(service, StandardOPCUAService.ENDPOINT, "dummy endpoint");
+        testRunner.assertValid(service);
+
+        testRunner.enableControllerService(service);
+
+        String tagFilePath = (new File("src/test/resources/tags.txt")).getAbsolutePath();
+        testRunner.setProperty(GetOPCHistory.OPCUA_SERVICE, "controller");
+        testRunner.setProperty(GetOPCHistory.TAG_LIST_FILE, tagFilePath);
+    }
+
+    @Test
+    public void testEveryPageBecomesFlowFile() {
+
+        testRunner.setProperty(GetOPCHistory.START_TIME, "1000");
+        testRunner.setProperty(GetOPCHistory.END_TIME, "2000");
+
+        Mockito.doAnswer(
+                (Answer<Void>) invocation -> {
+                    HistoryPageConsumer consumer = invocation.getArgument(10);
+                    consumer.onPage("ns=4;s=A,1100,1100,1,0\nns=4;s=A,1200,1200,2,0\n".getBytes());
+                    consumer.onPage("ns=4;s=A,1300,1300,3,0\n".getBytes());
+                    return null;
+                }
+        ).when(service).getHistory(any(), eq(1000L), eq(2000L), anyLong(), anyInt(), anyInt(), anyInt(),
+                any(), anyBoolean(), any(), any());
+
+        testRunner.run();
+
+        List<MockFlowFile> results = testRunner.getFlowFilesForRelationship(GetOPCHistory.SUCCESS);
+        assertEquals(2, results.size());
+        results.get(0).assertContentEquals("ns=4;s=A,1100,1100,1,0\nns=4;s=A,1200,1200,2,0\n");
+        results.get(0).assertAttributeEquals("opcua.history.page", "0");
+        results.get(1).assertContentEquals("ns=4;s=A,1300,1300,3,0\n");
+        results.get(1).assertAttributeEquals("opcua.history.page", "1");
+    }
+
+    @Test
+    public void testTimeRangeFromIncomingFlowFile() {
+
+        testRunner.setProperty(GetOPCHistory.START_TIME, "${start}");
+        testRunner.setProperty(GetOPCHistory.END_TIME, "${end}");
+        testRunner.setIncomingConnection(true);
+
+        Mockito.doAnswer(
+                (Answer<Void>) invocation -> {
+                    HistoryPageConsumer consumer = invocation.getArgument(10);
+                    consumer.onPage("ns=4;s=A,1100,1100,1,0\n".getBytes());
+                    return null;
+                }
+        ).when(service).getHistory(any(), eq(1000L), eq(2000L), anyLong(), anyInt(), anyInt(), anyInt(),
+                any(), anyBoolean(), any(), any());
+
+        testRunner.enqueue("", Collections.singletonMap("start", "1000"));
+        testRunner.run();
+        testRunner.assertAllFlowFilesTransferred(GetOPCHistory.FAILURE, 1);
+
+        testRunner.clearTransferState();
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("start", "1000");
+        attributes.put("end", "2000");
+        testRunner.enqueue("", attributes);
+        testRunner.run();
+
+        testRunner.assertAllFlowFilesTransferred(GetOPCHistory.SUCCESS, 1);
+        MockFlowFile page = testRunner.getFlowFilesForRelationship(GetOPCHistory.SUCCESS).get(0);
+        page.assertAttributeEquals("opcua.history.start", "1000");
+        // The pages are children of the input
+        page.assertAttributeEquals("end", "2000");
+    }
+
+    @Test
+    public void testIncomingFlowFileFailsAsAWhole() {
+
+        testRunner.setProperty(GetOPCHistory.START_TIME, "${start}");
+        testRunner.setProperty(GetOPCHistory.END_TIME, "${end}");
+        testRunner.setIncomingConnection(true);
+
+        Mockito.doAnswer(
+                (Answer<Void>) invocation -> {
+                    HistoryPageConsumer consumer = invocation.getArgument(10);
+                    consumer.onPage("ns=4;s=A,1100,1100,1,0\n".getBytes());
+                    consumer.onSliceComplete(1500L);
+                    consumer.onPage("ns=4;s=A,1600,1600,2,0\n".getBytes());
+                    throw new ProcessException("connection lost");
+                }
+        ).when(service).getHistory(any(), eq(1000L), eq(2000L), anyLong(), anyInt(), anyInt(), anyInt(),
+                any(), anyBoolean(), any(), any());
+
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("start", "1000");
+        attributes.put("end", "2000");
+        testRunner.enqueue("", attributes);
+        testRunner.run();
+
+        // The input is read again from the start, so none of its pages are emitted
+        testRunner.assertAllFlowFilesTransferred(GetOPCHistory.FAILURE, 1);
+        testRunner.getStateManager().assertStateNotSet("history.1000", Scope.LOCAL);
+    }
+
+    @Test
+    public void testProcessedHistory() {
+
+        testRunner.setProperty(GetOPCHistory.START_TIME, "0");
+        testRunner.setProperty(GetOPCHistory.END_TIME, "3600000");
+        testRunner.setProperty(GetOPCHistory.AGGREGATE_FUNCTION, "Average");
+        testRunner.setProperty(GetOPCHistory.PROCESSING_INTERVAL, "1 min");
+
+        Mockito.doAnswer(
+                (Answer<Void>) invocation -> {
+                    HistoryPageConsumer consumer = invocation.getArgument(11);
+                    consumer.onPage("ns=4;s=A,0,0,1.5,0\nns=4;s=A,60000,60000,2.5,0\n".getBytes());
+                    return null;
+                }
+        ).when(service).getProcessedHistory(any(), eq(0L), eq(3600000L), eq("Average"), eq(60000L), anyLong(),
+                anyInt(), anyInt(), any(), anyBoolean(), any(), any());
+
+        testRunner.run();
+
+        testRunner.assertAllFlowFilesTransferred(GetOPCHistory.SUCCESS, 1);
+        testRunner.getFlowFilesForRelationship(GetOPCHistory.SUCCESS).get(0)
+                .assertContentEquals("ns=4;s=A,0,0,1.5,0\nns=4;s=A,60000,60000,2.5,0\n");
+    }
+
+    @Test
+    public void testResumeFromCheckpoint() throws IOException {
+
+        testRunner.setProperty(GetOPCHistory.START_TIME, "1000");
+        testRunner.setProperty(GetOPCHistory.END_TIME, "2000");
+
+        // A previous read of the same range was interrupted after the slice ending at 1500
+        Map<String, String> state = new HashMap<>();
+        state.put("history.1000", "1500");
+        testRunner.getStateManager().setState(state, Scope.LOCAL);
+
+        Mockito.doAnswer(
+                (Answer<Void>) invocation -> {
+                    HistoryPageConsumer consumer = invocation.getArgument(10);
+                    consumer.onPage("ns=4;s=A,1600,1600,1,0\n".getBytes());
+                    consumer.onSliceComplete(2000L);
+                    return null;
+                }
+        ).when(service).getHistory(any(), eq(1500L), eq(2000L), anyLong(), anyInt(), anyInt(), anyInt(),
+                any(), anyBoolean(), any(), any());
+
+        testRunner.run();
+
+        testRunner.assertAllFlowFilesTransferred(GetOPCHistory.SUCCESS, 1);
+        testRunner.getStateManager().assertStateNotSet("history.1000", Scope.LOCAL);
+    }
+
+    @Test
+    public void testCheckpointKeptOnFailure() {
+
+        testRunner.setProperty(GetOPCHistory.START_TIME, "1000");
+        testRunner.setProperty(GetOPCHistory.END_TIME, "2000");
+
+        Mockito.doAnswer(
+                (Answer<Void>) invocation -> {
+                    HistoryPageConsumer consumer = invocation.getArgument(10);
+                    consumer.onPage("ns=4;s=A,1100,1100,1,0\n".getBytes());
+                    consumer.onSliceComplete(1500L);
+                    consumer.onPage("ns=4;s=A,1600,1600,2,0\n".getBytes());
+                    throw new ProcessException("connection lost");
+                }
+        ).when(service).getHistory(any(), eq(1000L), eq(2000L), anyLong(), anyInt(), anyInt(), anyInt(),
+                any(), anyBoolean(), any(), any());
+
+        testRunner.run();
+
+        // Only the completed slice is emitted, the rest will be read again from the checkpoint
+        testRunner.assertAllFlowFilesTransferred(GetOPCHistory.SUCCESS, 1);
+        testRunner.getFlowFilesForRelationship(GetOPCHistory.SUCCESS).get(0)
+                .assertContentEquals("ns=4;s=A,1100,1100,1,0\n");
+        testRunner.getStateManager().assertStateEquals("history.1000", "1500", Scope.LOCAL);
+    }
+
+    @After
+    public void shutdown() {
+        testRunner.disableControllerService(service);
+    }
+
+}
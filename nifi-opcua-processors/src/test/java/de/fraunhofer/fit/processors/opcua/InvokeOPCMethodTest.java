@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.fraunhofer.fit.processors.opcua;
+
+import de.fraunhofer.fit.opcua.MethodCallResult;
+import de.fraunhofer.fit.opcua.StandardOPCUAService;
+import org.apache.nifi.reporting.InitializationException;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.stubbing.Answer;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.spy;
+
+
+public class InvokeOPCMethodTest {
+
+    private TestRunner testRunner;
+    private StandardOPCUAService service;
+
+    @Before
+    public void init() throws InitializationException {
+        testRunner = TestRunners.newTestRunner(InvokeOPCMethod.class);
+
+        // Use partial mock
+        service = spy(new StandardOPCUAService());
+        Mockito.doNothing().when(service).onEnabled(any());
+        Mockito.doNothing().when(service).shutdown();
+
+        testRunner.addControllerService("controller", service);
+
+        testRunner.setProperty(service, StandardOPCUAService.ENDPOINT, "dummy endpoint");
+        testRunner.assertValid(service);
+
+        testRunner.enableControllerService(service);
+
+        testRunner.setProperty(InvokeOPCMethod.OPCUA_SERVICE, "controller");
+    }
+
+
+    @Test
+    public void testOutputArgumentsAppended() throws Exception {
+
+        Mockito.doAnswer(
+                (Answer<List<MethodCallResult>>) invocation -> {
+                    List<String> objectIds = invocation.getArgument(0);
+                    List<String> methodIds = invocation.getArgument(1);
+                    List<List<String>> inputArguments = invocation.getArgument(2);
+                    assertEquals(Arrays.asList("ns=2;s=Line1", "ns=2;s=Line2"), objectIds);
+                    assertEquals(Arrays.asList("ns=2;s=Line1.StartBatch", "ns=2;s=Line2.Reset"), methodIds);
+                    assertEquals(Arrays.asList("4711", "1;2;3"), inputArguments.get(0));
+                    assertEquals(Collections.emptyList(), inputArguments.get(1));
+                    return Arrays.asList(
+                            new MethodCallResult(0, Collections.singletonList("42")),
+                            new MethodCallResult(0, null));
+                }
+        ).when(service).call(any(), any(), any(), anyInt(), anyInt());
+
+        testRunner.enqueue("ns=2;s=Line1,ns=2;s=Line1.StartBatch,4711,1;2;3\nns=2;s=Line2,ns=2;s=Line2.Reset\n");
+        testRunner.run();
+
+        testRunner.assertAllFlowFilesTransferred(InvokeOPCMethod.SUCCESS, 1);
+        testRunner.getFlowFilesForRelationship(InvokeOPCMethod.SUCCESS).get(0).assertContentEquals(
+                "ns=2;s=Line1,ns=2;s=Line1.StartBatch,4711,1;2;3,0,42" + System.lineSeparator() +
+                "ns=2;s=Line2,ns=2;s=Line2.Reset,0" + System.lineSeparator());
+    }
+
+
+    @Test
+    public void testPartialFailure() throws Exception {
+
+        // Bad_InvalidArgument for the second call
+        Mockito.doReturn(Arrays.asList(
+                new MethodCallResult(0, Collections.emptyList()),
+                new MethodCallResult(0x80AB0000L, null))
+        ).when(service).call(any(), any(), any(), anyInt(), anyInt());
+
+        testRunner.enqueue("ns=2;s=Line1,ns=2;s=Line1.Reset\nns=2;s=Line1,ns=2;s=Line1.StartBatch,abc\n");
+        testRunner.run();
+
+        testRunner.assertTransferCount(InvokeOPCMethod.SUCCESS, 1);
+        testRunner.assertTransferCount(InvokeOPCMethod.FAILURE, 1);
+
+        testRunner.getFlowFilesForRelationship(InvokeOPCMethod.SUCCESS).get(0)
+                .assertContentEquals("ns=2;s=Line1,ns=2;s=Line1.Reset,0" + System.lineSeparator());
+
+        MockFlowFile failure = testRunner.getFlowFilesForRelationship(InvokeOPCMethod.FAILURE).get(0);
+        failure.assertContentEquals("ns=2;s=Line1,ns=2;s=Line1.StartBatch,abc" + System.lineSeparator());
+        failure.assertAttributeEquals(InvokeOPCMethod.STATUS_ATTRIBUTE, "0x80AB0000");
+    }
+
+
+    @After
+    public void shutdown() {
+        testRunner.disableControllerService(service);
+    }
+
+}
@@ -16,24 +16,33 @@
  */
 package de.fraunhofer.fit.processors.opcua;
 
+import de.fraunhofer.fit.opcua.EmbeddedOpcUaServer;
 import de.fraunhofer.fit.opcua.StandardOPCUAService;
-import org.apache.nifi.reporting.InitializationException;
 import org.apache.nifi.util.MockFlowFile;
 import org.apache.nifi.util.TestRunner;
 import org.apache.nifi.util.TestRunners;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.util.List;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 public class ListOPCNodesTest {
 
     private TestRunner testRunner;
-    private final String endpoint = "opc.tcp://10.223.104.20:48010";
+    private EmbeddedOpcUaServer server;
     private StandardOPCUAService service;
 
     @Before
-    public void init() throws InitializationException {
+    public void init() throws Exception {
+        // 8 variables in 2 folders
+        server = new EmbeddedOpcUaServer(8, 1, 0, 0);
+        server.start();
+        String endpoint = server.getEndpoint();
+
         testRunner = TestRunners.newTestRunner(ListOPCNodes.class);
         service = new StandardOPCUAService();
         testRunner.addControllerService("controller", service);
@@ -49,14 +58,24 @@ public class ListOPCNodesTest {
         testRunner.setProperty(ListOPCNodes.OPCUA_SERVICE, "controller");
         testRunner.setProperty(ListOPCNodes.MAX_REFERENCE_PER_NODE, "10");
         testRunner.setProperty(ListOPCNodes.PRINT_INDENTATION, "-");
-        //testRunner.setProperty(ListOPCNodes.STARTING_NODE, "ns=4;s=S71500/ET200MP-Station_2.PLC_1");
+        testRunner.setProperty(ListOPCNodes.STARTING_NODE, server.getRootFolderNodeId());
         testRunner.setProperty(ListOPCNodes.RECURSIVE_DEPTH, "4");
         testRunner.setProperty(ListOPCNodes.PRINT_NON_LEAF_NODES, "true");
 
         testRunner.run();
 
         List<MockFlowFile> results = testRunner.getFlowFilesForRelationship(GetOPCData.SUCCESS);
-        System.out.println(new String(testRunner.getContentAsByteArray(results.get(0))));
+        assertEquals(1, results.size());
+        String nodes = new String(testRunner.getContentAsByteArray(results.get(0)));
+        for (String nodeId : server.getVariableNodeIds()) {
+            assertTrue(nodes.contains(nodeId));
+        }
+    }
+
+    @After
+    public void shutdown() throws Exception {
+        testRunner.disableControllerService(service);
+        server.stop();
     }
 
 }
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.fraunhofer.fit.processors.opcua;
+
+import de.fraunhofer.fit.opcua.EmbeddedOpcUaServer;
+import de.fraunhofer.fit.opcua.StandardOPCUAService;
+import org.apache.nifi.processor.Processor;
+import org.apache.nifi.reporting.InitializationException;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the throughput of the processors against an embedded server, from the server to flowfiles. The tests only
+ * run when the duration of each measurement is set in seconds with the system property "opcua.load.seconds".
+ */
+public class ProcessorLoadTest {
+
+    private static final int VARIABLE_COUNT = 2000;
+    private static final long CHANGE_PERIOD = 100;
+
+    private static final String DURATION_PROPERTY = "opcua.load.seconds";
+    private static final long DURATION = TimeUnit.SECONDS.toMillis(Long.getLong(DURATION_PROPERTY, 5));
+
+    private static final Logger logger = LoggerFactory.getLogger(ProcessorLoadTest.class);
+
+    private static EmbeddedOpcUaServer server;
+    private static Path tagFile;
+    private StandardOPCUAService service;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        // The measurements take a while, so they only run when their duration is set
+        Assume.assumeTrue(System.getProperty(DURATION_PROPERTY) != null);
+        server = new EmbeddedOpcUaServer(VARIABLE_COUNT, 2, 0, CHANGE_PERIOD);
+        server.start();
+        tagFile = Files.createTempFile("load-tags", ".txt");
+        Files.write(tagFile, server.getVariableNodeIds());
+    }
+
+    @AfterClass
+    public static void stopServer() throws Exception {
+        if (server == null) return;
+        server.stop();
+        Files.delete(tagFile);
+    }
+
+    private TestRunner createRunner(Class<? extends Processor> processor)
+            throws InitializationException {
+        TestRunner testRunner = TestRunners.newTestRunner(processor);
+        service = new StandardOPCUAService();
+        testRunner.addControllerService("load", service);
+        testRunner.setProperty(service, StandardOPCUAService.ENDPOINT, server.getEndpoint());
+        testRunner.enableControllerService(service);
+        return testRunner;
+    }
+
+    @Test
+    public void testSubscribeOPCNodes() throws Exception {
+        TestRunner testRunner = createRunner(SubscribeOPCNodes.class);
+        testRunner.setProperty(SubscribeOPCNodes.OPCUA_SERVICE, "load");
+        testRunner.setProperty(SubscribeOPCNodes.TAG_FILE_LOCATION, tagFile.toString());
+        testRunner.setProperty(SubscribeOPCNodes.MIN_PUBLISH_INTERVAL, "100");
+
+        testRunner.run(1, false, true);
+        long start = System.currentTimeMillis();
+        long flowFiles = 0;
+        while (System.currentTimeMillis() - start < DURATION) {
+            testRunner.run(1, false, false);
+            flowFiles += testRunner.getFlowFilesForRelationship(SubscribeOPCNodes.SUCCESS).size();
+            testRunner.clearTransferState();
+            Thread.sleep(10);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        testRunner.run(1, true, false);
+        testRunner.disableControllerService(service);
+
+        logger.info("SubscribeOPCNodes with " + VARIABLE_COUNT + " variables: "
+                + flowFiles * 1000 / elapsed + " flowfiles/s");
+        assertTrue(flowFiles > 0);
+    }
+
+    @Test
+    public void testGetOPCData() throws Exception {
+        TestRunner testRunner = createRunner(GetOPCData.class);
+        testRunner.setProperty(GetOPCData.OPCUA_SERVICE, "load");
+        testRunner.setProperty(GetOPCData.RETURN_TIMESTAMP, "Both");
+        testRunner.setProperty(GetOPCData.EXCLUDE_NULL_VALUE, "No");
+        testRunner.setProperty(GetOPCData.TAG_LIST_SOURCE, "Local File");
+        testRunner.setProperty(GetOPCData.TAG_LIST_FILE, tagFile.toString());
+
+        testRunner.run(1, false, true);
+        testRunner.clearTransferState();
+        long start = System.currentTimeMillis();
+        int reads = 0;
+        while (System.currentTimeMillis() - start < DURATION) {
+            testRunner.run(1, false, false);
+            assertEquals(1, testRunner.getFlowFilesForRelationship(GetOPCData.SUCCESS).size());
+            testRunner.clearTransferState();
+            reads++;
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        testRunner.run(1, true, false);
+        testRunner.disableControllerService(service);
+
+        logger.info("GetOPCData of " + VARIABLE_COUNT + " variables: " + reads * 1000 / elapsed
+                + " reads/s, " + reads * VARIABLE_COUNT * 1000L / elapsed + " values/s");
+        assertTrue(reads > 0);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.fraunhofer.fit.processors.opcua;
+
+import de.fraunhofer.fit.opcua.StandardOPCUAService;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.reporting.InitializationException;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.stubbing.Answer;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.spy;
+
+
+public class PutOPCDataTest {
+
+    private TestRunner testRunner;
+    private StandardOPCUAService service;
+
+    @Before
+    public void init() throws InitializationException {
+        testRunner = TestRunners.newTestRunner(PutOPCData.class);
+
+        // Use partial mock
+        service = spy(new StandardOPCUAService());
+        Mockito.doNothing().when(service).onEnabled(any());
+        Mockito.doNothing().when(service).shutdown();
+
+        testRunner.addControllerService("controller", service);
+
+        testRunner.setProperty(service, StandardOPCUAService.ENDPOINT, "dummy endpoint");
+        testRunner.assertValid(service);
+
+        testRunner.enableControllerService(service);
+
+        testRunner.setProperty(PutOPCData.OPCUA_SERVICE, "controller");
+        testRunner.setProperty(PutOPCData.MAX_NODES_PER_WRITE, "2");
+    }
+
+
+    @Test
+    public void testAllWritten() throws Exception {
+
+        Mockito.doAnswer(
+                (Answer<long[]>) invocation -> {
+                    List<String> tagNames = invocation.getArgument(0);
+                    List<String> values = invocation.getArgument(1);
+                    assertEquals(Arrays.asList("ns=2;s=Setpoint1", "ns=2;s=Setpoint2", "ns=2;s=Comment"), tagNames);
+                    assertEquals(Arrays.asList("1.5", "true", "a,b"), values);
+                    assertEquals(Integer.valueOf(2), invocation.<Integer>getArgument(2));
+                    return new long[]{0, 0, 0};
+                }
+        ).when(service).write(any(), any(), anyInt(), anyInt());
+
+        testRunner.enqueue("ns=2;s=Setpoint1,1.5\nns=2;s=Setpoint2,true\n\nns=2;s=Comment,a,b\n");
+        testRunner.run();
+
+        testRunner.assertAllFlowFilesTransferred(PutOPCData.SUCCESS, 1);
+    }
+
+
+    @Test
+    public void testPartialFailure() throws Exception {
+
+        // Bad_NodeIdUnknown for the second node
+        Mockito.doReturn(new long[]{0, 0x80340000L}).when(service).write(any(), any(), anyInt(), anyInt());
+
+        testRunner.enqueue("ns=2;s=Setpoint1,1.5\nns=2;s=Unknown,2.5\n");
+        testRunner.run();
+
+        testRunner.assertTransferCount(PutOPCData.SUCCESS, 1);
+        testRunner.assertTransferCount(PutOPCData.FAILURE, 1);
+
+        MockFlowFile success = testRunner.getFlowFilesForRelationship(PutOPCData.SUCCESS).get(0);
+        success.assertContentEquals("ns=2;s=Setpoint1,1.5" + System.lineSeparator());
+
+        MockFlowFile failure = testRunner.getFlowFilesForRelationship(PutOPCData.FAILURE).get(0);
+        failure.assertContentEquals("ns=2;s=Unknown,2.5" + System.lineSeparator());
+        failure.assertAttributeEquals(PutOPCData.STATUS_ATTRIBUTE, "0x80340000");
+    }
+
+
+    @Test
+    public void testServiceFailure() throws Exception {
+
+        Mockito.doThrow(new ProcessException("Connection lost"))
+                .when(service).write(any(), any(), anyInt(), anyInt());
+
+        testRunner.enqueue("ns=2;s=Setpoint1,1.5\n");
+        testRunner.run();
+
+        testRunner.assertAllFlowFilesTransferred(PutOPCData.FAILURE, 1);
+        testRunner.getFlowFilesForRelationship(PutOPCData.FAILURE).get(0)
+                .assertContentEquals("ns=2;s=Setpoint1,1.5\n");
+    }
+
+
+    @After
+    public void shutdown() {
+        testRunner.disableControllerService(service);
+    }
+
+}
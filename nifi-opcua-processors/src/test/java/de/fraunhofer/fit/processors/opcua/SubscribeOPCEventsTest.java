@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.fraunhofer.fit.processors.opcua;
+
+import de.fraunhofer.fit.opcua.StandardOPCUAService;
+import org.apache.nifi.reporting.InitializationException;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.stubbing.Answer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.spy;
+
+
+public class SubscribeOPCEventsTest {
+
+    private TestRunner testRunner;
+    private StandardOPCUAService service;
+
+    @Before
+    public void init() throws InitializationException {
+        testRunner = TestRunners.newTestRunner(SubscribeOPCEvents.class);
+
+        // Use partial mock
+        service = spy(new StandardOPCUAService());
+        Mockito.doNothing().when(service).unsubscribe(anyString());
+        Mockito.doNothing().when(service).onEnabled(any());
+        Mockito.doNothing().when(service).shutdown();
+
+        testRunner.addControllerService("controller", service);
+
+        testRunner.setProperty(service, StandardOPCUAService.ENDPOINT, "dummy endpoint");
+        testRunner.assertValid(service);
+
+        testRunner.enableControllerService(service);
+
+        testRunner.setProperty(SubscribeOPCEvents.OPCUA_SERVICE, "controller");
+    }
+
+
+    @Test
+    public void testEventsAreBatched() throws Exception {
+
+        Mockito.doAnswer(
+                (Answer<String>) invocation -> {
+                    List<String> notifiers = invocation.getArgument(0);
+                    List<String> selectClauses = invocation.getArgument(1);
+                    assertEquals(Arrays.asList("i=2253", "ns=2;s=Line1"), notifiers);
+                    assertEquals(Arrays.asList("EventId", "Severity", "ActiveState/Id"), selectClauses);
+                    assertEquals("Severity >= 500", invocation.getArgument(2));
+
+                    BlockingQueue<String> queue = invocation.getArgument(3);
+                    for (int i = 0; i < 5; i++) {
+                        queue.offer("{\"SourceNode\":\"i=2253\",\"EventId\":\"0" + i + "\",\"Severity\":500,\"ActiveState/Id\":true}");
+                    }
+                    return "12345678";
+                }
+        ).when(service).subscribeEvents(any(), any(), any(), any(), anyLong(), anyInt());
+
+        testRunner.setProperty(SubscribeOPCEvents.NOTIFIER_NODES, "i=2253, ns=2;s=Line1");
+        testRunner.setProperty(SubscribeOPCEvents.SELECT_CLAUSES, "EventId,Severity,ActiveState/Id");
+        testRunner.setProperty(SubscribeOPCEvents.WHERE_CLAUSE, "Severity >= 500");
+        testRunner.setProperty(SubscribeOPCEvents.BATCH_SIZE, "2");
+
+        testRunner.run(3, true, true);
+
+        List<MockFlowFile> results = testRunner.getFlowFilesForRelationship(SubscribeOPCEvents.SUCCESS);
+        assertEquals(3, results.size());
+        results.get(0).assertAttributeEquals("opcua.event.count", "2");
+        results.get(2).assertAttributeEquals("opcua.event.count", "1");
+        results.get(2).assertAttributeEquals("mime.type", "application/json");
+        results.get(2).assertContentEquals("[" + System.lineSeparator()
+                + "{\"SourceNode\":\"i=2253\",\"EventId\":\"04\",\"Severity\":500,\"ActiveState/Id\":true}"
+                + System.lineSeparator() + "]");
+    }
+
+
+    @Test
+    public void testQueueIsBounded() throws Exception {
+
+        Mockito.doAnswer(
+                (Answer<String>) invocation -> {
+                    BlockingQueue<String> queue = invocation.getArgument(3);
+                    queue.offer("{\"SourceNode\":\"i=2253\"}");
+                    queue.offer("{\"SourceNode\":\"i=2253\"}");
+                    assertFalse(queue.offer("{\"SourceNode\":\"i=2253\"}"));
+                    return "12345678";
+                }
+        ).when(service).subscribeEvents(any(), any(), any(), any(), anyLong(), anyInt());
+
+        testRunner.setProperty(SubscribeOPCEvents.MAX_QUEUE_SIZE, "2");
+
+        testRunner.run(1, true, true);
+
+        testRunner.assertAllFlowFilesTransferred(SubscribeOPCEvents.SUCCESS, 1);
+        testRunner.getFlowFilesForRelationship(SubscribeOPCEvents.SUCCESS).get(0)
+                .assertAttributeEquals("opcua.event.count", "2");
+    }
+
+
+    @After
+    public void shutdown() {
+        testRunner.disableControllerService(service);
+    }
+
+}
@@ -17,6 +17,7 @@
 package de.fraunhofer.fit.processors.opcua;
 
 import de.fraunhofer.fit.opcua.StandardOPCUAService;
+import org.apache.nifi.components.state.Scope;
 import org.apache.nifi.reporting.InitializationException;
 import org.apache.nifi.util.MockFlowFile;
 import org.apache.nifi.util.TestRunner;
@@ -28,8 +29,16 @@ import org.mockito.Mockito;
 import org.mockito.stubbing.Answer;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.*;
@@ -88,7 +97,7 @@ public class SubscribeOPCNodesTest {
                     populateQueue((BlockingQueue<String>) args[1], queueString);
                     return "12345678"; // random subscriber uid, doesn't matter in test
                 }
-        ).when(service).subscribe(any(), any(), anyBoolean(), anyLong());
+        ).when(service).subscribe(any(), any(), anyBoolean(), anyLong(), any(), anyLong());
 
 
         testRunner.setProperty(SubscribeOPCNodes.OPCUA_SERVICE, "controller");
@@ -109,6 +118,213 @@ public class SubscribeOPCNodesTest {
     }
 
 
+    @Test
+    public void testBackfillState() throws Exception {
+
+        String tagFilePath = (new File("src/test/resources/husky_tags.txt")).getAbsolutePath();
+
+        // Timestamps stored before the processor was stopped
+        Map<String, String> state = new HashMap<>();
+        state.put("ns=2;s=47.CycleCounter", "1528285600000");
+        testRunner.getStateManager().setState(state, Scope.LOCAL);
+
+        Mockito.doAnswer(
+                (Answer<String>) invocation -> {
+                    Map<String, Long> lastSourceTimes = invocation.getArgument(4);
+                    assertEquals(Long.valueOf(1528285600000L), lastSourceTimes.get("ns=2;s=47.CycleCounter"));
+                    assertEquals(Long.valueOf(3600000L), invocation.<Long>getArgument(5));
+
+                    populateQueue(invocation.getArgument(1),
+                            "ns=2;s=47.CycleCounter,1528285608582,1528285608582,2419756,0\n" +
+                            "ns=2;s=47.ProcessVariables.Tonnage,1528285608582,1528285608500,150.13992,0");
+                    return "12345678";
+                }
+        ).when(service).subscribe(any(), any(), anyBoolean(), anyLong(), any(), anyLong());
+
+        testRunner.setProperty(SubscribeOPCNodes.OPCUA_SERVICE, "controller");
+        testRunner.setProperty(SubscribeOPCNodes.TAG_FILE_LOCATION, tagFilePath);
+        testRunner.setProperty(SubscribeOPCNodes.BACKFILL_GAPS, "true");
+        testRunner.setProperty(SubscribeOPCNodes.MAX_BACKFILL_PERIOD, "1 hour");
+
+        testRunner.run(1, true, true);
+
+        testRunner.assertAllFlowFilesTransferred(SubscribeOPCNodes.SUCCESS, 2);
+        testRunner.getStateManager().assertStateEquals("ns=2;s=47.CycleCounter", "1528285608582", Scope.LOCAL);
+        testRunner.getStateManager().assertStateEquals("ns=2;s=47.ProcessVariables.Tonnage", "1528285608500", Scope.LOCAL);
+    }
+
+
+    @Test
+    public void testBackfillStateOnlyForEmittedRecords() throws Exception {
+
+        String tagFilePath = (new File("src/test/resources/husky_tags.txt")).getAbsolutePath();
+
+        Map<String, String> state = new HashMap<>();
+        state.put("ns=2;s=47.CycleCounter", "1528285600000");
+        testRunner.getStateManager().setState(state, Scope.LOCAL);
+
+        Mockito.doAnswer(
+                (Answer<String>) invocation -> {
+                    populateQueue(invocation.getArgument(1),
+                            "ns=2;s=47.CycleCounter,1528285608582,1528285608582,2419756,0");
+                    return "12345678";
+                }
+        ).when(service).subscribe(any(), any(), anyBoolean(), anyLong(), any(), anyLong());
+
+        testRunner.setProperty(SubscribeOPCNodes.OPCUA_SERVICE, "controller");
+        testRunner.setProperty(SubscribeOPCNodes.TAG_FILE_LOCATION, tagFilePath);
+        testRunner.setProperty(SubscribeOPCNodes.AGGREGATE_RECORD, "true");
+        testRunner.setProperty(SubscribeOPCNodes.MIN_PUBLISH_INTERVAL, "100");
+        testRunner.setProperty(SubscribeOPCNodes.BACKFILL_GAPS, "true");
+        testRunner.setProperty(SubscribeOPCNodes.MAX_BACKFILL_PERIOD, "1 hour");
+
+        // The record is still open when the processor stops, so the value has to be read from history again
+        testRunner.run(1, true, true);
+
+        testRunner.assertTransferCount(SubscribeOPCNodes.SUCCESS, 0);
+        testRunner.getStateManager().assertStateEquals("ns=2;s=47.CycleCounter", "1528285600000", Scope.LOCAL);
+    }
+
+
+    @Test
+    public void testTagListRefresh() throws Exception {
+
+        Path tagFile = Files.createTempFile("tags", ".txt");
+        Files.write(tagFile, Arrays.asList("ns=2;s=47.CycleCounter", "ns=2;s=47.ProcessVariables.Tonnage"));
+
+        Mockito.doReturn("12345678").when(service)
+                .subscribe(any(), any(), anyBoolean(), anyLong(), any(), anyLong());
+        Mockito.doNothing().when(service).updateSubscription(anyString(), any());
+
+        testRunner.setProperty(SubscribeOPCNodes.OPCUA_SERVICE, "controller");
+        testRunner.setProperty(SubscribeOPCNodes.TAG_FILE_LOCATION, tagFile.toString());
+        testRunner.setProperty(SubscribeOPCNodes.TAG_FILE_REFRESH_INTERVAL, "1 millis");
+
+        testRunner.run(1, false, true);
+
+        List<String> newTags = Arrays.asList("ns=2;s=47.CycleCounter", "ns=2;s=47.ProcessVariables.Shot_Size");
+        Files.write(tagFile, newTags);
+        Files.setLastModifiedTime(tagFile, FileTime.fromMillis(System.currentTimeMillis() + 10000));
+        Thread.sleep(10);
+
+        testRunner.run(1, false, false);
+        Thread.sleep(10);
+        testRunner.run(1, true, false);
+
+        // Only applied once, as the file didn't change again
+        Mockito.verify(service, Mockito.times(1)).updateSubscription("12345678", newTags);
+
+        Files.delete(tagFile);
+    }
+
+
+    @Test
+    public void testTagListRefreshKeepsBackfillState() throws Exception {
+
+        // The line i=2258 is reported as ns=0;i=2258
+        Path tagFile = Files.createTempFile("tags", ".txt");
+        Files.write(tagFile, Collections.singletonList("i=2258"));
+
+        Map<String, String> state = new HashMap<>();
+        state.put("ns=0;i=2258", "1528285600000");
+        testRunner.getStateManager().setState(state, Scope.LOCAL);
+
+        Mockito.doReturn("12345678").when(service)
+                .subscribe(any(), any(), anyBoolean(), anyLong(), any(), anyLong());
+        Mockito.doNothing().when(service).updateSubscription(anyString(), any());
+
+        testRunner.setProperty(SubscribeOPCNodes.OPCUA_SERVICE, "controller");
+        testRunner.setProperty(SubscribeOPCNodes.TAG_FILE_LOCATION, tagFile.toString());
+        testRunner.setProperty(SubscribeOPCNodes.TAG_FILE_REFRESH_INTERVAL, "1 millis");
+        testRunner.setProperty(SubscribeOPCNodes.BACKFILL_GAPS, "true");
+
+        testRunner.run(1, false, true);
+
+        Files.write(tagFile, Arrays.asList("i=2258", "ns=2;s=47.CycleCounter"));
+        Files.setLastModifiedTime(tagFile, FileTime.fromMillis(System.currentTimeMillis() + 10000));
+        Thread.sleep(10);
+
+        testRunner.run(1, true, false);
+
+        Mockito.verify(service, Mockito.times(1)).updateSubscription(anyString(), any());
+        testRunner.getStateManager().assertStateEquals("ns=0;i=2258", "1528285600000", Scope.LOCAL);
+
+        Files.delete(tagFile);
+    }
+
+
+    @Test
+    public void testOpenRecordKeptOnRestart() throws Exception {
+
+        String tagFilePath = (new File("src/test/resources/husky_tags.txt")).getAbsolutePath();
+
+        AtomicBoolean subscribed = new AtomicBoolean();
+        Mockito.doAnswer(
+                (Answer<String>) invocation -> {
+                    // The value only arrives before the first stop
+                    if (!subscribed.getAndSet(true)) {
+                        populateQueue(invocation.getArgument(1),
+                                "ns=2;s=47.CycleCounter,1528285608582,1528285608582,2419756,0");
+                    }
+                    return "12345678";
+                }
+        ).when(service).subscribe(any(), any(), anyBoolean(), anyLong(), any(), anyLong());
+
+        testRunner.setProperty(SubscribeOPCNodes.OPCUA_SERVICE, "controller");
+        testRunner.setProperty(SubscribeOPCNodes.TAG_FILE_LOCATION, tagFilePath);
+        testRunner.setProperty(SubscribeOPCNodes.AGGREGATE_RECORD, "true");
+        testRunner.setProperty(SubscribeOPCNodes.MIN_PUBLISH_INTERVAL, "100");
+
+        testRunner.run(1, true, true);
+        testRunner.assertTransferCount(SubscribeOPCNodes.SUCCESS, 0);
+
+        Thread.sleep(500);
+        testRunner.run(1, true, true);
+
+        List<MockFlowFile> results = testRunner.getFlowFilesForRelationship(SubscribeOPCNodes.SUCCESS);
+        assertEquals(1, results.size());
+        assertEquals("1528285608582,,,,,2419756",
+                new String(testRunner.getContentAsByteArray(results.get(0))).substring(0, 25));
+    }
+
+
+    @Test
+    public void testSpillValidation() {
+
+        testRunner.setProperty(SubscribeOPCNodes.OPCUA_SERVICE, "controller");
+        testRunner.setProperty(SubscribeOPCNodes.TAG_FILE_LOCATION,
+                (new File("src/test/resources/husky_tags.txt")).getAbsolutePath());
+        testRunner.setProperty(SubscribeOPCNodes.SPILL_DIRECTORY, "target/spill");
+        testRunner.assertValid();
+
+        testRunner.setProperty(SubscribeOPCNodes.AGGREGATE_RECORD, "true");
+        testRunner.assertNotValid();
+
+        testRunner.setProperty(SubscribeOPCNodes.AGGREGATE_RECORD, "false");
+        testRunner.setProperty(SubscribeOPCNodes.COMPRESSION_METHOD, "SwingingDoor");
+        testRunner.assertNotValid();
+    }
+
+
+    @Test
+    public void testWindowValidation() {
+
+        testRunner.setProperty(SubscribeOPCNodes.OPCUA_SERVICE, "controller");
+        testRunner.setProperty(SubscribeOPCNodes.TAG_FILE_LOCATION,
+                (new File("src/test/resources/husky_tags.txt")).getAbsolutePath());
+        testRunner.setProperty(SubscribeOPCNodes.AGGREGATE_RECORD, "true");
+        testRunner.setProperty(SubscribeOPCNodes.WINDOW_SIZE, "3 sec");
+        testRunner.setProperty(SubscribeOPCNodes.WINDOW_SLIDE, "2 sec");
+        testRunner.assertNotValid();
+
+        testRunner.setProperty(SubscribeOPCNodes.WINDOW_SLIDE, "1 sec");
+        testRunner.assertValid();
+
+        testRunner.setProperty(SubscribeOPCNodes.WINDOW_STATISTICS, "min,median");
+        testRunner.assertNotValid();
+    }
+
+
     @Test
     public void testReal() throws Exception {
 
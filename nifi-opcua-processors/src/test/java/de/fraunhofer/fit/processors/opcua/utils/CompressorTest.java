@@ -0,0 +1,77 @@
+package de.fraunhofer.fit.processors.opcua.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class CompressorTest {
+
+    private static final String[] MSGS = {
+            "a,0,0,0,0",
+            "a,0,1,1,0",
+            "a,0,2,2,0",
+            "a,0,3,3,0",
+            "a,0,4,2,0",
+            "a,0,5,2.05,0",
+            "a,0,6,text,0",
+            "a,0,7,1,2150891520",
+            "b,0,1,1,0",
+            "b,0,2,4,0",
+            "b,0,3,7,0"
+    };
+
+    private List<String> compress(Compressor.Method method) {
+        Compressor compressor = new Compressor(method, 0.1, Collections.singletonMap("b", 5.0));
+        List<String> out = new ArrayList<>();
+        for (String msg : MSGS) {
+            compressor.compress(msg, out);
+        }
+        return out;
+    }
+
+    @Test
+    public void testExceptionDeviation() {
+
+        // Only 2.05 lies within the deviation of a, and 4 within the deviation of b
+        assertEquals(Arrays.asList("a,0,0,0,0", "a,0,1,1,0", "a,0,2,2,0", "a,0,3,3,0", "a,0,4,2,0",
+                "a,0,6,text,0", "a,0,7,1,2150891520", "b,0,1,1,0", "b,0,3,7,0"),
+                compress(Compressor.Method.EXCEPTION_DEVIATION));
+    }
+
+    @Test
+    public void testSwingingDoor() {
+
+        // 1 and 2 lie on the line from 0 to 3. The trend of b is still open, so its last value is held back
+        assertEquals(Arrays.asList("a,0,0,0,0", "a,0,3,3,0", "a,0,4,2,0", "a,0,5,2.05,0",
+                "a,0,6,text,0", "a,0,7,1,2150891520", "b,0,1,1,0"),
+                compress(Compressor.Method.SWINGING_DOOR));
+    }
+
+    @Test
+    public void testReleaseHeld() {
+
+        Compressor compressor = new Compressor(Compressor.Method.SWINGING_DOOR, 0.1, Collections.emptyMap());
+        List<String> out = new ArrayList<>();
+        compressor.compress("a,0,0,0,0", out);
+        compressor.compress("a,0,1,1,0", out);
+        compressor.compress("a,0,2,2,0", out);
+        assertEquals(Collections.singletonList("a,0,0,0,0"), out);
+
+        // Nothing has been held back before the start of the test
+        out.clear();
+        compressor.releaseHeld(0, out);
+        assertEquals(Collections.emptyList(), out);
+
+        // The released value is kept once, and the next trend starts from it
+        compressor.releaseHeld(Long.MAX_VALUE, out);
+        compressor.releaseHeld(Long.MAX_VALUE, out);
+        compressor.compress("a,0,3,3,0", out);
+        compressor.compress("a,0,4,0,0", out);
+        assertEquals(Arrays.asList("a,0,2,2,0", "a,0,3,3,0"), out);
+    }
+}
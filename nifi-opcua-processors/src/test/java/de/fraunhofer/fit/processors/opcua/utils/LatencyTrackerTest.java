@@ -0,0 +1,60 @@
+package de.fraunhofer.fit.processors.opcua.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyTrackerTest {
+
+    @Test
+    public void testHistogram() {
+
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getMax());
+        assertEquals(50, histogram.getMean());
+        long p50 = histogram.getPercentile(0.5);
+        assertTrue(p50 >= 50 && p50 <= 63);
+        assertEquals(100, histogram.getPercentile(0.99));
+
+        histogram.clear();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(0.5));
+    }
+
+    @Test
+    public void testOutliers() {
+
+        LatencyTracker tracker = new LatencyTracker();
+        tracker.record("a,1010,1000,1,0", 1020);
+        // The server received the value late, so the lag comes from the PLC or the server
+        tracker.record("b,1900,1000,1,0", 2000);
+        // Malformed messages are ignored
+        tracker.record("c,x", 2000);
+
+        assertEquals(Collections.singletonList("b: emit lag max 1000 ms, server lag max 900 ms"),
+                tracker.getOutliers(500));
+        assertTrue(tracker.getSummary().startsWith("Latency of 2 values of 2 tags"));
+
+        tracker.clear(Arrays.asList("a", "b"));
+        assertEquals(Collections.emptyList(), tracker.getOutliers(500));
+    }
+
+    @Test
+    public void testStaleTags() {
+
+        LatencyTracker tracker = new LatencyTracker();
+        tracker.record("a,1000,1000,1,0", 1000);
+        tracker.record("b,5000,5000,1,0", 5000);
+
+        // Tag c never received a value, so it is stale once the age has passed from now on
+        assertEquals(Collections.singletonList("a"), tracker.getStaleTags(Arrays.asList("a", "b", "c"), 6000, 2000));
+        assertEquals(Arrays.asList("a", "b", "c"), tracker.getStaleTags(Arrays.asList("a", "b", "c"), 9000, 2000));
+    }
+}
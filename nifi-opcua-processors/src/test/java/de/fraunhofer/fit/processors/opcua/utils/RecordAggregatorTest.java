@@ -17,6 +17,7 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class RecordAggregatorTest {
 
@@ -235,6 +236,90 @@ public class RecordAggregatorTest {
     }
 
 
+    @Test
+    public void testOutOfOrderTimeStamps() throws InterruptedException {
+
+        ra.aggregate("ns=2;s=47.CycleCounter,1528285608582,1528285608582,2419756,0\n");
+        ra.aggregate("ns=2;s=47.ProcessVariables.Tonnage,1528285608582,1528285608581,150.13992,0\n");
+        ra.aggregate("ns=2;s=47.ProcessVariables.Shot_Size,1528285608582,1528285608582,42.543697,0\n");
+        // Bad status code and unknown tags are ignored
+        ra.aggregate("ns=2;s=47.ProcessVariables.Tonnage,1528285608582,1528285608580,0.0,2150000\n");
+        ra.aggregate("ns=2;s=47.Unknown,1528285608582,1528285608579,1.0,0\n");
+
+        Thread.sleep(500);
+
+        List<String> records = ra.getReadyRecords();
+        assertEquals(2, records.size());
+        assertTrue(records.get(0).startsWith("1528285608581,,,,,,,,150.13992,"));
+        assertTrue(records.get(1).startsWith("1528285608582,,,,,2419756,,,,42.543697,"));
+        assertTrue(ra.isEmpty());
+    }
+
+
+    @Test
+    public void testMaxOpenRecords() {
+
+        ra = new RecordAggregator(tags, 100000, 2);
+        ra.aggregate("ns=2;s=47.CycleCounter,1528285608582,1528285608582,1,0");
+        ra.aggregate("ns=2;s=47.CycleCounter,1528285608583,1528285608583,2,0");
+        ra.aggregate("ns=2;s=47.CycleCounter,1528285608584,1528285608584,3,0");
+
+        // The oldest record is published early to make room for the new one
+        List<String> records = ra.getReadyRecords();
+        assertEquals(1, records.size());
+        assertTrue(records.get(0).startsWith("1528285608582,,,,,1,"));
+        assertEquals(0, ra.getReadyRecords().size());
+    }
+
+
+    @Test
+    public void testCompleteRecordNoWait() {
+
+        ra = new RecordAggregator(tags.subList(0, 3), 100000);
+        ra.aggregate(tags.get(0) + ",1528285608582,1528285608582,1.0,0\n");
+        ra.aggregate(tags.get(1) + ",1528285608582,1528285608582,2.0,0\n");
+        // The same tag again doesn't count twice
+        ra.aggregate(tags.get(1) + ",1528285608582,1528285608582,2.5,0\n");
+        assertEquals(0, ra.getReadyRecords().size());
+
+        ra.aggregate(tags.get(2) + ",1528285608582,1528285608582,3.0,0\n");
+        List<String> records = ra.getReadyRecords();
+        assertEquals(1, records.size());
+        assertEquals("1528285608582,1.0,2.5,3.0" + System.lineSeparator(), records.get(0));
+    }
+
+
+    @Test
+    public void testQuorum() {
+
+        ra = new RecordAggregator(tags.subList(0, 4), 100000, 100, 50);
+        ra.aggregate(tags.get(0) + ",1528285608582,1528285608582,1.0,0\n");
+        assertEquals(0, ra.getReadyRecords().size());
+
+        ra.aggregate(tags.get(3) + ",1528285608582,1528285608582,4.0,0\n");
+        assertEquals(1, ra.getReadyRecords().size());
+    }
+
+    @Test
+    public void testLateValuesAfterQuorum() {
+
+        ra = new RecordAggregator(tags.subList(0, 4), 100000, 100, 50);
+        ra.aggregate(tags.get(0) + ",1528285608582,1528285608582,1.0,0\n");
+        ra.aggregate(tags.get(1) + ",1528285608582,1528285608582,2.0,0\n");
+        assertEquals(1, ra.getReadyRecords().size());
+
+        // The record of the timestamp has been published, so the value of the third tag doesn't open a second one
+        ra.aggregate(tags.get(2) + ",1528285608582,1528285608582,3.0,0\n");
+        ra.aggregate(tags.get(3) + ",1528285608000,1528285608000,4.0,0\n");
+        assertEquals(2, ra.getLateValues());
+        assertTrue(ra.isEmpty());
+
+        ra.aggregate(tags.get(0) + ",1528285609582,1528285609582,1.0,0\n");
+        ra.aggregate(tags.get(1) + ",1528285609582,1528285609582,2.0,0\n");
+        assertEquals(1, ra.getReadyRecords().size());
+    }
+
+
     private List<String> parseFile(Path filePath) throws IOException {
         byte[] encoded;
         encoded = Files.readAllBytes(filePath);
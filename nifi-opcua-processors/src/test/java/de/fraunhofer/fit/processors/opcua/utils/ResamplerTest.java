@@ -0,0 +1,85 @@
+package de.fraunhofer.fit.processors.opcua.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ResamplerTest {
+
+    private static final String NL = System.lineSeparator();
+
+    private List<String> resample(Resampler.FillMethod fillMethod) {
+
+        // Tag a is numeric, tag b is text and sampled at a different phase
+        Resampler resampler = new Resampler(Arrays.asList("a", "b"), 1000, fillMethod, 0, 100);
+        resampler.aggregate("a,0,1000,1.0,0");
+        resampler.aggregate("b,0,1500,x,0");
+        resampler.aggregate("a,0,3000,3.0,0");
+        resampler.aggregate("b,0,5500,y,0");
+        return resampler.getReadyRecords();
+    }
+
+    @Test
+    public void testLastValue() {
+
+        assertEquals(Arrays.asList(
+                "1000,1.0," + NL,
+                "2000,1.0,x" + NL,
+                "3000,3.0,x" + NL,
+                "4000,3.0,x" + NL,
+                "5000,3.0,x" + NL), resample(Resampler.FillMethod.LAST_VALUE));
+    }
+
+    @Test
+    public void testLinear() {
+
+        // Text can't be interpolated, so its last value is used
+        assertEquals(Arrays.asList(
+                "1000,1.0," + NL,
+                "2000,2.0,x" + NL,
+                "3000,3.0,x" + NL,
+                "4000,3.0,x" + NL,
+                "5000,3.0,x" + NL), resample(Resampler.FillMethod.LINEAR));
+    }
+
+    @Test
+    public void testNone() {
+
+        assertEquals(Arrays.asList(
+                "1000,1.0," + NL,
+                "2000,,x" + NL,
+                "3000,3.0," + NL,
+                "4000,," + NL,
+                "5000,," + NL), resample(Resampler.FillMethod.NONE));
+    }
+
+    @Test
+    public void testLateness() {
+
+        Resampler resampler = new Resampler(Arrays.asList("a"), 1000, Resampler.FillMethod.LINEAR, 2000, 100);
+        resampler.aggregate("a,0,1000,1,0");
+        resampler.aggregate("a,0,3500,2,0");
+        List<String> records = resampler.getReadyRecords();
+        assertEquals(1, records.size());
+        assertEquals("1000,1" + NL, records.get(0));
+        assertFalse(resampler.isEmpty());
+    }
+
+    @Test
+    public void testMaxPendingRows() {
+
+        Resampler resampler = new Resampler(Arrays.asList("a"), 10, Resampler.FillMethod.LAST_VALUE, 0, 5);
+        resampler.aggregate("a,0,10,1,0");
+        // Far ahead, so that the rows in between are skipped
+        resampler.aggregate("a,0,100005,2,0");
+        List<String> records = resampler.getReadyRecords();
+        assertEquals(10, records.size());
+        assertEquals("10,1" + NL, records.get(0));
+        assertEquals("99920,1" + NL, records.get(1));
+        assertEquals("100000,1" + NL, records.get(9));
+    }
+}
@@ -0,0 +1,149 @@
+package de.fraunhofer.fit.processors.opcua.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class SpillQueueTest {
+
+    private static final String MSG = "ns=2;s=47.ProcessVariables.Shot_Length,1528285608582,1528285608582,38.71,0\n";
+
+    private Path directory;
+
+    @Before
+    public void init() throws IOException {
+        directory = Files.createTempDirectory("spill");
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    public void testOrderAcrossSegments() throws IOException {
+        SpillQueue queue = new SpillQueue(directory, 1024, 1024 * 1024);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(queue.offer(i + "," + MSG));
+        }
+        assertEquals(100, queue.size());
+        assertTrue(segmentCount() > 1);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i + "," + MSG, queue.poll());
+        }
+        assertNull(queue.poll());
+
+        queue.commit();
+        assertEquals(1, segmentCount());
+        queue.close();
+    }
+
+    @Test
+    public void testIterator() throws IOException {
+        SpillQueue queue = new SpillQueue(directory, 1024, 1024 * 1024);
+
+        for (int i = 0; i < 30; i++) {
+            queue.offer(i + "," + MSG);
+        }
+        queue.poll();
+
+        List<String> elements = new ArrayList<>();
+        queue.iterator().forEachRemaining(elements::add);
+        assertEquals(29, elements.size());
+        assertEquals("1," + MSG, elements.get(0));
+        assertEquals("29," + MSG, elements.get(28));
+        assertTrue(queue.contains("15," + MSG));
+        assertFalse(queue.contains("0," + MSG));
+        // Iterating doesn't read the elements
+        assertEquals(29, queue.size());
+        queue.close();
+    }
+
+    @Test
+    public void testRollback() throws IOException {
+        SpillQueue queue = new SpillQueue(directory, 1024, 1024 * 1024);
+
+        for (int i = 0; i < 30; i++) {
+            queue.offer(i + "," + MSG);
+        }
+        queue.poll();
+        queue.commit();
+        for (int i = 1; i < 20; i++) {
+            queue.poll();
+        }
+
+        // The elements read since the commit are read again
+        queue.rollback();
+        assertEquals(29, queue.size());
+        for (int i = 1; i < 30; i++) {
+            assertEquals(i + "," + MSG, queue.poll());
+        }
+        assertNull(queue.poll());
+        queue.close();
+    }
+
+    @Test
+    public void testReplayAfterRestart() throws IOException {
+        SpillQueue queue = new SpillQueue(directory, 1024, 1024 * 1024);
+        for (int i = 0; i < 30; i++) {
+            queue.offer(String.valueOf(i));
+        }
+
+        // The first 10 elements are committed, the next 10 are read but not committed
+        for (int i = 0; i < 10; i++) queue.poll();
+        queue.commit();
+        for (int i = 0; i < 10; i++) queue.poll();
+        queue.close();
+
+        queue = new SpillQueue(directory, 1024, 1024 * 1024);
+        assertEquals(20, queue.size());
+
+        List<String> elements = new ArrayList<>();
+        queue.drainTo(elements);
+        assertEquals("10", elements.get(0));
+        assertEquals("29", elements.get(19));
+
+        // Appending continues after the recovered data
+        queue.offer("30");
+        assertEquals("30", queue.poll());
+        queue.close();
+    }
+
+    @Test
+    public void testMaxSize() throws IOException {
+        SpillQueue queue = new SpillQueue(directory, 1024, 2048);
+
+        int accepted = 0;
+        while (queue.offer(MSG)) accepted++;
+        assertEquals(2, segmentCount());
+
+        // Space is freed when the read segments are committed
+        for (int i = 0; i < accepted; i++) queue.poll();
+        queue.commit();
+        assertTrue(queue.offer(MSG));
+        queue.close();
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.toString().endsWith(".seg")).count();
+        }
+    }
+}
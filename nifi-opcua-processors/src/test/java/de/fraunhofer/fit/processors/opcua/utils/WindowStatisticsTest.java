@@ -0,0 +1,78 @@
+package de.fraunhofer.fit.processors.opcua.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class WindowStatisticsTest {
+
+    private static final String NL = System.lineSeparator();
+
+    @Test
+    public void testTumblingWindow() {
+
+        WindowStatistics ws = new WindowStatistics(Arrays.asList("a", "b"), 1000, 1000,
+                Arrays.asList(WindowStatistics.Statistic.values()), 0);
+        assertEquals(Arrays.asList("a.min", "a.max", "a.mean", "a.count", "a.first", "a.last", "a.stddev",
+                "b.min", "b.max", "b.mean", "b.count", "b.first", "b.last", "b.stddev"), ws.getColumns());
+
+        ws.aggregate("a,0,100,1,0");
+        ws.aggregate("a,0,900,2,0");
+        ws.aggregate("a,0,200,3,0");
+        // Text is ignored
+        ws.aggregate("b,0,1500,x,0");
+        ws.aggregate("b,0,1500,7,0");
+
+        List<String> records = ws.getReadyRecords();
+        assertEquals(1, records.size());
+        assertEquals("0,1.0,3.0,2.0,3,1.0,2.0," + Math.sqrt(2.0 / 3) + ",,,,0,,," + NL, records.get(0));
+    }
+
+    @Test
+    public void testSlidingWindow() {
+
+        WindowStatistics ws = new WindowStatistics(Arrays.asList("a"), 2000, 1000,
+                Arrays.asList(WindowStatistics.Statistic.COUNT, WindowStatistics.Statistic.MEAN), 0);
+        ws.aggregate("a,0,500,1,0");
+        ws.aggregate("a,0,1500,3,0");
+        ws.aggregate("a,0,2500,5,0");
+        ws.aggregate("a,0,4500,0,0");
+
+        // The first value is also part of the window which started before it
+        assertEquals(Arrays.asList(
+                "-1000,1,1.0" + NL,
+                "0,2,2.0" + NL,
+                "1000,2,4.0" + NL,
+                "2000,1,5.0" + NL), ws.getReadyRecords());
+    }
+
+    @Test
+    public void testLateValues() {
+
+        WindowStatistics ws = new WindowStatistics(Arrays.asList("a"), 1000, 1000,
+                Arrays.asList(WindowStatistics.Statistic.COUNT), 0);
+        ws.aggregate("a,0,500,1,0");
+        ws.aggregate("a,0,1500,1,0");
+        assertEquals(Arrays.asList("0,1" + NL), ws.getReadyRecords());
+
+        // The window has been published already
+        ws.aggregate("a,0,600,1,0");
+        ws.aggregate("a,0,2500,1,0");
+        assertEquals(Arrays.asList("1000,1" + NL), ws.getReadyRecords());
+    }
+
+    @Test
+    public void testEmptyWindowsSkipped() {
+
+        WindowStatistics ws = new WindowStatistics(Arrays.asList("a"), 10, 10,
+                Arrays.asList(WindowStatistics.Statistic.COUNT), 0);
+        ws.aggregate("a,0,5,1,0");
+        ws.aggregate("a,0,100005,1,0");
+        assertEquals(Arrays.asList("0,1" + NL), ws.getReadyRecords());
+        assertFalse(ws.isEmpty());
+    }
+}
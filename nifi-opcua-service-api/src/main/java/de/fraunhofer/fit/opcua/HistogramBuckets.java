@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.fraunhofer.fit.opcua;
+
+/**
+ * The buckets of the latency histograms of the service and the processors.
+ *
+ * Each power of two is split into four buckets, so a percentile is accurate to 25%. Values below 4 have a bucket of
+ * their own, and the buckets of all positive longs are numbered from 0 to 4 * 63 - 1.
+ */
+public final class HistogramBuckets {
+
+    // Four buckets for each of the 63 powers of two of a positive long
+    public static final int BUCKET_COUNT = 4 * 63;
+
+    private HistogramBuckets() {
+    }
+
+    /**
+     * @param value A non-negative value
+     * @return The bucket of the value
+     */
+    public static int bucketOf(long value) {
+        if (value < 4) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - 2)) & 3;
+        return (exponent - 1) * 4 + sub;
+    }
+
+    /**
+     * @param bucket A bucket
+     * @return The highest value in the bucket
+     */
+    public static long upperBound(int bucket) {
+        if (bucket < 4) return bucket;
+        int exponent = bucket / 4 + 1;
+        int sub = bucket % 4;
+        long bound = ((5L + sub) << (exponent - 2)) - 1;
+        return bound < 0 ? Long.MAX_VALUE : bound;
+    }
+
+    /**
+     * The upper bound of the bucket holding the given fraction of the values, capped at the highest value.
+     *
+     * @param counts The number of values in each bucket, which may end before the last bucket
+     * @param total The number of values in all buckets
+     * @param fraction The fraction of the values, e.g. 0.99
+     * @param max The highest value recorded
+     * @return The percentile, 0 if there are no values
+     */
+    public static long percentile(long[] counts, long total, double fraction, long max) {
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(upperBound(i), max);
+        }
+        return max;
+    }
+}
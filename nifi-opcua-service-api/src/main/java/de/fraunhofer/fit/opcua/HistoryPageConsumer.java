@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.fraunhofer.fit.opcua;
+
+import org.apache.nifi.processor.exception.ProcessException;
+
+/**
+ * Callback receiving the result of a history read one page at a time.
+ * A page holds at most one HistoryRead response, so a long time range never has to be kept in memory as a whole.
+ */
+@FunctionalInterface
+public interface HistoryPageConsumer {
+
+    /**
+     * @param page A UTF-8 byte array of CSV lines, in the same format as returned by getValue
+     * @throws ProcessException Exceptions happens when handling the page, which aborts the history read
+     */
+    void onPage(byte[] page) throws ProcessException;
+
+    /**
+     * Called when all pages of a time slice have been passed to onPage. Slices are completed in time order,
+     * so everything before sliceEndTime has been delivered and a caller may checkpoint its progress here.
+     *
+     * @param sliceEndTime End of the completed time slice in milliseconds since epoch
+     * @throws ProcessException Exceptions happens when handling the checkpoint, which aborts the history read
+     */
+    default void onSliceComplete(long sliceEndTime) throws ProcessException {
+    }
+}
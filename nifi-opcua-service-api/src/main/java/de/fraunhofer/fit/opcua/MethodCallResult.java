@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.fraunhofer.fit.opcua;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of a single method call, consisting of the OPC UA status code and the output arguments.
+ */
+public class MethodCallResult {
+
+    private final long statusCode;
+    private final List<String> outputArguments;
+
+    public MethodCallResult(long statusCode, List<String> outputArguments) {
+        this.statusCode = statusCode;
+        this.outputArguments = outputArguments == null ? Collections.emptyList() : outputArguments;
+    }
+
+    /**
+     * @return The status code of the call, 0 means Good
+     */
+    public long getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return Whether the status code is Good or Uncertain
+     */
+    public boolean isSuccess() {
+        return (statusCode & 0x80000000L) == 0;
+    }
+
+    /**
+     * @return The output arguments as strings, array values are separated by ';'. Empty if the call failed
+     */
+    public List<String> getOutputArguments() {
+        return outputArguments;
+    }
+}
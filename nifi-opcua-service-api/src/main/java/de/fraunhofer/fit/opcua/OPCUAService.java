@@ -22,6 +22,7 @@ import org.apache.nifi.controller.ControllerService;
 import org.apache.nifi.processor.exception.ProcessException;
 
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 
 @Tags({"example"})
@@ -29,14 +30,44 @@ import java.util.concurrent.BlockingQueue;
 public interface OPCUAService extends ControllerService {
 
     byte[] getValue(List<String> reqTagNames, String returnTimestamp, boolean excludeNullValue,
-                    String nullValueString) throws ProcessException;
+                    String nullValueString, long maxAge) throws ProcessException;
 
     byte[] getNodes(String printIndent, int maxRecursiveDepth, int maxReferencePerNode,
                     boolean printNonLeafNode, String rootNodeId)
             throws ProcessException;
 
-    String subscribe(List<String> reqTagNames, BlockingQueue<String> queue,
-                     boolean tsChangedNotify, long minPublishInterval) throws ProcessException;
+    void getHistory(List<String> reqTagNames, long startTime, long endTime, long sliceInterval,
+                    int maxConcurrentReads, int maxValuesPerNode, int maxNodesPerRequest,
+                    String returnTimestamp, boolean excludeNullValue, String nullValueString,
+                    HistoryPageConsumer pageConsumer) throws ProcessException;
+
+    void getProcessedHistory(List<String> reqTagNames, long startTime, long endTime, String aggregateFunction,
+                             long processingInterval, long sliceInterval, int maxConcurrentReads,
+                             int maxNodesPerRequest, String returnTimestamp, boolean excludeNullValue,
+                             String nullValueString, HistoryPageConsumer pageConsumer) throws ProcessException;
+
+    long[] write(List<String> reqTagNames, List<String> values, int maxNodesPerWrite,
+                 int maxConcurrentWrites) throws ProcessException;
+
+    List<MethodCallResult> call(List<String> objectIds, List<String> methodIds, List<List<String>> inputArguments,
+                                int maxMethodsPerCall, int maxConcurrentCalls) throws ProcessException;
+
+    String subscribe(List<String> reqTagNames, BlockingQueue<String> queue, boolean tsChangedNotify,
+                     long minPublishInterval, Map<String, Long> lastSourceTimes,
+                     long maxBackfillPeriod) throws ProcessException;
+
+    void updateSubscription(String subscriberUid, List<String> reqTagNames) throws ProcessException;
+
+    List<String> getFullNames(List<String> reqTagNames) throws ProcessException;
+
+    String subscribeScanClass(String scanClassName, List<String> reqTagNames, long period, long phase,
+                              BlockingQueue<String> queue) throws ProcessException;
+
+    String subscribeEvents(List<String> notifierNames, List<String> selectClauses, String whereClause,
+                           BlockingQueue<String> queue, long minPublishInterval,
+                           int serverQueueSize) throws ProcessException;
 
     void unsubscribe(String subscriberUid);
+
+    Map<String, Long> getMetrics();
 }
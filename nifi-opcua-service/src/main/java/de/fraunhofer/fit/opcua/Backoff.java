@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.fraunhofer.fit.opcua;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with jitter for reconnect attempts.
+ *
+ * The delay doubles with every attempt up to the maximum delay, and is then drawn uniformly from its upper half.
+ * The jitter spreads the attempts of many clients which lost their connection at the same time, so that they don't
+ * hit the server together, and half of the delay is always kept, so that a single client never retries in a burst.
+ */
+class Backoff {
+
+    private final long initialDelay;
+    private final long maxDelay;
+    private final Random random;
+    private int attempts;
+
+    Backoff(long initialDelay, long maxDelay) {
+        this(initialDelay, maxDelay, new Random());
+    }
+
+    Backoff(long initialDelay, long maxDelay, Random random) {
+        this.initialDelay = Math.max(1, initialDelay);
+        this.maxDelay = Math.max(this.initialDelay, maxDelay);
+        this.random = random;
+    }
+
+    // The delay in milliseconds before the next attempt
+    synchronized long nextDelay() {
+        long delay = maxDelay;
+        if (attempts < 62 && initialDelay <= maxDelay >> attempts) {
+            delay = initialDelay << attempts;
+        }
+        attempts++;
+        long half = delay / 2;
+        return half + (long) (random.nextDouble() * (delay - half + 1));
+    }
+
+    synchronized int getAttempts() {
+        return attempts;
+    }
+
+    synchronized void reset() {
+        attempts = 0;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.fraunhofer.fit.opcua;
+
+import org.apache.nifi.logging.ComponentLog;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Sends a list of requests to the server in chunks, e.g. the nodes of a Write or the methods of a Call.
+ *
+ * At most chunkSize requests are sent in one service call, with a sliding window of up to maxConcurrent calls in
+ * flight. A chunk which fails, e.g. because of a timeout or a service fault like Bad_TooManyOperations, doesn't stop
+ * the others: the requests of earlier chunks may have been executed by the server already, so every request gets a
+ * result of its own, and callers can retry only the requests which failed.
+ */
+final class ChunkedSender {
+
+    private ChunkedSender() {
+    }
+
+    /**
+     * Send the requests in chunks.
+     *
+     * @param requests The requests
+     * @param chunkSize The number of requests sent in one service call at most
+     * @param maxConcurrent The number of service calls in flight at the same time at most
+     * @param send Sends a chunk of requests to the server
+     * @param onResponse Gets the response of every chunk, with the index of the first request of the chunk
+     * @param onFailure Gets the index and the status code of every request of a failed chunk
+     * @param logger The logger the failed chunks are reported to
+     * @throws InterruptedException If the thread is interrupted while waiting for the responses
+     */
+    static <T, R> void send(List<T> requests, int chunkSize, int maxConcurrent,
+                            Function<List<T>, CompletableFuture<R>> send, BiConsumer<Integer, R> onResponse,
+                            BiConsumer<Integer, Long> onFailure, ComponentLog logger) throws InterruptedException {
+        List<CompletableFuture<R>> futures = new ArrayList<>();
+        for (int i = 0; i < requests.size(); i += chunkSize) {
+            int chunkIndex = futures.size();
+            if (chunkIndex >= maxConcurrent) {
+                // Only waits for a free slot, the failure is handled with the responses
+                futures.get(chunkIndex - maxConcurrent).handle((response, failure) -> null).join();
+            }
+
+            CompletableFuture<R> future;
+            try {
+                future = send.apply(requests.subList(i, Math.min(i + chunkSize, requests.size())));
+            } catch (RuntimeException e) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+            }
+            futures.add(future);
+        }
+
+        for (int chunk = 0; chunk < futures.size(); chunk++) {
+            int offset = chunk * chunkSize;
+            R response;
+            try {
+                response = futures.get(chunk).get();
+            } catch (ExecutionException e) {
+                long statusCode = statusOf(e.getCause());
+                int end = Math.min(offset + chunkSize, requests.size());
+                logger.warn("Requests " + offset + " to " + (end - 1) + " failed with status 0x"
+                        + String.format("%08X", statusCode) + ": " + e.getCause().getMessage());
+                for (int i = offset; i < end; i++) {
+                    onFailure.accept(i, statusCode);
+                }
+                continue;
+            }
+            onResponse.accept(offset, response);
+        }
+    }
+
+    // The status code of a failed service call. Failures without one, e.g. a lost connection, are communication errors
+    static long statusOf(Throwable failure) {
+        while (failure instanceof CompletionException && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        if (failure instanceof UaException) {
+            return ((UaException) failure).getStatusCode().getValue();
+        }
+        return StatusCodes.Bad_CommunicationError;
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.fraunhofer.fit.opcua;
+
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExtensionObject;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.FilterOperator;
+import org.eclipse.milo.opcua.stack.core.types.structured.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+/**
+ * Builds an EventFilter from a textual description.
+ *
+ * Select clauses are browse paths relative to BaseEventType, with the elements separated by '/' and an optional
+ * namespace index prefix, e.g. "Severity", "ActiveState/Id" or "2:MyField". "ConditionId" selects the NodeId of the
+ * condition, as defined for ConditionType.
+ *
+ * The where clause is a list of conditions joined by AND, where each condition is either "OfType &lt;NodeId&gt;" or
+ * "&lt;browse path&gt; &lt;operator&gt; &lt;literal&gt;". Supported operators are =, !=, &lt;&gt;, &gt;, &gt;=, &lt;, &lt;= and LIKE.
+ * Literals are numbers, true/false, NodeIds like "ns=2;i=1" or strings in single quotes, which may contain AND.
+ */
+final class EventFilterParser {
+
+    static final String CONDITION_ID = "ConditionId";
+
+    private static final Pattern AND = Pattern.compile("\\s+(?i:AND)\\s+");
+    private static final Pattern OF_TYPE = Pattern.compile("^(?i:OfType)\\s+(\\S+)$");
+    private static final Pattern COMPARISON = Pattern.compile("^([^\\s<>=!]+)\\s*(>=|<=|!=|<>|=|>|<)\\s*(.+)$");
+    private static final Pattern LIKE = Pattern.compile("^(\\S+)\\s+(?i:LIKE)\\s+(.+)$");
+    private static final Pattern NODE_ID = Pattern.compile("^(ns=\\d+;)?[isgb]=.+$");
+
+    private EventFilterParser() {
+    }
+
+    static EventFilter parse(List<String> selectClauses, String whereClause) {
+        if (selectClauses.isEmpty()) {
+            throw new IllegalArgumentException("At least one select clause is required");
+        }
+
+        SimpleAttributeOperand[] select = new SimpleAttributeOperand[selectClauses.size()];
+        for (int i = 0; i < select.length; i++) {
+            select[i] = parseOperand(selectClauses.get(i).trim());
+        }
+
+        ContentFilter where = new ContentFilter(null);
+        if (whereClause != null && !whereClause.trim().isEmpty()) {
+            List<ContentFilterElement> elements = new ArrayList<>();
+            flatten(parseWhere(whereClause.trim()), elements);
+            where = new ContentFilter(elements.toArray(new ContentFilterElement[0]));
+        }
+
+        return new EventFilter(select, where);
+    }
+
+    // The name of a select clause as it is written in the filter, e.g. "ActiveState/Id"
+    static String getFieldName(SimpleAttributeOperand operand) {
+        QualifiedName[] browsePath = operand.getBrowsePath();
+        if (browsePath == null || browsePath.length == 0) {
+            return AttributeId.NodeId.uid().equals(operand.getAttributeId()) ? CONDITION_ID : "";
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (QualifiedName name : browsePath) {
+            if (sb.length() > 0) sb.append('/');
+            if (name.getNamespaceIndex().intValue() != 0) sb.append(name.getNamespaceIndex()).append(':');
+            sb.append(name.getName());
+        }
+        return sb.toString();
+    }
+
+    private static SimpleAttributeOperand parseOperand(String path) {
+        if (path.isEmpty()) {
+            throw new IllegalArgumentException("Empty browse path");
+        }
+
+        if (path.equals(CONDITION_ID)) {
+            return new SimpleAttributeOperand(Identifiers.ConditionType, new QualifiedName[0],
+                    AttributeId.NodeId.uid(), null);
+        }
+
+        String[] elements = path.split("/");
+        QualifiedName[] browsePath = new QualifiedName[elements.length];
+        for (int i = 0; i < elements.length; i++) {
+            String element = elements[i].trim();
+            int idx = element.indexOf(':');
+            if (idx > 0 && element.substring(0, idx).matches("\\d+")) {
+                browsePath[i] = new QualifiedName(Integer.parseInt(element.substring(0, idx)), element.substring(idx + 1));
+            } else {
+                browsePath[i] = new QualifiedName(0, element);
+            }
+        }
+
+        return new SimpleAttributeOperand(Identifiers.BaseEventType, browsePath, AttributeId.Value.uid(), null);
+    }
+
+    private static Element parseWhere(String whereClause) {
+        List<Element> conditions = new ArrayList<>();
+        for (String condition : splitConditions(whereClause)) {
+            conditions.add(parseCondition(condition.trim()));
+        }
+
+        // Conditions are combined by a chain of And operators
+        Element root = conditions.get(conditions.size() - 1);
+        for (int i = conditions.size() - 2; i >= 0; i--) {
+            root = new Element(FilterOperator.And, conditions.get(i), root);
+        }
+        return root;
+    }
+
+    // Split the where clause at the ANDs outside of string literals, e.g. not in "Message = 'Pump and valve'"
+    private static List<String> splitConditions(String whereClause) {
+        List<String> conditions = new ArrayList<>();
+        Matcher m = AND.matcher(whereClause);
+        int start = 0;
+        int quotes = 0;
+        int counted = 0;
+        while (m.find()) {
+            for (; counted < m.start(); counted++) {
+                if (whereClause.charAt(counted) == '\'') quotes++;
+            }
+            if (quotes % 2 == 0) {
+                conditions.add(whereClause.substring(start, m.start()));
+                start = m.end();
+            }
+        }
+        conditions.add(whereClause.substring(start));
+        return conditions;
+    }
+
+    private static Element parseCondition(String condition) {
+        Matcher m = OF_TYPE.matcher(condition);
+        if (m.matches()) {
+            return new Element(FilterOperator.OfType, literal(NodeId.parse(m.group(1))));
+        }
+
+        m = LIKE.matcher(condition);
+        if (m.matches()) {
+            return new Element(FilterOperator.Like, operand(m.group(1)), literal(parseLiteral(m.group(2).trim())));
+        }
+
+        m = COMPARISON.matcher(condition);
+        if (!m.matches()) {
+            throw new IllegalArgumentException("Invalid condition: " + condition);
+        }
+
+        ExtensionObject left = operand(m.group(1));
+        ExtensionObject right = literal(parseLiteral(m.group(3).trim()));
+        switch (m.group(2)) {
+            case "=":
+                return new Element(FilterOperator.Equals, left, right);
+            case "!=":
+            case "<>":
+                return new Element(FilterOperator.Not, new Element(FilterOperator.Equals, left, right));
+            case ">":
+                return new Element(FilterOperator.GreaterThan, left, right);
+            case ">=":
+                return new Element(FilterOperator.GreaterThanOrEqual, left, right);
+            case "<":
+                return new Element(FilterOperator.LessThan, left, right);
+            default:
+                return new Element(FilterOperator.LessThanOrEqual, left, right);
+        }
+    }
+
+    private static Object parseLiteral(String literal) {
+        if (literal.length() >= 2 && literal.startsWith("'") && literal.endsWith("'")) {
+            return literal.substring(1, literal.length() - 1);
+        } else if (literal.equalsIgnoreCase("true") || literal.equalsIgnoreCase("false")) {
+            return Boolean.parseBoolean(literal);
+        } else if (NODE_ID.matcher(literal).matches()) {
+            return NodeId.parse(literal);
+        }
+
+        try {
+            long l = Long.parseLong(literal);
+            return l == (int) l ? (Object) (int) l : (Object) l;
+        } catch (NumberFormatException e) {
+            try {
+                return Double.parseDouble(literal);
+            } catch (NumberFormatException e2) {
+                throw new IllegalArgumentException("Invalid literal: " + literal);
+            }
+        }
+    }
+
+    private static ExtensionObject operand(String path) {
+        return ExtensionObject.encode(parseOperand(path));
+    }
+
+    private static ExtensionObject literal(Object value) {
+        return ExtensionObject.encode(new LiteralOperand(new Variant(value)));
+    }
+
+    // Elements are referenced by their index, with the root of the tree at index 0
+    private static int flatten(Element element, List<ContentFilterElement> elements) {
+        int index = elements.size();
+        elements.add(null);
+
+        ExtensionObject[] operands = new ExtensionObject[element.operands.size()];
+        for (int i = 0; i < operands.length; i++) {
+            Object operand = element.operands.get(i);
+            if (operand instanceof Element) {
+                int child = flatten((Element) operand, elements);
+                operands[i] = ExtensionObject.encode(new ElementOperand(uint(child)));
+            } else {
+                operands[i] = (ExtensionObject) operand;
+            }
+        }
+
+        elements.set(index, new ContentFilterElement(element.operator, operands));
+        return index;
+    }
+
+    // A node of the filter tree, operands are either encoded operands or other elements
+    private static class Element {
+
+        private final FilterOperator operator;
+        private final List<Object> operands;
+
+        Element(FilterOperator operator, Object... operands) {
+            this.operator = operator;
+            this.operands = Arrays.asList(operands);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.fraunhofer.fit.opcua;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges the reads of concurrent callers into few large reads.
+ *
+ * The first read of a batch starts a window, and all reads with the same max age which arrive within the window join
+ * the batch. When the window ends, the nodes of all reads of the batch are read once each, in requests of at most
+ * maxNodesPerRead nodes, and every caller gets the values of its own nodes. Callers trade the window for fewer
+ * round trips and requests to the server.
+ */
+class ReadCoalescer {
+
+    interface Reader {
+        CompletableFuture<List<DataValue>> read(List<NodeId> nodeIds, long maxAge);
+    }
+
+    private final long window;
+    private final int maxNodesPerRead;
+    private final Reader reader;
+    private final ServiceMetrics metrics;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+    // The batches collecting reads, by max age. Only accessed while holding the lock of the coalescer
+    private final Map<Long, Batch> batches = new HashMap<>();
+    private boolean shutdown;
+
+    /**
+     * @param window The time in milliseconds a batch collects reads
+     * @param maxNodesPerRead The number of nodes read in one request at most
+     * @param reader Reads the values of nodes from the server
+     * @param metrics The metrics the merged reads are counted in
+     */
+    ReadCoalescer(long window, int maxNodesPerRead, Reader reader, ServiceMetrics metrics) {
+        this.window = window;
+        this.maxNodesPerRead = maxNodesPerRead;
+        this.reader = reader;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Read the values of nodes with the next batch.
+     *
+     * @param nodeIds The nodes
+     * @param maxAge The max age of the read in milliseconds
+     * @return The values of the nodes, in the same order
+     */
+    CompletableFuture<List<DataValue>> read(List<NodeId> nodeIds, long maxAge) {
+        PendingRead pendingRead = new PendingRead(nodeIds);
+        synchronized (this) {
+            if (shutdown) {
+                pendingRead.future.completeExceptionally(new IllegalStateException("The service has been disabled"));
+                return pendingRead.future;
+            }
+
+            Batch batch = batches.get(maxAge);
+            if (batch == null) {
+                Batch newBatch = new Batch(maxAge);
+                try {
+                    executor.schedule(() -> flush(newBatch), window, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    pendingRead.future.completeExceptionally(e);
+                    return pendingRead.future;
+                }
+                batches.put(maxAge, newBatch);
+                batch = newBatch;
+            }
+            batch.reads.add(pendingRead);
+        }
+        return pendingRead.future;
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+        synchronized (this) {
+            shutdown = true;
+            // Reads of batches which won't be flushed anymore mustn't wait forever
+            for (Batch batch : batches.values()) {
+                for (PendingRead pendingRead : batch.reads) {
+                    pendingRead.future.completeExceptionally(new IllegalStateException("The service has been disabled"));
+                }
+            }
+            batches.clear();
+        }
+    }
+
+    private void flush(Batch batch) {
+        synchronized (this) {
+            batches.remove(batch.maxAge);
+        }
+
+        // Each node is read once, however many callers asked for it
+        Map<NodeId, Integer> indexes = new HashMap<>();
+        List<NodeId> nodeIds = new ArrayList<>();
+        for (PendingRead pendingRead : batch.reads) {
+            pendingRead.indexes = new int[pendingRead.nodeIds.size()];
+            for (int i = 0; i < pendingRead.indexes.length; i++) {
+                NodeId nodeId = pendingRead.nodeIds.get(i);
+                Integer index = indexes.get(nodeId);
+                if (index == null) {
+                    index = nodeIds.size();
+                    indexes.put(nodeId, index);
+                    nodeIds.add(nodeId);
+                }
+                pendingRead.indexes[i] = index;
+            }
+        }
+
+        List<CompletableFuture<List<DataValue>>> futures = new ArrayList<>();
+        for (int from = 0; from < nodeIds.size(); from += maxNodesPerRead) {
+            futures.add(reader.read(nodeIds.subList(from, Math.min(from + maxNodesPerRead, nodeIds.size())),
+                    batch.maxAge));
+        }
+        metrics.coalescedCalls.add(batch.reads.size());
+        metrics.coalescedRequests.add(futures.size());
+
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).whenComplete((ignored, e) -> {
+            if (e != null) {
+                for (PendingRead pendingRead : batch.reads) {
+                    pendingRead.future.completeExceptionally(e);
+                }
+                return;
+            }
+
+            List<DataValue> values = new ArrayList<>(nodeIds.size());
+            for (CompletableFuture<List<DataValue>> future : futures) {
+                values.addAll(future.join());
+            }
+            for (PendingRead pendingRead : batch.reads) {
+                List<DataValue> result = new ArrayList<>(pendingRead.indexes.length);
+                for (int index : pendingRead.indexes) {
+                    result.add(values.get(index));
+                }
+                pendingRead.future.complete(result);
+            }
+        });
+    }
+
+    private static class Batch {
+
+        private final long maxAge;
+        private final List<PendingRead> reads = new ArrayList<>();
+
+        Batch(long maxAge) {
+            this.maxAge = maxAge;
+        }
+    }
+
+    private static class PendingRead {
+
+        private final List<NodeId> nodeIds;
+        private final CompletableFuture<List<DataValue>> future = new CompletableFuture<>();
+        // The index of the value of each node in the merged read
+        private int[] indexes;
+
+        PendingRead(List<NodeId> nodeIds) {
+            this.nodeIds = nodeIds;
+        }
+    }
+}
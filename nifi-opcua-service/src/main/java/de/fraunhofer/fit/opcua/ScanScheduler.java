@@ -0,0 +1,296 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.fraunhofer.fit.opcua;
+
+import org.apache.nifi.logging.ComponentLog;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Polls scan classes, named groups of nodes which are read together with a fixed period and phase, and offers the
+ * values to the queues of the subscribers of each node, in the same format as the values of subscriptions.
+ *
+ * The scans of a scan class start at the wall clock times which are a multiple of the period plus the phase, e.g.
+ * at every full minute plus 15 seconds for a period of 1 min and a phase of 15 sec. Each scan is scheduled for the
+ * next boundary after the previous one, not a period after the previous scan ended, so the delays of single scans
+ * don't add up. A scan which is still running at the next boundary skips the boundaries it missed, which are counted
+ * as overruns. The nodes of all subscribers of a scan class are read once per scan, and all scan classes share a
+ * few threads.
+ */
+class ScanScheduler {
+
+    interface ValueReader {
+        // Must not block for longer than a request timeout, as the scans share a few threads
+        List<DataValue> read(List<NodeId> nodeIds) throws Exception;
+    }
+
+    interface LineWriter {
+        String write(String tagName, DataValue value);
+    }
+
+    private final ScheduledExecutorService executor;
+    private final int maxNodesPerRead;
+    private final ValueReader reader;
+    private final LineWriter writer;
+    private final ServiceMetrics metrics;
+    private final ComponentLog logger;
+
+    // Only accessed while holding the lock of the scheduler
+    private final Map<String, ScanClass> scanClasses = new HashMap<>();
+    private final Map<String, ScanClass> scanClassesByUid = new HashMap<>();
+
+    /**
+     * @param threads The number of threads all scans run on
+     * @param maxNodesPerRead The number of nodes read in one request at most
+     * @param reader Reads the values of nodes from the server
+     * @param writer Writes a value to a line of the queue
+     * @param metrics The metrics the scans are recorded in
+     * @param logger The logger of the service
+     */
+    ScanScheduler(int threads, int maxNodesPerRead, ValueReader reader, LineWriter writer, ServiceMetrics metrics,
+                  ComponentLog logger) {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(threads);
+        // Scans of removed scan classes don't wait in the queue until their boundary
+        executor.setRemoveOnCancelPolicy(true);
+        this.executor = executor;
+        this.maxNodesPerRead = maxNodesPerRead;
+        this.reader = reader;
+        this.writer = writer;
+        this.metrics = metrics;
+        this.logger = logger;
+    }
+
+    /**
+     * Add a subscriber to a scan class, which is created if it doesn't exist yet.
+     *
+     * @param subscriptionUid The uid of the subscriber
+     * @param name The name of the scan class
+     * @param period The period of the scans in milliseconds
+     * @param phase The offset of the scans from the multiples of the period in milliseconds
+     * @param nodeIds The nodes of the subscriber by their full names
+     * @param queue The queue the values are offered to
+     * @throws IllegalArgumentException If the period or phase is invalid, or the scan class exists with another
+     * period or phase
+     */
+    synchronized void subscribe(String subscriptionUid, String name, long period, long phase,
+                                Map<String, NodeId> nodeIds, BlockingQueue<String> queue) {
+        if (period <= 0 || phase < 0 || phase >= period) {
+            throw new IllegalArgumentException("The phase of a scan class must be at least 0 and less than its period");
+        }
+
+        ScanClass scanClass = scanClasses.get(name);
+        if (scanClass == null) {
+            scanClass = new ScanClass(name, period, phase);
+            scanClasses.put(name, scanClass);
+        } else if (scanClass.period != period || scanClass.phase != phase) {
+            throw new IllegalArgumentException("Scan class " + name + " exists with a period of " + scanClass.period
+                    + " ms and a phase of " + scanClass.phase + " ms");
+        }
+
+        scanClass.subscribers.put(subscriptionUid, new ScanSubscriber(queue, nodeIds));
+        scanClassesByUid.put(subscriptionUid, scanClass);
+        scanClass.update();
+        if (scanClass.future == null) {
+            scanClass.schedule(nextBoundary(System.currentTimeMillis(), period, phase));
+        }
+    }
+
+    /**
+     * Replace the nodes of a subscriber.
+     *
+     * @return false if the subscriber doesn't belong to a scan class
+     */
+    synchronized boolean update(String subscriptionUid, Map<String, NodeId> nodeIds) {
+        ScanClass scanClass = scanClassesByUid.get(subscriptionUid);
+        if (scanClass == null) return false;
+
+        ScanSubscriber subscriber = scanClass.subscribers.get(subscriptionUid);
+        scanClass.subscribers.put(subscriptionUid, new ScanSubscriber(subscriber.queue, nodeIds));
+        scanClass.update();
+        return true;
+    }
+
+    /**
+     * Remove a subscriber from its scan class. The scan class is removed with its last subscriber.
+     *
+     * @return false if the subscriber doesn't belong to a scan class
+     */
+    synchronized boolean unsubscribe(String subscriptionUid) {
+        ScanClass scanClass = scanClassesByUid.remove(subscriptionUid);
+        if (scanClass == null) return false;
+
+        scanClass.subscribers.remove(subscriptionUid);
+        if (scanClass.subscribers.isEmpty()) {
+            scanClasses.remove(scanClass.name);
+            scanClass.cancel();
+        } else {
+            scanClass.update();
+        }
+        return true;
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // The first time after the given time which is a multiple of the period plus the phase
+    static long nextBoundary(long time, long period, long phase) {
+        return (Math.floorDiv(time - phase, period) + 1) * period + phase;
+    }
+
+    private static class ScanSubscriber {
+
+        private final BlockingQueue<String> queue;
+        private final Map<String, NodeId> nodeIds;
+
+        ScanSubscriber(BlockingQueue<String> queue, Map<String, NodeId> nodeIds) {
+            this.queue = queue;
+            this.nodeIds = nodeIds;
+        }
+    }
+
+    // The nodes of all subscribers of a scan class, and the queues of each node
+    private static class Scan {
+
+        private final List<String> tagNames = new ArrayList<>();
+        private final List<NodeId> nodeIds = new ArrayList<>();
+        private final List<List<BlockingQueue<String>>> queues = new ArrayList<>();
+    }
+
+    private class ScanClass implements Runnable {
+
+        private final String name;
+        private final long period;
+        private final long phase;
+        private final Map<String, ScanSubscriber> subscribers = new LinkedHashMap<>();
+
+        // Replaced whenever the subscribers change, so that a running scan isn't affected
+        private volatile Scan scan = new Scan();
+        private ScheduledFuture<?> future;
+        private long scheduledTime;
+        private boolean cancelled;
+
+        ScanClass(String name, long period, long phase) {
+            this.name = name;
+            this.period = period;
+            this.phase = phase;
+        }
+
+        // Must be called while holding the lock of the scheduler
+        void update() {
+            Map<String, Integer> indexes = new HashMap<>();
+            Scan newScan = new Scan();
+            for (ScanSubscriber subscriber : subscribers.values()) {
+                for (Map.Entry<String, NodeId> entry : subscriber.nodeIds.entrySet()) {
+                    Integer index = indexes.get(entry.getKey());
+                    if (index == null) {
+                        index = newScan.tagNames.size();
+                        indexes.put(entry.getKey(), index);
+                        newScan.tagNames.add(entry.getKey());
+                        newScan.nodeIds.add(entry.getValue());
+                        newScan.queues.add(new ArrayList<>());
+                    }
+                    newScan.queues.get(index).add(subscriber.queue);
+                }
+            }
+            scan = newScan;
+        }
+
+        // Must be called while holding the lock of the scheduler
+        void schedule(long time) {
+            if (cancelled) return;
+            scheduledTime = time;
+            try {
+                future = executor.schedule(this, Math.max(0, time - System.currentTimeMillis()),
+                        TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // The service has been disabled
+            }
+        }
+
+        // Must be called while holding the lock of the scheduler
+        void cancel() {
+            cancelled = true;
+            if (future != null) future.cancel(false);
+        }
+
+        @Override
+        public void run() {
+            Scan current = scan;
+            long start = System.nanoTime();
+            boolean success = false;
+            try {
+                for (int from = 0; from < current.nodeIds.size(); from += maxNodesPerRead) {
+                    int to = Math.min(from + maxNodesPerRead, current.nodeIds.size());
+                    List<DataValue> values = reader.read(current.nodeIds.subList(from, to));
+                    for (int i = 0; i < values.size(); i++) {
+                        String valueLine = writer.write(current.tagNames.get(from + i), values.get(i));
+                        for (BlockingQueue<String> queue : current.queues.get(from + i)) {
+                            if (!queue.offer(valueLine)) {
+                                metrics.scanValuesDropped.increment();
+                            }
+                        }
+                    }
+                }
+                success = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (TimeoutException e) {
+                logger.warn("Scan of scan class " + name + " failed: no response from the server");
+            } catch (Exception e) {
+                logger.warn("Scan of scan class " + name + " failed: " + e.getMessage());
+            } finally {
+                metrics.scan.record(start, success);
+            }
+
+            synchronized (ScanScheduler.this) {
+                long now = System.currentTimeMillis();
+                long next = scheduledTime + period;
+                if (next <= now || next - now > period) {
+                    // The scan took longer than the period, or the clock was changed
+                    long boundary = nextBoundary(now, period, phase);
+                    if (next <= now) {
+                        metrics.scanOverruns.add(Math.max(1, (boundary - next) / period));
+                    }
+                    next = boundary;
+                }
+                schedule(next);
+            }
+        }
+    }
+
+    // For tests
+    synchronized List<String> getTagNames(String name) {
+        ScanClass scanClass = scanClasses.get(name);
+        return scanClass == null ? Collections.emptyList() : scanClass.scan.tagNames;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.fraunhofer.fit.opcua;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the requests and subscriptions of the service.
+ * All values are cumulative since the service was enabled.
+ */
+class ServiceMetrics {
+
+    final Operation read = new Operation("read");
+    final Operation browse = new Operation("browse");
+    final Operation historyRead = new Operation("historyRead");
+    final Operation write = new Operation("write");
+    final Operation call = new Operation("call");
+    final Operation monitoredItemCreate = new Operation("monitoredItemCreate");
+    final Operation scan = new Operation("scan");
+
+    final LongAdder notificationsReceived = new LongAdder();
+    final LongAdder notificationsDropped = new LongAdder();
+    final LongAdder eventsReceived = new LongAdder();
+    final LongAdder eventsDropped = new LongAdder();
+    final LongAdder publishFailures = new LongAdder();
+    final LongAdder notificationsLost = new LongAdder();
+    final LongAdder subscriptionRecreations = new LongAdder();
+    final LongAdder subscriptionRecreationFailures = new LongAdder();
+    final LongAdder keepAliveFailures = new LongAdder();
+    final LongAdder reconnects = new LongAdder();
+    final LongAdder scanOverruns = new LongAdder();
+    final LongAdder scanValuesDropped = new LongAdder();
+    final LongAdder cacheHits = new LongAdder();
+    final LongAdder cacheMisses = new LongAdder();
+    final LongAdder coalescedCalls = new LongAdder();
+    final LongAdder coalescedRequests = new LongAdder();
+
+    Map<String, Long> snapshot() {
+        Map<String, Long> metrics = new LinkedHashMap<>();
+        for (Operation operation : new Operation[]{read, browse, historyRead, write, call, monitoredItemCreate,
+                scan}) {
+            operation.addTo(metrics);
+        }
+        metrics.put("subscription.notifications.received", notificationsReceived.sum());
+        metrics.put("subscription.notifications.dropped", notificationsDropped.sum());
+        metrics.put("subscription.events.received", eventsReceived.sum());
+        metrics.put("subscription.events.dropped", eventsDropped.sum());
+        metrics.put("subscription.publishFailures", publishFailures.sum());
+        metrics.put("subscription.notificationsLost", notificationsLost.sum());
+        metrics.put("subscription.recreations", subscriptionRecreations.sum());
+        metrics.put("subscription.recreationFailures", subscriptionRecreationFailures.sum());
+        metrics.put("connection.keepAliveFailures", keepAliveFailures.sum());
+        metrics.put("connection.reconnects", reconnects.sum());
+        metrics.put("scan.overruns", scanOverruns.sum());
+        metrics.put("scan.values.dropped", scanValuesDropped.sum());
+        metrics.put("cache.hits", cacheHits.sum());
+        metrics.put("cache.misses", cacheMisses.sum());
+        metrics.put("coalescing.calls", coalescedCalls.sum());
+        metrics.put("coalescing.requests", coalescedRequests.sum());
+        return metrics;
+    }
+
+    // A kind of request, with the number of requests, failed requests and their latency
+    static class Operation {
+
+        private final String name;
+        private final LongAdder errors = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        Operation(String name) {
+            this.name = name;
+        }
+
+        // Record a request started at startNanos, taken from System.nanoTime()
+        void record(long startNanos, boolean success) {
+            latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+            if (!success) errors.increment();
+        }
+
+        void addErrors(long count) {
+            errors.add(count);
+        }
+
+        void addTo(Map<String, Long> metrics) {
+            metrics.put(name + ".count", latency.getCount());
+            metrics.put(name + ".errors", errors.sum());
+            metrics.put(name + ".latency.mean.us", latency.getMean());
+            metrics.put(name + ".latency.p50.us", latency.getPercentile(0.5));
+            metrics.put(name + ".latency.p99.us", latency.getPercentile(0.99));
+            metrics.put(name + ".latency.max.us", latency.getMax());
+        }
+    }
+}
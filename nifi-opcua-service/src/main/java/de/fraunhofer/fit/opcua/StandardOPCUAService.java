@@ -39,11 +39,14 @@ import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaSubscription;
 import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaSubscriptionManager;
 import org.eclipse.milo.opcua.stack.client.UaTcpStackClient;
 import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.BuiltinDataType;
 import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
 import org.eclipse.milo.opcua.stack.core.UaException;
 import org.eclipse.milo.opcua.stack.core.security.SecurityPolicy;
 import org.eclipse.milo.opcua.stack.core.types.builtin.*;
 import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.ULong;
 import org.eclipse.milo.opcua.stack.core.types.enumerated.DataChangeTrigger;
 import org.eclipse.milo.opcua.stack.core.types.enumerated.MessageSecurityMode;
 import org.eclipse.milo.opcua.stack.core.types.enumerated.MonitoringMode;
@@ -51,19 +54,40 @@ import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
 import org.eclipse.milo.opcua.stack.core.types.structured.*;
 import org.eclipse.milo.opcua.stack.core.util.CertificateUtil;
 
+import java.lang.reflect.Array;
+import java.math.BigInteger;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
 
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
 import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.ushort;
 
 @Tags({"opc"})
 @CapabilityDescription("ControllerService implementation of OPCUAService.")
@@ -182,13 +206,124 @@ public class StandardOPCUAService extends AbstractControllerService implements O
             .expressionLanguageSupported(ExpressionLanguageScope.VARIABLE_REGISTRY)
             .build();
 
+    public static final PropertyDescriptor KEEP_ALIVE_INTERVAL = new PropertyDescriptor
+            .Builder().name("Keep Alive Interval")
+            .description("How often the connection is checked by reading the state of the server. A connection which " +
+                    "stays silent, e.g. a half-open connection over a cellular link, is detected after \"Keep Alive " +
+                    "Failures Allowed\" checks failed in a row. Set to 0 sec to disable.")
+            .required(true)
+            .defaultValue("5 sec")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor KEEP_ALIVE_FAILURES_ALLOWED = new PropertyDescriptor
+            .Builder().name("Keep Alive Failures Allowed")
+            .description("The number of keep alive checks which may fail in a row before the connection is " +
+                    "considered lost and is reestablished.")
+            .required(true)
+            .defaultValue("3")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor MAX_RECONNECT_DELAY = new PropertyDescriptor
+            .Builder().name("Max Reconnect Delay")
+            .description("The longest delay between two attempts to reconnect or to recreate a subscription. The " +
+                    "delay starts at 1 second and doubles with every failed attempt, with a random jitter, so that " +
+                    "many clients don't reconnect at the same time.")
+            .required(true)
+            .defaultValue("2 min")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor SCAN_THREADS = new PropertyDescriptor
+            .Builder().name("Scan Threads")
+            .description("The number of threads which poll the scan classes of all processors. The scans of a scan " +
+                    "class never run in parallel, so more threads only help when scans of different scan classes " +
+                    "are due at the same time.")
+            .required(true)
+            .defaultValue("2")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor READ_COALESCING_WINDOW = new PropertyDescriptor
+            .Builder().name("Read Coalescing Window")
+            .description("If greater than 0, the reads of all processors which arrive within this window are merged " +
+                    "into few large reads, each node read once. Every read waits up to the window longer, but the " +
+                    "server gets far fewer requests when many processors read at the same time.")
+            .required(true)
+            .defaultValue("0 ms")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
     private static final List<PropertyDescriptor> properties;
 
+    // Number of pages a history read task may buffer before it waits for the consumer
+    private static final int HISTORY_PAGES_PER_TASK = 4;
+    private static final byte[] END_OF_PAGES = new byte[0];
+
+    // Limits of the HistoryRead requests used to fill gaps in subscriptions
+    private static final int BACKFILL_MAX_NODES_PER_REQUEST = 100;
+    private static final int BACKFILL_MAX_VALUES_PER_NODE = 1000;
+    // A backfill is read in time slices, oldest first, and stops after the slice in which this many values were read
+    private static final long BACKFILL_SLICE_INTERVAL = TimeUnit.HOURS.toMillis(1);
+    private static final long BACKFILL_MAX_VALUES = 1000000;
+
+    // Delay of the first reconnect attempt, doubled with every failed attempt
+    private static final long INITIAL_RECONNECT_DELAY = 1000;
+
+    // Monitored items are created in requests of this many items, at most this many requests at a time
+    private static final int MAX_ITEMS_PER_CREATE = 1000;
+    private static final int MAX_CONCURRENT_CREATES = 4;
+
+    // Scans and coalesced reads read at most this many nodes per request
+    private static final int MAX_NODES_PER_SCAN_READ = 1000;
+    // A scan read without a response by then fails, so a lost response doesn't block a scan thread for good
+    private static final long SCAN_READ_TIMEOUT = 5000;
+    private static final int RECREATE_THREADS = 4;
+
     private OpcUaClient opcClient;
     private Map<String, SubscriptionConfig> subscriptionMap;
+    // The uid of the subscription config of each subscription on the server, which stays the same when the
+    // subscription has to be recreated
+    private final Map<UInteger, String> subscriberUids = new ConcurrentHashMap<>();
+    private final AtomicLong subscriberIds = new AtomicLong();
+
+    // Data change subscriptions by publishing interval, whose monitored items are shared by all subscribers with
+    // that interval. They are only changed while holding sharedLock, which is never held during requests to the server
+    private final Map<Long, SharedSubscription> sharedSubscriptions = new ConcurrentHashMap<>();
+    private final Object sharedLock = new Object();
+
+    // Runs the keep alive checks, off the threads of the client
+    private ScheduledExecutorService connectionExecutor;
+    // Recreates subscriptions and retries failed recreations, so that slow backfills don't delay the keep alive checks
+    private ScheduledExecutorService recreateExecutor;
+    // Runs the concurrent HistoryRead requests of all history reads, each of which limits its own concurrency
+    private ExecutorService historyExecutor;
+    private long keepAliveInterval;
+    private int keepAliveFailuresAllowed;
+    private long maxReconnectDelay;
+    private int keepAliveFailures;
+    private Backoff reconnectBackoff;
+
+    // Polls the scan classes of all subscribers
+    private ScanScheduler scanScheduler;
+    // Merges concurrent reads, null if disabled
+    private ReadCoalescer readCoalescer;
 
     private final AtomicLong clientHandles = new AtomicLong(1L);
 
+    // DataType of the nodes written so far, so that it is only read once per node
+    private final Map<NodeId, BuiltinDataType> dataTypeCache = new ConcurrentHashMap<>();
+
+    // InputArguments of the methods called so far
+    private final Map<NodeId, Argument[]> methodArgumentCache = new ConcurrentHashMap<>();
+
+    // The last value received for each node by a subscription or scan, by full name
+    private final Map<String, CachedValue> valueCache = new ConcurrentHashMap<>();
+
+    // Replaced when the service is enabled, so the metrics start from zero
+    private volatile ServiceMetrics metrics = new ServiceMetrics();
+
     static {
         final List<PropertyDescriptor> props = new ArrayList<>();
         props.add(ENDPOINT);
@@ -204,6 +339,11 @@ public class StandardOPCUAService extends AbstractControllerService implements O
         props.add(USERNAME);
         props.add(PASSWORD);
         props.add(USE_PROXY);
+        props.add(KEEP_ALIVE_INTERVAL);
+        props.add(KEEP_ALIVE_FAILURES_ALLOWED);
+        props.add(MAX_RECONNECT_DELAY);
+        props.add(SCAN_THREADS);
+        props.add(READ_COALESCING_WINDOW);
         properties = Collections.unmodifiableList(props);
     }
 
@@ -352,16 +492,50 @@ public class StandardOPCUAService extends AbstractControllerService implements O
                 cfgBuilder.setProductUri(applicationUri);
             }
 
+            dataTypeCache.clear();
+            methodArgumentCache.clear();
+            valueCache.clear();
+            metrics = new ServiceMetrics();
+
             opcClient = new OpcUaClient(cfgBuilder.build());
             opcClient.connect().get(5, TimeUnit.SECONDS);
 
             if (subscriptionMap == null) {
                 subscriptionMap = new ConcurrentHashMap<>();
             }
+            // The subscriptions of the previous client are gone
+            sharedSubscriptions.clear();
+            subscriberUids.clear();
 
             // Add custom SubscriptionListener to handle automatic recreating subscription
             opcClient.getSubscriptionManager().addSubscriptionListener(new CustomSubscriptionListener());
 
+            keepAliveInterval = context.getProperty(KEEP_ALIVE_INTERVAL).asTimePeriod(TimeUnit.MILLISECONDS);
+            keepAliveFailuresAllowed = context.getProperty(KEEP_ALIVE_FAILURES_ALLOWED).asInteger();
+            maxReconnectDelay = context.getProperty(MAX_RECONNECT_DELAY).asTimePeriod(TimeUnit.MILLISECONDS);
+            keepAliveFailures = 0;
+            reconnectBackoff = new Backoff(INITIAL_RECONNECT_DELAY, maxReconnectDelay);
+            connectionExecutor = Executors.newSingleThreadScheduledExecutor();
+            recreateExecutor = Executors.newScheduledThreadPool(RECREATE_THREADS);
+            historyExecutor = Executors.newCachedThreadPool();
+            if (keepAliveInterval > 0) {
+                connectionExecutor.schedule(this::checkConnection, keepAliveInterval, TimeUnit.MILLISECONDS);
+            }
+
+            scanScheduler = new ScanScheduler(context.getProperty(SCAN_THREADS).asInteger(), MAX_NODES_PER_SCAN_READ,
+                    (nodeIds) -> opcClient.readValues(0, TimestampsToReturn.Both, nodeIds)
+                            .get(SCAN_READ_TIMEOUT, TimeUnit.MILLISECONDS),
+                    (tagName, value) -> {
+                        valueCache.put(tagName, new CachedValue(value));
+                        return writeCsv(tagName, "Both", value, false, "");
+                    },
+                    metrics, getLogger());
+
+            long coalescingWindow = context.getProperty(READ_COALESCING_WINDOW).asTimePeriod(TimeUnit.MILLISECONDS);
+            readCoalescer = coalescingWindow > 0 ? new ReadCoalescer(coalescingWindow, MAX_NODES_PER_SCAN_READ,
+                    (nodeIds, maxAge) -> opcClient.readValues(maxAge, TimestampsToReturn.Both, nodeIds),
+                    metrics) : null;
+
         } catch (Exception e) {
             throw new InitializationException(e);
         }
@@ -370,6 +544,21 @@ public class StandardOPCUAService extends AbstractControllerService implements O
 
     @OnDisabled
     public void shutdown() {
+        if (connectionExecutor != null) {
+            connectionExecutor.shutdownNow();
+        }
+        if (recreateExecutor != null) {
+            recreateExecutor.shutdownNow();
+        }
+        if (historyExecutor != null) {
+            historyExecutor.shutdownNow();
+        }
+        if (scanScheduler != null) {
+            scanScheduler.shutdown();
+        }
+        if (readCoalescer != null) {
+            readCoalescer.shutdown();
+        }
         try {
             if (opcClient != null) {
                 getLogger().debug("Disconnecting from OPC server...");
@@ -388,12 +577,17 @@ public class StandardOPCUAService extends AbstractControllerService implements O
      * @param returnTimestamp What timestamp to return. "Both", "Source" and "Server"
      * @param excludeNullValue If null value in data is encountered, whether exclude them from adding to the final response
      * @param nullValueString String to replace the null value, if excludeNullValue is false
+     * @param maxAge The age in milliseconds up to which a value may be taken from the values last received by
+     *               subscriptions and scans, instead of being read. It is also passed to the server, which may return
+     *               values from its own cache up to this age. 0 always reads the current values
      * @return A UTF-8 byte array of response
      * @throws ProcessException Exceptions happens when getting values from OPC-UA server
      */
     @Override
     public byte[] getValue(List<String> tagNames, String returnTimestamp, boolean excludeNullValue,
-                           String nullValueString) throws ProcessException {
+                           String nullValueString, long maxAge) throws ProcessException {
+        long start = System.nanoTime();
+        boolean success = false;
         try {
             if (opcClient == null) {
                 throw new ProcessException("OPC Client is null. OPC UA service was not enabled properly.");
@@ -401,10 +595,32 @@ public class StandardOPCUAService extends AbstractControllerService implements O
 
             // TODO: Throw more descriptive exception when parsing fails
             ArrayList<NodeId> nodeIdList = new ArrayList<>();
-            tagNames.forEach((tagName) -> nodeIdList.add(NodeId.parse(tagName)));
-
+            List<DataValue> rvList = new ArrayList<>(tagNames.size());
+            List<Integer> readIndexes = new ArrayList<>();
+            long now = System.nanoTime();
+            for (String tagName : tagNames) {
+                NodeId nodeId = NodeId.parse(tagName);
+                CachedValue cached = maxAge > 0 ? valueCache.get(getFullName(nodeId)) : null;
+                if (cached != null && TimeUnit.NANOSECONDS.toMillis(now - cached.received) <= maxAge) {
+                    rvList.add(cached.value);
+                    metrics.cacheHits.increment();
+                } else {
+                    readIndexes.add(rvList.size());
+                    rvList.add(null);
+                    nodeIdList.add(nodeId);
+                }
+            }
 
-            List<DataValue> rvList = opcClient.readValues(0, TimestampsToReturn.Both, nodeIdList).get();
+            // Only the values which aren't cached are read
+            if (!nodeIdList.isEmpty()) {
+                if (maxAge > 0) metrics.cacheMisses.add(nodeIdList.size());
+                List<DataValue> readValues = readCoalescer != null ?
+                        readCoalescer.read(nodeIdList, maxAge).get() :
+                        opcClient.readValues(maxAge, TimestampsToReturn.Both, nodeIdList).get();
+                for (int i = 0; i < readIndexes.size(); i++) {
+                    rvList.set(readIndexes.get(i), readValues.get(i));
+                }
+            }
 
             StringBuilder serverResponse = new StringBuilder();
 
@@ -414,31 +630,300 @@ public class StandardOPCUAService extends AbstractControllerService implements O
                 serverResponse.append(valueLine);
             }
 
+            success = true;
             return serverResponse.toString().trim().getBytes();
 
         } catch (Exception e) {
             throw new ProcessException(e);
+        } finally {
+            metrics.read.record(start, success);
+        }
+
+    }
+
+
+    /**
+     * Get the historical values of a list of nodes within a time range. This method uses the HistoryRead Service
+     * with ReadRawModifiedDetails. Continuation points are followed until the server has returned the whole range,
+     * and every response is handed over to the consumer as soon as it arrives.
+     * The range is split into time slices and the tag list into groups, which are read with bounded parallelism.
+     * Pages are still delivered in slice order, and the consumer is notified whenever a slice is completed.
+     *
+     * @param tagNames A list of OPC UA node names
+     * @param startTime Start of the time range in milliseconds since epoch
+     * @param endTime End of the time range in milliseconds since epoch
+     * @param sliceInterval Length of a time slice in milliseconds, 0 means the range is read as a single slice
+     * @param maxConcurrentReads Maximum number of HistoryRead requests in flight at the same time
+     * @param maxValuesPerNode Maximum number of values returned per node in a single response (NumValuesPerNode)
+     * @param maxNodesPerRequest Maximum number of nodes read in a single HistoryRead request
+     * @param returnTimestamp What timestamp to return. "Both", "Source" and "Server"
+     * @param excludeNullValue If null value in data is encountered, whether exclude them from adding to the final response
+     * @param nullValueString String to replace the null value, if excludeNullValue is false
+     * @param pageConsumer Consumer receiving the values of each response as UTF-8 byte array
+     * @throws ProcessException Exceptions happens when reading history from OPC-UA server
+     */
+    @Override
+    public void getHistory(List<String> tagNames, long startTime, long endTime, long sliceInterval,
+                           int maxConcurrentReads, int maxValuesPerNode, int maxNodesPerRequest,
+                           String returnTimestamp, boolean excludeNullValue, String nullValueString,
+                           HistoryPageConsumer pageConsumer) throws ProcessException {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            if (opcClient == null) {
+                throw new ProcessException("OPC Client is null. OPC UA service was not enabled properly.");
+            }
+
+            List<HistoryReadTask> tasks = createHistoryTasks(tagNames, startTime, endTime, sliceInterval,
+                    maxNodesPerRequest, (sliceStart, sliceEnd, nodeCount) -> new ReadRawModifiedDetails(
+                            false,
+                            new DateTime(new Date(sliceStart)),
+                            new DateTime(new Date(sliceEnd)),
+                            uint(maxValuesPerNode),
+                            false));
+
+            runHistoryTasks(tasks, maxConcurrentReads, returnTimestamp, excludeNullValue, nullValueString,
+                    pageConsumer);
+            success = true;
+
+        } catch (ProcessException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ProcessException(e);
+        } finally {
+            metrics.historyRead.record(start, success);
+        }
+    }
+
+
+    /**
+     * Get aggregated historical values of a list of nodes within a time range. This method uses the HistoryRead Service
+     * with ReadProcessedDetails, so the values are aggregated by the server and only one value per node and
+     * processing interval is transferred. Slicing, parallelism and paging work the same way as in getHistory.
+     *
+     * @param tagNames A list of OPC UA node names
+     * @param startTime Start of the time range in milliseconds since epoch
+     * @param endTime End of the time range in milliseconds since epoch
+     * @param aggregateFunction The aggregate function. "Average", "Minimum", "Maximum", "Count", "TimeAverage" and "Interpolative"
+     * @param processingInterval Length of the interval each aggregated value is computed for, in milliseconds
+     * @param sliceInterval Length of a time slice in milliseconds, 0 means the range is read as a single slice
+     * @param maxConcurrentReads Maximum number of HistoryRead requests in flight at the same time
+     * @param maxNodesPerRequest Maximum number of nodes read in a single HistoryRead request
+     * @param returnTimestamp What timestamp to return. "Both", "Source" and "Server"
+     * @param excludeNullValue If null value in data is encountered, whether exclude them from adding to the final response
+     * @param nullValueString String to replace the null value, if excludeNullValue is false
+     * @param pageConsumer Consumer receiving the values of each response as UTF-8 byte array
+     * @throws ProcessException Exceptions happens when reading history from OPC-UA server
+     */
+    @Override
+    public void getProcessedHistory(List<String> tagNames, long startTime, long endTime, String aggregateFunction,
+                                    long processingInterval, long sliceInterval, int maxConcurrentReads,
+                                    int maxNodesPerRequest, String returnTimestamp, boolean excludeNullValue,
+                                    String nullValueString, HistoryPageConsumer pageConsumer) throws ProcessException {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            if (opcClient == null) {
+                throw new ProcessException("OPC Client is null. OPC UA service was not enabled properly.");
+            }
+
+            if (processingInterval <= 0) {
+                throw new ProcessException("Processing interval must be positive.");
+            }
+
+            NodeId aggregateType = getAggregateType(aggregateFunction);
+
+            // Slices must be a multiple of the processing interval, otherwise intervals would be cut at slice borders
+            long alignedSliceInterval = sliceInterval <= 0 ? 0 :
+                    ((sliceInterval + processingInterval - 1) / processingInterval) * processingInterval;
+
+            List<HistoryReadTask> tasks = createHistoryTasks(tagNames, startTime, endTime, alignedSliceInterval,
+                    maxNodesPerRequest, (sliceStart, sliceEnd, nodeCount) -> {
+                        // One aggregate type is required for each node in the request
+                        NodeId[] aggregateTypes = new NodeId[nodeCount];
+                        Arrays.fill(aggregateTypes, aggregateType);
+                        return new ReadProcessedDetails(
+                                new DateTime(new Date(sliceStart)),
+                                new DateTime(new Date(sliceEnd)),
+                                (double) processingInterval,
+                                aggregateTypes,
+                                new AggregateConfiguration(true, false, ubyte(100), ubyte(100), false));
+                    });
+
+            runHistoryTasks(tasks, maxConcurrentReads, returnTimestamp, excludeNullValue, nullValueString,
+                    pageConsumer);
+            success = true;
+
+        } catch (ProcessException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ProcessException(e);
+        } finally {
+            metrics.historyRead.record(start, success);
+        }
+    }
+
+
+    /**
+     * Write values to a list of nodes. This method uses the Write Attribute Service.
+     * Every value is converted to the DataType of its node, which is read once and cached. The nodes are written in
+     * requests of at most maxNodesPerWrite nodes, with up to maxConcurrentWrites requests in flight.
+     *
+     * @param tagNames A list of OPC UA node names
+     * @param values The values to write as strings, one for each node
+     * @param maxNodesPerWrite Maximum number of nodes written in a single Write request
+     * @param maxConcurrentWrites Maximum number of Write requests in flight at the same time
+     * @return The status code of each write, in the same order as the nodes. 0 means Good
+     * @throws ProcessException Exceptions happens when writing values to OPC-UA server
+     */
+    @Override
+    public long[] write(List<String> tagNames, List<String> values, int maxNodesPerWrite,
+                        int maxConcurrentWrites) throws ProcessException {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            if (opcClient == null) {
+                throw new ProcessException("OPC Client is null. OPC UA service was not enabled properly.");
+            }
+
+            long[] statusCodes = new long[tagNames.size()];
+
+            List<NodeId> nodeIds = new ArrayList<>();
+            tagNames.forEach((tagName) -> nodeIds.add(NodeId.parse(tagName)));
+            Map<NodeId, Object> dataTypes = getDataTypes(nodeIds);
+
+            // Convert the values, nodes which can't be converted are not written at all
+            List<WriteValue> writeValues = new ArrayList<>();
+            List<Integer> writeIndexes = new ArrayList<>();
+            for (int i = 0; i < nodeIds.size(); i++) {
+                Object dataType = dataTypes.get(nodeIds.get(i));
+                if (dataType instanceof StatusCode) {
+                    statusCodes[i] = ((StatusCode) dataType).getValue();
+                    continue;
+                }
+                try {
+                    Variant variant = new Variant(convertValue(values.get(i), (BuiltinDataType) dataType));
+                    writeValues.add(new WriteValue(nodeIds.get(i), AttributeId.Value.uid(), null,
+                            new DataValue(variant, null, null)));
+                    writeIndexes.add(i);
+                } catch (Exception e) {
+                    getLogger().debug("Cannot convert value " + values.get(i) + " for " + tagNames.get(i)
+                            + " to " + dataType + ": " + e.getMessage());
+                    statusCodes[i] = StatusCodes.Bad_TypeMismatch;
+                }
+            }
+
+            // The nodes of a failed chunk get the status of the failure, as the other chunks may be written already
+            ChunkedSender.send(writeValues, maxNodesPerWrite, maxConcurrentWrites, opcClient::write,
+                    (offset, response) -> {
+                        StatusCode[] results = response.getResults();
+                        for (int j = 0; j < results.length; j++) {
+                            statusCodes[writeIndexes.get(offset + j)] = results[j].getValue();
+                        }
+                    }, (index, statusCode) -> statusCodes[writeIndexes.get(index)] = statusCode, getLogger());
+
+            success = true;
+            return statusCodes;
+
+        } catch (ProcessException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ProcessException(e);
+        } finally {
+            metrics.write.record(start, success);
         }
+    }
+
+
+    /**
+     * Call a list of methods. This method uses the Call Method Service.
+     * The input arguments are converted to the DataTypes declared in the InputArguments property of each method,
+     * which is read once and cached. The calls are sent in requests of at most maxMethodsPerCall methods, with up to
+     * maxConcurrentCalls requests in flight.
+     *
+     * @param objectIds The objects the methods are called on
+     * @param methodIds The methods to call, one for each object
+     * @param inputArguments The input arguments as strings, one list for each method. Array values are separated by ';'
+     * @param maxMethodsPerCall Maximum number of methods called in a single Call request
+     * @param maxConcurrentCalls Maximum number of Call requests in flight at the same time
+     * @return The result of each call, in the same order as the methods
+     * @throws ProcessException Exceptions happens when calling methods on OPC-UA server
+     */
+    @Override
+    public List<MethodCallResult> call(List<String> objectIds, List<String> methodIds,
+                                       List<List<String>> inputArguments, int maxMethodsPerCall,
+                                       int maxConcurrentCalls) throws ProcessException {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            if (opcClient == null) {
+                throw new ProcessException("OPC Client is null. OPC UA service was not enabled properly.");
+            }
+
+            MethodCallResult[] results = new MethodCallResult[methodIds.size()];
+
+            List<NodeId> methodNodeIds = new ArrayList<>();
+            methodIds.forEach((methodId) -> methodNodeIds.add(NodeId.parse(methodId)));
+            Map<NodeId, Argument[]> methodArguments = getInputArguments(methodNodeIds);
+
+            // Convert the input arguments, methods whose arguments can't be converted are not called at all
+            List<CallMethodRequest> requests = new ArrayList<>();
+            List<Integer> requestIndexes = new ArrayList<>();
+            for (int i = 0; i < methodNodeIds.size(); i++) {
+                try {
+                    Variant[] arguments = convertArguments(inputArguments.get(i),
+                            methodArguments.get(methodNodeIds.get(i)));
+                    requests.add(new CallMethodRequest(NodeId.parse(objectIds.get(i)), methodNodeIds.get(i),
+                            arguments));
+                    requestIndexes.add(i);
+                } catch (Exception e) {
+                    getLogger().debug("Cannot convert input arguments " + inputArguments.get(i) + " for "
+                            + methodIds.get(i) + ": " + e.getMessage());
+                    results[i] = new MethodCallResult(StatusCodes.Bad_InvalidArgument, null);
+                }
+            }
 
+            // The methods of a failed chunk get the status of the failure, as the other chunks may have run already
+            ChunkedSender.send(requests, maxMethodsPerCall, maxConcurrentCalls, opcClient::call, (offset, response) -> {
+                CallMethodResult[] callResults = response.getResults();
+                for (int j = 0; j < callResults.length; j++) {
+                    List<String> outputs = new ArrayList<>();
+                    if (callResults[j].getOutputArguments() != null) {
+                        for (Variant output : callResults[j].getOutputArguments()) {
+                            outputs.add(valueToString(output.getValue()));
+                        }
+                    }
+                    results[requestIndexes.get(offset + j)] =
+                            new MethodCallResult(callResults[j].getStatusCode().getValue(), outputs);
+                }
+            }, (index, statusCode) -> results[requestIndexes.get(index)] = new MethodCallResult(statusCode, null),
+                    getLogger());
+
+            success = true;
+            return Arrays.asList(results);
+
+        } catch (ProcessException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ProcessException(e);
+        } finally {
+            metrics.call.record(start, success);
+        }
     }
 
 
     @Override
-    public String subscribe(List<String> tagNames, BlockingQueue<String> queue,
-                            boolean tsChangedNotify, long minPublishInterval) throws ProcessException {
+    public String subscribe(List<String> tagNames, BlockingQueue<String> queue, boolean tsChangedNotify,
+                            long minPublishInterval, Map<String, Long> lastSourceTimes,
+                            long maxBackfillPeriod) throws ProcessException {
 
         try {
             if (opcClient == null) {
                 throw new Exception("OPC Client is null. OPC UA service was not enabled properly.");
             }
 
-            List<ReadValueId> readValueIds = new ArrayList<>();
-            tagNames.forEach((tagName) -> {
-                ReadValueId readValueId = new ReadValueId(
-                        NodeId.parse(tagName),
-                        AttributeId.Value.uid(), null, QualifiedName.NULL_VALUE);
-                readValueIds.add(readValueId);
-            });
+            // Each node is monitored once per subscriber
+            Map<String, NodeId> nodeIds = toNodeIds(tagNames);
 
             // Important!
             // If we apply this filter in MonitoringParameters, now not only we will get data when value changes,
@@ -447,15 +932,226 @@ public class StandardOPCUAService extends AbstractControllerService implements O
             DataChangeFilter changeFilter = tsChangedNotify ?
                     new DataChangeFilter(DataChangeTrigger.from(2), null, null) : null;
 
+            // Track the last source timestamp of every node, so that gaps can be filled from history
+            Map<String, AtomicLong> sourceTimes = null;
+            if (maxBackfillPeriod > 0) {
+                sourceTimes = new ConcurrentHashMap<>();
+                for (String fullName : nodeIds.keySet()) {
+                    Long lastSourceTime = lastSourceTimes == null ? null : lastSourceTimes.get(fullName);
+                    sourceTimes.put(fullName, new AtomicLong(lastSourceTime == null ? Long.MIN_VALUE : lastSourceTime));
+                }
+
+                // Fill the gap since the values seen before the restart, before live data is resumed
+                backfill(sourceTimes, maxBackfillPeriod, queue);
+            }
+
+            String subscriptionUid = String.valueOf(subscriberIds.incrementAndGet());
+            SubscriptionConfig config = new SubscriptionConfig(null, queue, changeFilter, sourceTimes,
+                    maxBackfillPeriod);
+
+            synchronized (sharedLock) {
+                config.setShared(getSharedSubscription(minPublishInterval));
+                subscriptionMap.put(subscriptionUid, config);
+                acquireItems(subscriptionUid, config, nodeIds.values());
+            }
+
+            try {
+                syncShared(config.getShared());
+            } catch (Exception e) {
+                subscriptionMap.remove(subscriptionUid);
+                synchronized (sharedLock) {
+                    releaseItems(subscriptionUid, config, new ArrayList<>(config.getTagNames()));
+                }
+                try {
+                    syncShared(config.getShared());
+                } catch (Exception releaseException) {
+                    getLogger().debug("Releasing the items failed: " + releaseException.getMessage());
+                }
+                throw e;
+            }
+
+            return subscriptionUid;
+
+        } catch (Exception e) {
+            throw new ProcessException(e.getMessage());
+        }
+    }
+
+    /**
+     * Subscribe to a scan class, a named group of nodes which the service reads at the wall clock times which are a
+     * multiple of the period plus the phase. The values of every scan are offered to the queue in the same format as
+     * the values of subscriptions. Subscribers of the same scan class share its scans, and the scan class is removed
+     * with its last subscriber.
+     *
+     * @param scanClassName The name of the scan class
+     * @param tagNames A list of OPC UA node names
+     * @param period The period of the scans in milliseconds
+     * @param phase The offset of the scans from the multiples of the period in milliseconds, less than the period
+     * @param queue The queue the values are offered to. Values are dropped while the queue is full
+     * @return The uid of the subscriber, which is used to update the nodes and to unsubscribe
+     * @throws ProcessException If the scan class exists with another period or phase
+     */
+    @Override
+    public String subscribeScanClass(String scanClassName, List<String> tagNames, long period, long phase,
+                                     BlockingQueue<String> queue) throws ProcessException {
+
+        if (opcClient == null || scanScheduler == null) {
+            throw new ProcessException("OPC Client is null. OPC UA service was not enabled properly.");
+        }
+
+        String subscriptionUid = String.valueOf(subscriberIds.incrementAndGet());
+        try {
+            scanScheduler.subscribe(subscriptionUid, scanClassName, period, phase, toNodeIds(tagNames), queue);
+        } catch (IllegalArgumentException e) {
+            throw new ProcessException(e.getMessage());
+        }
+        return subscriptionUid;
+    }
+
+    /**
+     * Subscribe to the events of a list of event notifier nodes, e.g. the Server object "i=2253".
+     * Every event is offered to the queue as a single line JSON object, which contains the notifier node as
+     * "SourceNode" and the selected fields of the event.
+     *
+     * @param notifierNames A list of OPC UA event notifier node names
+     * @param selectClauses The fields selected from every event, as browse paths relative to BaseEventType
+     * @param whereClause The conditions events must satisfy, null or empty to receive all events
+     * @param queue The queue the events are offered to. Events are dropped while the queue is full
+     * @param minPublishInterval The minimum publish interval of the subscription in milliseconds
+     * @param serverQueueSize The number of events the server buffers for each notifier between two publish responses
+     * @return The uid of the subscription, which is used to unsubscribe
+     * @throws ProcessException Exceptions happens when subscribing to the OPC-UA server
+     */
+    @Override
+    public String subscribeEvents(List<String> notifierNames, List<String> selectClauses, String whereClause,
+                                  BlockingQueue<String> queue, long minPublishInterval,
+                                  int serverQueueSize) throws ProcessException {
+
+        try {
+            if (opcClient == null) {
+                throw new Exception("OPC Client is null. OPC UA service was not enabled properly.");
+            }
+
+            EventFilter eventFilter;
+            try {
+                eventFilter = EventFilterParser.parse(selectClauses, whereClause);
+            } catch (IllegalArgumentException e) {
+                throw new ProcessException("Invalid event filter: " + e.getMessage());
+            }
+
+            List<ReadValueId> readValueIds = new ArrayList<>();
+            notifierNames.forEach((notifierName) -> readValueIds.add(new ReadValueId(
+                    NodeId.parse(notifierName),
+                    AttributeId.EventNotifier.uid(), null, QualifiedName.NULL_VALUE)));
+
             UaSubscription sub = createSubscription(minPublishInterval);
 
-            createMonitorItems(sub, readValueIds, queue, changeFilter);
+            createEventItems(sub, readValueIds, null, queue, eventFilter, serverQueueSize);
 
             return putSubToMap(sub, queue);
 
+        } catch (ProcessException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ProcessException(e.getMessage());
+        }
+    }
+
+    /**
+     * Update the nodes monitored by an existing subscription. Only the difference between the monitored nodes and
+     * the given list is applied, by joining and leaving shared monitored items. The other items keep running.
+     *
+     * @param subscriptionUid The uid returned by subscribe
+     * @param tagNames The complete list of OPC UA node names, which should be monitored
+     * @throws ProcessException Exceptions happens when updating the subscription on the OPC-UA server
+     */
+    @Override
+    public void updateSubscription(String subscriptionUid, List<String> tagNames) throws ProcessException {
+
+        if (scanScheduler != null && scanScheduler.update(subscriptionUid, toNodeIds(tagNames))) {
+            return;
+        }
+
+        SubscriptionConfig config = subscriptionMap.get(subscriptionUid);
+        if (config == null) {
+            throw new ProcessException("Subscription " + subscriptionUid + " does not exist");
+        }
+
+        if (config.getShared() == null) {
+            throw new ProcessException("Subscription " + subscriptionUid + " is not a data change subscription");
+        }
+
+        try {
+            synchronized (sharedLock) {
+                Set<String> liveTags = config.getTagNames();
+
+                List<NodeId> added = new ArrayList<>();
+                Set<String> wanted = new HashSet<>();
+                for (String tagName : tagNames) {
+                    NodeId nodeId = NodeId.parse(tagName);
+                    String fullName = getFullName(nodeId);
+                    if (wanted.add(fullName) && !liveTags.contains(fullName)) {
+                        added.add(nodeId);
+                    }
+                }
+
+                List<String> removed = new ArrayList<>();
+                for (String fullName : liveTags) {
+                    if (!wanted.contains(fullName)) removed.add(fullName);
+                }
+
+                getLogger().info("Updating subscription " + subscriptionUid + ": " + added.size()
+                        + " nodes added, " + removed.size() + " nodes removed");
+
+                Map<String, AtomicLong> lastSourceTimes = config.getLastSourceTimes();
+                if (lastSourceTimes != null) {
+                    lastSourceTimes.keySet().retainAll(wanted);
+                    // Nodes added later have no gap to fill yet
+                    added.forEach((nodeId) -> lastSourceTimes.putIfAbsent(
+                            getFullName(nodeId), new AtomicLong(Long.MIN_VALUE)));
+                }
+
+                // Added first, so that the subscription isn't closed when all its nodes are replaced
+                acquireItems(subscriptionUid, config, added);
+                releaseItems(subscriptionUid, config, removed);
+            }
+
+            syncShared(config.getShared());
+
+        } catch (Exception e) {
+            throw new ProcessException(e.getMessage());
+        }
+    }
+
+    /**
+     * Get the names the values of nodes are reported with in the queue messages, e.g. "ns=0;i=2258" for "i=2258".
+     *
+     * @param tagNames A list of OPC UA node names
+     * @return The full name of every node, in the same order
+     * @throws ProcessException If a node name can't be parsed
+     */
+    @Override
+    public List<String> getFullNames(List<String> tagNames) throws ProcessException {
+        List<String> fullNames = new ArrayList<>();
+        try {
+            tagNames.forEach((tagName) -> fullNames.add(getFullName(NodeId.parse(tagName))));
         } catch (Exception e) {
             throw new ProcessException(e.getMessage());
         }
+        return fullNames;
+    }
+
+    /**
+     * Get the metrics of the service since it was enabled. The keys of requests are of the form
+     * "&lt;operation&gt;.count", "&lt;operation&gt;.errors" and "&lt;operation&gt;.latency.&lt;mean|p50|p99|max&gt;.us",
+     * for the operations read, browse, historyRead, write, call, monitoredItemCreate and scan. The keys of
+     * subscriptions start with "subscription.".
+     *
+     * @return The current values of all metrics
+     */
+    @Override
+    public Map<String, Long> getMetrics() {
+        return metrics.snapshot();
     }
 
     @Override
@@ -466,12 +1162,27 @@ public class StandardOPCUAService extends AbstractControllerService implements O
             return;
         }
 
-        if (subscriptionMap.get(subscriptionUid) != null) {
+        if (scanScheduler != null && scanScheduler.unsubscribe(subscriptionUid)) {
+            return;
+        }
+
+        // Removed first, so that a subscription which is being recreated is not recreated again
+        SubscriptionConfig config = subscriptionMap.remove(subscriptionUid);
+        if (config != null && config.getShared() != null) {
+            synchronized (sharedLock) {
+                releaseItems(subscriptionUid, config, new ArrayList<>(config.getTagNames()));
+            }
+            try {
+                syncShared(config.getShared());
+            } catch (Exception e) {
+                getLogger().warn("Unsubscribe failed: " + e.getMessage());
+            }
+        } else if (config != null) {
+            UInteger subId = config.getSubscription().getSubscriptionId();
+            subscriberUids.remove(subId);
             try {
-                UInteger subId = UInteger.valueOf(subscriptionUid);
                 opcClient.getSubscriptionManager()
                         .deleteSubscription(subId).get(4, TimeUnit.SECONDS);
-                subscriptionMap.remove(subscriptionUid);
             } catch (Exception e) {
                 getLogger().warn("Unsubscribe failed: " + e.getMessage());
             }
@@ -484,6 +1195,8 @@ public class StandardOPCUAService extends AbstractControllerService implements O
                            boolean printNonLeafNode, String rootNodeId)
             throws ProcessException {
 
+        long start = System.nanoTime();
+        boolean success = false;
         try {
             if (opcClient == null) {
                 throw new ProcessException("OPC Client is null. OPC UA service was not enabled properly.");
@@ -500,10 +1213,13 @@ public class StandardOPCUAService extends AbstractControllerService implements O
             browseNodeIteratively("", indentString, maxRecursiveDepth, maxReferencePerNode, printNonLeafNode,
                     opcClient, nodeId, builder);
 
+            success = true;
             return builder.toString().getBytes();
 
         } catch (Exception e) {
             throw new ProcessException(e.getMessage());
+        } finally {
+            metrics.browse.record(start, success);
         }
 
     }
@@ -571,96 +1287,860 @@ public class StandardOPCUAService extends AbstractControllerService implements O
 
     }
 
-    private String getFullName(NodeId nodeId) {
+    // Get the built-in DataType of the nodes from the cache, reading the DataType attribute of unknown nodes.
+    // The map contains a BuiltinDataType for every node which can be written, otherwise the StatusCode of the failure.
+    private Map<NodeId, Object> getDataTypes(List<NodeId> nodeIds) throws Exception {
+        Map<NodeId, Object> dataTypes = new HashMap<>();
+
+        List<ReadValueId> readValueIds = new ArrayList<>();
+        for (NodeId nodeId : nodeIds) {
+            BuiltinDataType dataType = dataTypeCache.get(nodeId);
+            if (dataType != null) {
+                dataTypes.put(nodeId, dataType);
+            } else if (!dataTypes.containsKey(nodeId)) {
+                dataTypes.put(nodeId, null);
+                readValueIds.add(new ReadValueId(nodeId, AttributeId.DataType.uid(), null, QualifiedName.NULL_VALUE));
+            }
+        }
 
-        String identifierType;
+        if (readValueIds.isEmpty()) return dataTypes;
 
-        switch (nodeId.getType()) {
-            case Numeric:
-                identifierType = "i";
-                break;
-            case Opaque:
-                identifierType = "b";
-                break;
-            case Guid:
-                identifierType = "g";
-                break;
-            default:
-                identifierType = "s";
-        }
+        DataValue[] results = opcClient.read(0, TimestampsToReturn.Neither, readValueIds).get().getResults();
+        for (int i = 0; i < results.length; i++) {
+            NodeId nodeId = readValueIds.get(i).getNodeId();
+            DataValue result = results[i];
 
-        return String.format("ns=%s;%s=%s", nodeId.getNamespaceIndex().toString(),
-                identifierType, nodeId.getIdentifier().toString());
-    }
+            if (result.getStatusCode() != null && result.getStatusCode().isBad()) {
+                dataTypes.put(nodeId, result.getStatusCode());
+                continue;
+            }
 
+            BuiltinDataType dataType = null;
+            Object dataTypeId = result.getValue().getValue();
+            if (dataTypeId instanceof NodeId) {
+                dataType = getBuiltinDataType((NodeId) dataTypeId);
+            }
 
-    private UaSubscription createSubscription(long minPublishInterval) throws Exception {
+            if (dataType == null) {
+                getLogger().warn("DataType " + dataTypeId + " of " + nodeId + " is not supported for writing");
+                dataTypes.put(nodeId, new StatusCode(StatusCodes.Bad_TypeMismatch));
+            } else {
+                dataTypeCache.put(nodeId, dataType);
+                dataTypes.put(nodeId, dataType);
+            }
+        }
+
+        return dataTypes;
+    }
+
+    // Get the InputArguments property of the methods from the cache, reading the property of unknown methods.
+    // Methods without the property have no input arguments.
+    private Map<NodeId, Argument[]> getInputArguments(List<NodeId> methodIds) throws Exception {
+        Map<NodeId, Argument[]> arguments = new HashMap<>();
+
+        List<BrowsePath> browsePaths = new ArrayList<>();
+        for (NodeId methodId : methodIds) {
+            Argument[] cached = methodArgumentCache.get(methodId);
+            if (cached != null) {
+                arguments.put(methodId, cached);
+            } else if (!arguments.containsKey(methodId)) {
+                arguments.put(methodId, null);
+                browsePaths.add(new BrowsePath(methodId, new RelativePath(new RelativePathElement[]{
+                        new RelativePathElement(Identifiers.HasProperty, false, false,
+                                new QualifiedName(0, "InputArguments"))
+                })));
+            }
+        }
+
+        if (browsePaths.isEmpty()) return arguments;
+
+        BrowsePathResult[] pathResults = opcClient.translateBrowsePaths(browsePaths).get().getResults();
+
+        List<NodeId> propertyMethodIds = new ArrayList<>();
+        List<ReadValueId> readValueIds = new ArrayList<>();
+        for (int i = 0; i < pathResults.length; i++) {
+            NodeId methodId = browsePaths.get(i).getStartingNode();
+            BrowsePathTarget[] targets = pathResults[i].getTargets();
+            if (pathResults[i].getStatusCode().isGood() && targets != null && targets.length > 0) {
+                Optional<NodeId> propertyId = targets[0].getTargetId().local();
+                if (propertyId.isPresent()) {
+                    propertyMethodIds.add(methodId);
+                    readValueIds.add(new ReadValueId(propertyId.get(), AttributeId.Value.uid(), null,
+                            QualifiedName.NULL_VALUE));
+                    continue;
+                }
+            }
+            methodArgumentCache.put(methodId, new Argument[0]);
+            arguments.put(methodId, new Argument[0]);
+        }
+
+        if (readValueIds.isEmpty()) return arguments;
+
+        DataValue[] values = opcClient.read(0, TimestampsToReturn.Neither, readValueIds).get().getResults();
+        for (int i = 0; i < values.length; i++) {
+            NodeId methodId = propertyMethodIds.get(i);
+            Object value = values[i].getValue().getValue();
+            if (!(value instanceof ExtensionObject[])) {
+                throw new ProcessException("Cannot read InputArguments of " + methodId + ": " + values[i].getStatusCode());
+            }
+
+            ExtensionObject[] encoded = (ExtensionObject[]) value;
+            Argument[] decoded = new Argument[encoded.length];
+            for (int j = 0; j < encoded.length; j++) {
+                decoded[j] = encoded[j].decode();
+            }
+            methodArgumentCache.put(methodId, decoded);
+            arguments.put(methodId, decoded);
+        }
+
+        return arguments;
+    }
+
+    private Variant[] convertArguments(List<String> values, Argument[] arguments) {
+        if (values.size() != arguments.length) {
+            throw new IllegalArgumentException("Expected " + arguments.length + " input arguments, got " + values.size());
+        }
+
+        Variant[] variants = new Variant[arguments.length];
+        for (int i = 0; i < arguments.length; i++) {
+            BuiltinDataType dataType = getBuiltinDataType(arguments[i].getDataType());
+            if (dataType == null) {
+                throw new IllegalArgumentException("DataType " + arguments[i].getDataType() + " is not supported");
+            }
+
+            if (arguments[i].getValueRank() >= 1) {
+                // Array values are separated by ';', like the values returned by getValue
+                String[] elements = values.get(i).isEmpty() ? new String[0] : values.get(i).split(";");
+                Object array = Array.newInstance(dataType.getBackingClass(), elements.length);
+                for (int j = 0; j < elements.length; j++) {
+                    Array.set(array, j, convertValue(elements[j], dataType));
+                }
+                variants[i] = new Variant(array);
+            } else {
+                variants[i] = new Variant(convertValue(values.get(i), dataType));
+            }
+        }
+        return variants;
+    }
+
+    // Same representation as the values written by writeCsv
+    private String valueToString(Object value) {
+        if (value == null) return "";
+        if (value.getClass().isArray()) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < Array.getLength(value); i++) {
+                sb.append(Array.get(value, i)).append(";");
+            }
+            return sb.toString();
+        }
+        return value.toString();
+    }
+
+    // Map a DataType to the built-in type its values are encoded with. Subtypes are only known for the common cases
+    private BuiltinDataType getBuiltinDataType(NodeId dataTypeId) {
+        if (BuiltinDataType.isBuiltin(dataTypeId)) {
+            return BuiltinDataType.fromNodeId(dataTypeId);
+        } else if (dataTypeId.equals(Identifiers.Duration)) {
+            return BuiltinDataType.Double;
+        } else if (dataTypeId.equals(Identifiers.UtcTime)) {
+            return BuiltinDataType.DateTime;
+        } else if (dataTypeId.equals(Identifiers.Enumeration)) {
+            return BuiltinDataType.Int32;
+        }
+        return null;
+    }
+
+    // Convert the string representation of a value to the Java type backing the built-in DataType
+    private Object convertValue(String value, BuiltinDataType dataType) {
+        String trimmed = value.trim();
+        switch (dataType) {
+            case Boolean:
+                // Anything else is rejected, instead of silently writing false
+                if (trimmed.equals("1") || trimmed.equalsIgnoreCase("true")) return true;
+                if (trimmed.equals("0") || trimmed.equalsIgnoreCase("false")) return false;
+                throw new IllegalArgumentException("Not a boolean: " + value);
+            case SByte:
+                return Byte.parseByte(trimmed);
+            case Byte:
+                return ubyte(Short.parseShort(trimmed));
+            case Int16:
+                return Short.parseShort(trimmed);
+            case UInt16:
+                return ushort(Integer.parseInt(trimmed));
+            case Int32:
+                return Integer.parseInt(trimmed);
+            case UInt32:
+                return uint(Long.parseLong(trimmed));
+            case Int64:
+                return Long.parseLong(trimmed);
+            case UInt64:
+                return ULong.valueOf(new BigInteger(trimmed));
+            case Float:
+                return Float.parseFloat(trimmed);
+            case Double:
+                return Double.parseDouble(trimmed);
+            case String:
+                return value;
+            case DateTime:
+                return new DateTime(new Date(Long.parseLong(trimmed)));
+            case LocalizedText:
+                return LocalizedText.english(value);
+            case NodeId:
+                return NodeId.parse(trimmed);
+            default:
+                throw new IllegalArgumentException("DataType " + dataType + " is not supported for writing");
+        }
+    }
+
+    private String getFullName(NodeId nodeId) {
+
+        String identifierType;
+
+        switch (nodeId.getType()) {
+            case Numeric:
+                identifierType = "i";
+                break;
+            case Opaque:
+                identifierType = "b";
+                break;
+            case Guid:
+                identifierType = "g";
+                break;
+            default:
+                identifierType = "s";
+        }
+
+        return String.format("ns=%s;%s=%s", nodeId.getNamespaceIndex().toString(),
+                identifierType, nodeId.getIdentifier().toString());
+    }
+
+
+    private NodeId getAggregateType(String aggregateFunction) {
+        switch (aggregateFunction) {
+            case "Average":
+                return Identifiers.AggregateFunction_Average;
+            case "Minimum":
+                return Identifiers.AggregateFunction_Minimum;
+            case "Maximum":
+                return Identifiers.AggregateFunction_Maximum;
+            case "Count":
+                return Identifiers.AggregateFunction_Count;
+            case "TimeAverage":
+                return Identifiers.AggregateFunction_TimeAverage;
+            case "Interpolative":
+                return Identifiers.AggregateFunction_Interpolative;
+            default:
+                throw new ProcessException("Unsupported aggregate function: " + aggregateFunction);
+        }
+    }
+
+    // Split the time range into slices and the tag list into groups. Tasks are ordered by slice, then by group
+    private List<HistoryReadTask> createHistoryTasks(List<String> tagNames, long startTime, long endTime,
+                                                     long sliceInterval, int maxNodesPerRequest,
+                                                     HistoryDetailsFactory detailsFactory) {
+        List<HistoryReadTask> tasks = new ArrayList<>();
+
+        long sliceStart = startTime;
+        while (sliceStart < endTime) {
+            long sliceEnd = sliceInterval > 0 ? Math.min(sliceStart + sliceInterval, endTime) : endTime;
+
+            // Split the tag list, so that a single request doesn't exceed the limits of the server
+            for (int i = 0; i < tagNames.size(); i += maxNodesPerRequest) {
+                List<String> group = tagNames.subList(i, Math.min(i + maxNodesPerRequest, tagNames.size()));
+                boolean lastOfSlice = i + maxNodesPerRequest >= tagNames.size();
+                HistoryReadDetails details = detailsFactory.create(sliceStart, sliceEnd, group.size());
+                tasks.add(new HistoryReadTask(details, group, sliceEnd, lastOfSlice));
+            }
+            sliceStart = sliceEnd;
+        }
+
+        return tasks;
+    }
+
+    // Run the history read tasks and deliver their pages in task order.
+    // Only maxConcurrentReads tasks run ahead of the task currently consumed, and each of them buffers at most
+    // HISTORY_PAGES_PER_TASK pages, so memory stays bounded no matter how long the time range is.
+    private void runHistoryTasks(List<HistoryReadTask> tasks, int maxConcurrentReads, String returnTimestamp,
+                                 boolean excludeNullValue, String nullValueString,
+                                 HistoryPageConsumer pageConsumer) throws Exception {
+
+        if (maxConcurrentReads <= 1 || tasks.size() <= 1) {
+            for (HistoryReadTask task : tasks) {
+                readHistory(task.getDetails(), task.getTagNames(),
+                        csvPages(returnTimestamp, excludeNullValue, nullValueString, pageConsumer));
+                if (task.isLastOfSlice()) pageConsumer.onSliceComplete(task.getSliceEnd());
+            }
+            return;
+        }
+
+        List<Future<?>> futures = new ArrayList<>(tasks.size());
+        try {
+            int submitted = 0;
+            for (int i = 0; i < tasks.size(); i++) {
+
+                while (submitted < tasks.size() && submitted < i + maxConcurrentReads) {
+                    HistoryReadTask task = tasks.get(submitted++);
+                    futures.add(historyExecutor.submit(() -> {
+                        try {
+                            readHistory(task.getDetails(), task.getTagNames(),
+                                    csvPages(returnTimestamp, excludeNullValue, nullValueString, task::putPage));
+                        } catch (Exception e) {
+                            task.setFailure(e);
+                        } finally {
+                            task.finish();
+                        }
+                    }));
+                }
+
+                HistoryReadTask task = tasks.get(i);
+                byte[] page;
+                while ((page = task.takePage()) != END_OF_PAGES) {
+                    pageConsumer.onPage(page);
+                }
+                if (task.getFailure() != null) {
+                    throw task.getFailure();
+                }
+                if (task.isLastOfSlice()) pageConsumer.onSliceComplete(task.getSliceEnd());
+            }
+        } finally {
+            // Interrupt the tasks still running after a failure, their continuation points are released on the way out
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    // Read history of a group of nodes, following the continuation points until all nodes are completed
+    private void readHistory(HistoryReadDetails details, List<String> tagNames,
+                             HistoryResponseConsumer responseConsumer) throws Exception {
+
+        List<String> names = new ArrayList<>(tagNames);
+        List<HistoryReadValueId> nodesToRead = new ArrayList<>();
+        tagNames.forEach((tagName) -> nodesToRead.add(new HistoryReadValueId(
+                NodeId.parse(tagName), null, QualifiedName.NULL_VALUE, ByteString.NULL_VALUE)));
+
+        List<HistoryReadValueId> pending = nodesToRead;
+        // The continuation points returned by the server which have not been followed yet
+        List<HistoryReadValueId> unreleased = Collections.emptyList();
+
+        try {
+            while (!pending.isEmpty()) {
+
+                HistoryReadResponse response = opcClient.historyRead(detailsFor(details, pending.size()),
+                        TimestampsToReturn.Both, false, pending).get();
+                HistoryReadResult[] results = response.getResults();
+
+                // The continuation points sent with the request have been used up. The new ones are tracked as soon
+                // as they are returned, so they are released if decoding or consuming the response fails
+                List<HistoryReadValueId> nextNodes = new ArrayList<>();
+                unreleased = nextNodes;
+                List<String> nextNames = new ArrayList<>();
+                List<DataValue[]> values = new ArrayList<>();
+
+                for (int i = 0; i < results.length; i++) {
+                    HistoryReadResult result = results[i];
+                    DataValue[] nodeValues = new DataValue[0];
+
+                    if (result.getStatusCode().isBad()) {
+                        getLogger().warn("History read failed for nodeId=" + names.get(i)
+                                + " (status=" + result.getStatusCode() + ")");
+                        values.add(nodeValues);
+                        continue;
+                    }
+
+                    if (result.getHistoryData() != null) {
+                        HistoryData historyData = result.getHistoryData().decode();
+                        if (historyData.getDataValues() != null) {
+                            nodeValues = historyData.getDataValues();
+                        }
+                    }
+                    values.add(nodeValues);
+
+                    // A continuation point means the server has more values for this node
+                    ByteString continuationPoint = result.getContinuationPoint();
+                    if (continuationPoint != null && !continuationPoint.isNull() && continuationPoint.length() > 0) {
+                        nextNodes.add(new HistoryReadValueId(pending.get(i).getNodeId(), null,
+                                QualifiedName.NULL_VALUE, continuationPoint));
+                        nextNames.add(names.get(i));
+                    }
+                }
+
+                responseConsumer.onResponse(names, values);
+
+                pending = nextNodes;
+                names = nextNames;
+            }
+        } catch (Exception e) {
+            releaseContinuationPoints(details, unreleased);
+            throw e;
+        }
+    }
+
+    // Turn every HistoryRead response into one page of CSV lines
+    private HistoryResponseConsumer csvPages(String returnTimestamp, boolean excludeNullValue,
+                                             String nullValueString, HistoryPageConsumer pageConsumer) {
+        return (tagNames, values) -> {
+            StringBuilder page = new StringBuilder();
+            for (int i = 0; i < tagNames.size(); i++) {
+                for (DataValue value : values.get(i)) {
+                    page.append(writeCsv(tagNames.get(i), returnTimestamp, value, excludeNullValue, nullValueString));
+                }
+            }
+            if (page.length() > 0) {
+                pageConsumer.onPage(page.toString().getBytes());
+            }
+        };
+    }
+
+    // Read the values a subscription has missed since the last source timestamp seen for each node, and put them
+    // into the queue as if they were notifications. Only nodes with a known last timestamp are read, and no further
+    // back than maxBackfillPeriod. Values not newer than the last timestamp are dropped, as they were delivered before.
+    private void backfill(Map<String, AtomicLong> lastSourceTimes, long maxBackfillPeriod,
+                          BlockingQueue<String> queue) {
+
+        long endTime = System.currentTimeMillis();
+        long earliestTime = endTime - maxBackfillPeriod;
+
+        List<String> tagNames = new ArrayList<>();
+        long startTime = endTime;
+        for (Map.Entry<String, AtomicLong> entry : lastSourceTimes.entrySet()) {
+            long lastSourceTime = entry.getValue().get();
+            if (lastSourceTime == Long.MIN_VALUE) continue;
+            tagNames.add(entry.getKey());
+            startTime = Math.min(startTime, Math.max(lastSourceTime, earliestTime));
+        }
+
+        if (tagNames.isEmpty() || startTime >= endTime) return;
+
+        getLogger().info("Backfilling " + tagNames.size() + " nodes from " + startTime + " to " + endTime);
+
+        AtomicLong valueCount = new AtomicLong();
+        HistoryResponseConsumer responseConsumer = (names, values) -> {
+            for (int i = 0; i < names.size(); i++) {
+                AtomicLong lastSourceTime = lastSourceTimes.get(names.get(i));
+                for (DataValue value : values.get(i)) {
+                    if (value.getSourceTime() == null) continue;
+                    long sourceTime = value.getSourceTime().getJavaTime();
+                    if (sourceTime <= lastSourceTime.get()) continue;
+                    lastSourceTime.set(sourceTime);
+                    valueCount.incrementAndGet();
+                    if (!queue.offer(writeCsv(names.get(i), "Both", value, false, ""))) {
+                        metrics.notificationsDropped.increment();
+                    }
+                }
+            }
+        };
+
+        try {
+            List<HistoryReadTask> tasks = createHistoryTasks(tagNames, startTime, endTime, BACKFILL_SLICE_INTERVAL,
+                    BACKFILL_MAX_NODES_PER_REQUEST, (sliceStart, sliceEnd, nodeCount) -> new ReadRawModifiedDetails(
+                            false,
+                            new DateTime(new Date(sliceStart)),
+                            new DateTime(new Date(sliceEnd)),
+                            uint(BACKFILL_MAX_VALUES_PER_NODE),
+                            false));
+            for (HistoryReadTask task : tasks) {
+                readHistory(task.getDetails(), task.getTagNames(), responseConsumer);
+                // The subscription isn't held up by a long gap. All values up to the end of the slice are complete
+                if (task.isLastOfSlice() && task.getSliceEnd() < endTime
+                        && valueCount.get() >= BACKFILL_MAX_VALUES) {
+                    getLogger().warn("Backfill stopped after " + valueCount.get() + " values, values between "
+                            + task.getSliceEnd() + " and " + endTime + " are missing");
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            getLogger().warn("Backfill failed, values between " + startTime + " and " + endTime
+                    + " may be missing: " + e.getMessage());
+        }
+    }
+
+    // ReadProcessedDetails need one aggregate type per node, so requests for fewer nodes than the first one of a
+    // group, like continuation requests, need details of their own. Other details fit any number of nodes
+    private static HistoryReadDetails detailsFor(HistoryReadDetails details, int nodeCount) {
+        if (!(details instanceof ReadProcessedDetails)) return details;
+        ReadProcessedDetails processed = (ReadProcessedDetails) details;
+        if (processed.getAggregateType().length == nodeCount) return details;
+
+        NodeId[] aggregateTypes = new NodeId[nodeCount];
+        Arrays.fill(aggregateTypes, processed.getAggregateType()[0]);
+        return new ReadProcessedDetails(processed.getStartTime(), processed.getEndTime(),
+                processed.getProcessingInterval(), aggregateTypes, processed.getAggregateConfiguration());
+    }
+
+    // Tell the server to free the resources of continuation points which will not be followed anymore
+    private void releaseContinuationPoints(HistoryReadDetails details, List<HistoryReadValueId> nodes) {
+        List<HistoryReadValueId> nodesToRelease = new ArrayList<>();
+        for (HistoryReadValueId node : nodes) {
+            if (node.getContinuationPoint() != null && !node.getContinuationPoint().isNull()) {
+                nodesToRelease.add(node);
+            }
+        }
+        if (nodesToRelease.isEmpty()) return;
+
+        try {
+            opcClient.historyRead(detailsFor(details, nodesToRelease.size()), TimestampsToReturn.Both, true,
+                    nodesToRelease).get(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            getLogger().debug("Releasing continuation points failed: " + e.getMessage());
+        }
+    }
+
+    private UaSubscription createSubscription(long minPublishInterval) throws Exception {
         return opcClient.getSubscriptionManager()
                 .createSubscription((double) minPublishInterval).get();
     }
 
 
-    private void createMonitorItems(UaSubscription uaSubscription, List<ReadValueId> readValueIds,
-                                    BlockingQueue<String> queue, DataChangeFilter df) throws Exception {
+    // The shared subscription of a publishing interval, which is added if it doesn't exist yet. It is created on the
+    // server by the next sync. Must be called while holding sharedLock
+    private SharedSubscription getSharedSubscription(long publishInterval) {
+        SharedSubscription shared = sharedSubscriptions.get(publishInterval);
+        if (shared == null) {
+            shared = new SharedSubscription(publishInterval);
+            sharedSubscriptions.put(publishInterval, shared);
+        }
+        return shared;
+    }
+
+    // Add a subscriber to the shared monitored items of the nodes. Items which don't exist yet are created on the
+    // server by the next sync. Must be called while holding sharedLock
+    private void acquireItems(String subscriptionUid, SubscriptionConfig config, Collection<NodeId> nodeIds) {
+
+        SharedSubscription shared = config.getShared();
+        if (shared.closed) {
+            // All nodes of the subscription were released before
+            shared = getSharedSubscription(shared.publishInterval);
+            config.setShared(shared);
+        }
 
-        // Create a list of MonitoredItemCreateRequest
-        ArrayList<MonitoredItemCreateRequest> micrList = new ArrayList<>();
-        readValueIds.forEach((readValueId) -> {
+        for (NodeId nodeId : nodeIds) {
+            String fullName = getFullName(nodeId);
+            ItemSubscriber subscriber = new ItemSubscriber(subscriptionUid, config.getQueue(),
+                    config.getLastSourceTimes() == null ? null : config.getLastSourceTimes().get(fullName));
+            config.getTagNames().add(fullName);
+
+            String key = itemKey(fullName, config.getDataChangeFilter());
+            SharedItem item = shared.items.get(key);
+            if (item == null) {
+                item = new SharedItem(key, fullName,
+                        new ReadValueId(nodeId, AttributeId.Value.uid(), null, QualifiedName.NULL_VALUE),
+                        config.getDataChangeFilter(), uint(clientHandles.getAndIncrement()));
+                shared.items.put(key, item);
+                shared.pendingCreates.add(item);
+                item.subscribers.add(subscriber);
+            } else {
+                item.subscribers.add(subscriber);
+                // The server only reports the current value when an item is created
+                DataValue lastValue = item.lastValue;
+                if (lastValue != null) {
+                    subscriber.offer(lastValue, writeCsv(fullName, "Both", lastValue, false, ""));
+                }
+            }
+        }
+    }
 
-            Long clientHandleLong = clientHandles.getAndIncrement();
-            UInteger clientHandle = uint(clientHandleLong);
+    // Remove a subscriber from the shared monitored items of the nodes. Items which have no subscribers left are
+    // deleted on the server by the next sync, and the subscription is closed with its last item. Must be called while
+    // holding sharedLock
+    private void releaseItems(String subscriptionUid, SubscriptionConfig config, Collection<String> fullNames) {
+
+        SharedSubscription shared = config.getShared();
+        for (String fullName : fullNames) {
+            config.getTagNames().remove(fullName);
+            SharedItem item = shared.items.get(itemKey(fullName, config.getDataChangeFilter()));
+            if (item == null) continue;
+
+            item.subscribers.removeIf((subscriber) -> subscriber.subscriptionUid.equals(subscriptionUid));
+            if (item.subscribers.isEmpty()) {
+                shared.items.remove(item.key);
+                shared.pendingCreates.remove(item);
+                // Items the server rejected, or which are still being created, don't exist yet
+                if (item.monitoredItem != null) shared.pendingDeletes.add(item.monitoredItem);
+            }
+        }
+
+        if (shared.items.isEmpty() && sharedSubscriptions.remove(shared.publishInterval, shared)) {
+            shared.closed = true;
+        }
+    }
+
+    // Send the changes of a shared subscription to the server: create the subscription and the items added, delete
+    // the items released, or delete the whole subscription once it is closed. The changes of all subscribers since
+    // the last sync are sent at once. Requests for the same subscription are sent one after another, but without
+    // holding sharedLock, so that a slow server only delays the subscribers of this subscription
+    private void syncShared(SharedSubscription shared) throws Exception {
+        synchronized (shared.syncLock) {
+            while (true) {
+                List<SharedItem> toCreate;
+                List<UaMonitoredItem> toDelete;
+                boolean closed;
+                synchronized (sharedLock) {
+                    closed = shared.closed;
+                    toCreate = new ArrayList<>(shared.pendingCreates);
+                    toDelete = new ArrayList<>(shared.pendingDeletes);
+                    shared.pendingCreates.clear();
+                    shared.pendingDeletes.clear();
+                }
 
+                if (closed) {
+                    // Deleting the subscription deletes its items
+                    UaSubscription subscription = shared.subscription;
+                    shared.subscription = null;
+                    if (subscription != null) {
+                        opcClient.getSubscriptionManager().deleteSubscription(subscription.getSubscriptionId())
+                                .get(4, TimeUnit.SECONDS);
+                    }
+                    return;
+                }
+
+                if (shared.subscription != null && toCreate.isEmpty() && toDelete.isEmpty()) return;
+
+                try {
+                    if (shared.subscription == null) {
+                        shared.subscription = createSubscription(shared.publishInterval);
+                    }
+                    if (!toDelete.isEmpty()) {
+                        deleteSharedItems(shared.subscription, toDelete);
+                        toDelete.clear();
+                    }
+                    if (!toCreate.isEmpty()) {
+                        createSharedItems(shared, toCreate);
+                    }
+                } catch (Exception e) {
+                    synchronized (sharedLock) {
+                        // Sent again by the next sync, unless they have been released in the meantime
+                        shared.pendingDeletes.addAll(toDelete);
+                        for (SharedItem item : toCreate) {
+                            if (shared.items.get(item.key) == item && item.monitoredItem == null) {
+                                shared.pendingCreates.add(item);
+                            }
+                        }
+                    }
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void deleteSharedItems(UaSubscription uaSubscription, List<UaMonitoredItem> items) throws Exception {
+        List<StatusCode> results = uaSubscription.deleteMonitoredItems(items).get();
+        for (int i = 0; i < results.size(); i++) {
+            if (results.get(i).isBad()) {
+                getLogger().warn("failed to delete item for nodeId=" + items.get(i).getReadValueId().getNodeId()
+                        + " (status=" + results.get(i) + ")");
+            }
+        }
+    }
+
+    // The nodes of the tags by their full names, without duplicates
+    private Map<String, NodeId> toNodeIds(List<String> tagNames) {
+        Map<String, NodeId> nodeIds = new LinkedHashMap<>();
+        for (String tagName : tagNames) {
+            NodeId nodeId = NodeId.parse(tagName);
+            nodeIds.putIfAbsent(getFullName(nodeId), nodeId);
+        }
+        return nodeIds;
+    }
+
+    // Items of the same node are shared by subscribers with the same data change trigger
+    private static String itemKey(String fullName, DataChangeFilter filter) {
+        return filter == null ? fullName : fullName + "|" + filter.getTrigger();
+    }
+
+    // Create the monitored items of shared items, with their client handles. Items released while they were created
+    // are deleted by the next sync
+    private void createSharedItems(SharedSubscription shared, List<SharedItem> sharedItems) throws Exception {
+
+        // Create a list of MonitoredItemCreateRequest
+        ArrayList<MonitoredItemCreateRequest> micrList = new ArrayList<>();
+        Map<UInteger, SharedItem> itemsByHandle = new HashMap<>();
+        for (SharedItem sharedItem : sharedItems) {
             MonitoringParameters parameters = new MonitoringParameters(
-                    clientHandle,
+                    sharedItem.clientHandle,
                     300.0,     // sampling interval
-                    ExtensionObject.encode(df),       // filter, null means use default
+                    ExtensionObject.encode(sharedItem.filter),       // filter, null means use default
                     uint(10),   // queue size
                     true        // discard oldest
             );
 
             micrList.add(new MonitoredItemCreateRequest(
-                    readValueId, MonitoringMode.Reporting, parameters));
+                    sharedItem.readValueId, MonitoringMode.Reporting, parameters));
+            itemsByHandle.put(sharedItem.clientHandle, sharedItem);
+        }
 
-        });
+        // This is the callback when the MonitoredItem is created. In this callback, we set the consumer for incoming
+        // values, which hands them to all subscribers of the item
+        BiConsumer<UaMonitoredItem, Integer> onItemCreated = (item, id) -> {
+            SharedItem sharedItem = itemsByHandle.get(item.getClientHandle());
+            item.setValueConsumer((it, value) -> {
+                getLogger().debug("subscription value received: item=" + it.getReadValueId().getNodeId()
+                        + " value=" + value.getValue());
+                sharedItem.onValue(value);
+            });
+        };
+
+        List<UaMonitoredItem> items = createInChunks(shared.subscription, micrList, onItemCreated);
+
+        synchronized (sharedLock) {
+            for (UaMonitoredItem item : items) {
+                SharedItem sharedItem = itemsByHandle.get(item.getClientHandle());
+                if (item.getStatusCode().isGood()) {
+                    if (shared.items.get(sharedItem.key) == sharedItem) {
+                        sharedItem.monitoredItem = item;
+                    } else {
+                        shared.pendingDeletes.add(item);
+                    }
+                    getLogger().debug("item created for nodeId=" + item.getReadValueId().getNodeId());
+                } else {
+                    // The item is kept, so that it is created again when the subscription is recreated
+                    sharedItem.monitoredItem = null;
+                    metrics.monitoredItemCreate.addErrors(1);
+                    getLogger().error("failed to create item for nodeId=" + item.getReadValueId().getNodeId()
+                            + " (status=" + item.getStatusCode() + ")");
+                }
+            }
+        }
+
+    }
 
-        // This is the callback when the MonitoredItem is created. In this callback, we set the consumer for incoming values
-        BiConsumer<UaMonitoredItem, Integer> onItemCreated =
-                (item, id) -> item.setValueConsumer((it, value) -> {
-                    getLogger().debug("subscription value received: item=" + it.getReadValueId().getNodeId()
-                            + " value=" + value.getValue());
-                    String valueLine = writeCsv(getFullName(it.getReadValueId().getNodeId()),
-                            "Both", value, false, "");
+    private void createEventItems(UaSubscription uaSubscription, List<ReadValueId> readValueIds,
+                                  List<UInteger> itemHandles, BlockingQueue<String> queue, EventFilter eventFilter,
+                                  int serverQueueSize) throws Exception {
 
-                    queue.offer(valueLine);
-                });
+        SimpleAttributeOperand[] selectClauses = eventFilter.getSelectClauses();
+        String[] fieldNames = new String[selectClauses.length];
+        for (int i = 0; i < selectClauses.length; i++) {
+            fieldNames[i] = EventFilterParser.getFieldName(selectClauses[i]);
+        }
 
-        List<UaMonitoredItem> items = uaSubscription.createMonitoredItems(
-                TimestampsToReturn.Both,
-                micrList,
-                onItemCreated
-        ).get();
+        ArrayList<MonitoredItemCreateRequest> micrList = new ArrayList<>();
+        for (int i = 0; i < readValueIds.size(); i++) {
+            ReadValueId readValueId = readValueIds.get(i);
+
+            MonitoringParameters parameters = new MonitoringParameters(
+                    itemHandles != null ? itemHandles.get(i) : uint(clientHandles.getAndIncrement()),
+                    0.0,        // sampling interval, events are reported as they occur
+                    ExtensionObject.encode(eventFilter),
+                    uint(serverQueueSize),
+                    true        // discard oldest
+            );
+
+            micrList.add(new MonitoredItemCreateRequest(
+                    readValueId, MonitoringMode.Reporting, parameters));
+        }
+
+        BiConsumer<UaMonitoredItem, Integer> onItemCreated = (item, id) -> {
+            String sourceNode = getFullName(item.getReadValueId().getNodeId());
+            AtomicLong dropped = new AtomicLong();
+
+            item.setEventConsumer((it, fields) -> {
+                metrics.eventsReceived.increment();
+                if (!queue.offer(writeEventJson(sourceNode, fieldNames, fields))) {
+                    metrics.eventsDropped.increment();
+                    // Only log once in a while, as this happens for every event during an event storm
+                    if (dropped.getAndIncrement() % 1000 == 0) {
+                        getLogger().warn("Event queue is full, " + dropped.get()
+                                + " events of " + sourceNode + " dropped so far");
+                    }
+                }
+            });
+        };
+
+        List<UaMonitoredItem> items = createInChunks(uaSubscription, micrList, onItemCreated);
 
         for (UaMonitoredItem item : items) {
             if (item.getStatusCode().isGood()) {
-                getLogger().debug("item created for nodeId=" + item.getReadValueId().getNodeId());
+                getLogger().debug("event item created for nodeId=" + item.getReadValueId().getNodeId());
             } else {
-                getLogger().error("failed to create item for nodeId=" + item.getReadValueId().getNodeId()
+                getLogger().error("failed to create event item for nodeId=" + item.getReadValueId().getNodeId()
                         + " (status=" + item.getStatusCode() + ")");
             }
         }
 
     }
 
-    // Put SubscriptionConfig to a map for later retrieval
+    // Create monitored items in requests of at most MAX_ITEMS_PER_CREATE items, of which MAX_CONCURRENT_CREATES are
+    // sent at a time, so that large subscriptions neither exceed the limits of the server nor wait for each request
+    private List<UaMonitoredItem> createInChunks(UaSubscription uaSubscription,
+                                                 List<MonitoredItemCreateRequest> requests,
+                                                 BiConsumer<UaMonitoredItem, Integer> onItemCreated) throws Exception {
+        List<UaMonitoredItem> items = new ArrayList<>(requests.size());
+        for (int first = 0; first < requests.size(); first += MAX_ITEMS_PER_CREATE * MAX_CONCURRENT_CREATES) {
+            List<CompletableFuture<List<UaMonitoredItem>>> futures = new ArrayList<>();
+            for (int from = first; from < requests.size() && futures.size() < MAX_CONCURRENT_CREATES;
+                 from += MAX_ITEMS_PER_CREATE) {
+                List<MonitoredItemCreateRequest> chunk = new ArrayList<>(
+                        requests.subList(from, Math.min(from + MAX_ITEMS_PER_CREATE, requests.size())));
+                long start = System.nanoTime();
+                futures.add(uaSubscription.createMonitoredItems(TimestampsToReturn.Both, chunk, onItemCreated)
+                        .whenComplete((result, e) -> metrics.monitoredItemCreate.record(start, e == null)));
+            }
+            for (CompletableFuture<List<UaMonitoredItem>> future : futures) {
+                items.addAll(future.get());
+            }
+        }
+        return items;
+    }
+
+    // Read the state of the server to find out if the connection is alive. Once it is lost, the checks are repeated
+    // with a jittered exponential backoff instead of the keep alive interval, and each check makes the client
+    // reconnect
+    private void checkConnection() {
+        long delay;
+        try {
+            opcClient.readValues(0, TimestampsToReturn.Neither,
+                    Collections.singletonList(Identifiers.Server_ServerStatus_State))
+                    .get(Math.max(keepAliveInterval, 1000), TimeUnit.MILLISECONDS);
+            if (keepAliveFailures >= keepAliveFailuresAllowed) {
+                getLogger().info("Connection to the OPC server restored after "
+                        + reconnectBackoff.getAttempts() + " attempts");
+                metrics.reconnects.increment();
+            }
+            keepAliveFailures = 0;
+            reconnectBackoff.reset();
+            delay = keepAliveInterval;
+        } catch (InterruptedException e) {
+            // The service is being disabled
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Exception e) {
+            keepAliveFailures++;
+            metrics.keepAliveFailures.increment();
+            if (keepAliveFailures < keepAliveFailuresAllowed) {
+                delay = keepAliveInterval;
+            } else {
+                if (keepAliveFailures == keepAliveFailuresAllowed) {
+                    getLogger().warn("Connection to the OPC server lost after " + keepAliveFailures
+                            + " failed keep alive checks: " + e.getMessage() + ". Reconnecting...");
+                    // The channel may be half-open, so it is closed to make the client open a new one. The session
+                    // is reactivated on the new channel, or if it has expired, its subscriptions are transferred
+                    // to a new session. Subscriptions which can't be transferred are recreated.
+                    opcClient.getStackClient().disconnect();
+                }
+                delay = reconnectBackoff.nextDelay();
+            }
+        }
+
+        try {
+            connectionExecutor.schedule(this::checkConnection, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // The service has been disabled
+        }
+    }
+
+    // Put SubscriptionConfig of an event subscription to a map for later retrieval
     private String putSubToMap(UaSubscription sub, BlockingQueue<String> queue) {
-        String subUid = sub.getSubscriptionId().toString();
-        subscriptionMap.put(subUid, new SubscriptionConfig(sub, queue));
+        String subUid = String.valueOf(subscriberIds.incrementAndGet());
+        subscriptionMap.put(subUid, new SubscriptionConfig(sub, queue, null, null, 0));
+        subscriberUids.put(sub.getSubscriptionId(), subUid);
         return subUid;
     }
 
 
-    private String writeCsv(String tagName, String returnTimestamp, DataValue value,
-                            boolean excludeNullValue, String nullValueString) {
+    // Package-private for the benchmarks
+    String writeCsv(String tagName, String returnTimestamp, DataValue value,
+                    boolean excludeNullValue, String nullValueString) {
 
         String sValue = nullValueString;
 
@@ -712,24 +2192,226 @@ public class StandardOPCUAService extends AbstractControllerService implements O
         return valueLine.toString();
     }
 
+    private String writeEventJson(String sourceNode, String[] fieldNames, Variant[] fields) {
+        StringBuilder sb = new StringBuilder("{\"SourceNode\":");
+        appendJsonValue(sb, sourceNode);
+        for (int i = 0; i < fieldNames.length && i < fields.length; i++) {
+            sb.append(',');
+            appendJsonValue(sb, fieldNames[i]);
+            sb.append(':');
+            appendJsonValue(sb, fields[i] == null ? null : fields[i].getValue());
+        }
+        return sb.append('}').toString();
+    }
+
+    private void appendJsonValue(StringBuilder sb, Object value) {
+        if (value == null) {
+            sb.append("null");
+        } else if (value instanceof Boolean) {
+            sb.append(value);
+        } else if (value instanceof Number) {
+            if ((value instanceof Double && !Double.isFinite((Double) value))
+                    || (value instanceof Float && !Float.isFinite((Float) value))) {
+                sb.append("null");
+            } else {
+                sb.append(value);
+            }
+        } else if (value instanceof DateTime) {
+            sb.append(((DateTime) value).getJavaTime());
+        } else if (value instanceof StatusCode) {
+            sb.append(((StatusCode) value).getValue());
+        } else if (value instanceof LocalizedText) {
+            appendJsonValue(sb, ((LocalizedText) value).getText());
+        } else if (value instanceof QualifiedName) {
+            appendJsonValue(sb, ((QualifiedName) value).getName());
+        } else if (value instanceof NodeId) {
+            appendJsonValue(sb, ((NodeId) value).toParseableString());
+        } else if (value instanceof ByteString) {
+            // EventIds are opaque byte strings, they are written in hex
+            StringBuilder hex = new StringBuilder();
+            byte[] bytes = ((ByteString) value).bytesOrEmpty();
+            for (byte b : bytes) hex.append(String.format("%02x", b));
+            appendJsonValue(sb, hex.toString());
+        } else if (value.getClass().isArray()) {
+            sb.append('[');
+            for (int i = 0; i < Array.getLength(value); i++) {
+                if (i > 0) sb.append(',');
+                appendJsonValue(sb, Array.get(value, i));
+            }
+            sb.append(']');
+        } else {
+            String str = value.toString();
+            sb.append('"');
+            for (int i = 0; i < str.length(); i++) {
+                char c = str.charAt(i);
+                switch (c) {
+                    case '"':
+                        sb.append("\\\"");
+                        break;
+                    case '\\':
+                        sb.append("\\\\");
+                        break;
+                    case '\n':
+                        sb.append("\\n");
+                        break;
+                    case '\r':
+                        sb.append("\\r");
+                        break;
+                    case '\t':
+                        sb.append("\\t");
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            sb.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            sb.append(c);
+                        }
+                }
+            }
+            sb.append('"');
+        }
+    }
+
     // Special class as container to wrap subscription with the queue connected to a SubscribeOPCUANodes processor
     private static class SubscriptionConfig {
 
-        private UaSubscription subscription;
+        // The subscription of an event subscriber, which isn't shared
+        private volatile UaSubscription subscription;
+        // The shared subscription of a data change subscriber, and the nodes it monitors
+        private volatile SharedSubscription shared;
+        private final Set<String> tagNames = new HashSet<>();
         private BlockingQueue<String> queue;
+        private DataChangeFilter dataChangeFilter;
+        private Map<String, AtomicLong> lastSourceTimes;
+        private long maxBackfillPeriod;
 
-        SubscriptionConfig(UaSubscription subscription, BlockingQueue<String> queue) {
+        SubscriptionConfig(UaSubscription subscription, BlockingQueue<String> queue, DataChangeFilter dataChangeFilter,
+                           Map<String, AtomicLong> lastSourceTimes, long maxBackfillPeriod) {
             this.subscription = subscription;
             this.queue = queue;
+            this.dataChangeFilter = dataChangeFilter;
+            this.lastSourceTimes = lastSourceTimes;
+            this.maxBackfillPeriod = maxBackfillPeriod;
         }
 
         UaSubscription getSubscription() {
             return subscription;
         }
 
+        // Replaces the subscription after it has been recreated on the server
+        void setSubscription(UaSubscription subscription) {
+            this.subscription = subscription;
+        }
+
+        // Null for event subscriptions
+        SharedSubscription getShared() {
+            return shared;
+        }
+
+        void setShared(SharedSubscription shared) {
+            this.shared = shared;
+        }
+
+        // Only accessed while holding sharedLock
+        Set<String> getTagNames() {
+            return tagNames;
+        }
+
         BlockingQueue<String> getQueue() {
             return queue;
         }
+
+        // Null if the default filter is used
+        DataChangeFilter getDataChangeFilter() {
+            return dataChangeFilter;
+        }
+
+        // Null if gaps are not filled for this subscription
+        Map<String, AtomicLong> getLastSourceTimes() {
+            return lastSourceTimes;
+        }
+
+        long getMaxBackfillPeriod() {
+            return maxBackfillPeriod;
+        }
+    }
+
+    // Receives the values of a HistoryRead response, values.get(i) holds the values of tagNames.get(i)
+    @FunctionalInterface
+    private interface HistoryResponseConsumer {
+        void onResponse(List<String> tagNames, List<DataValue[]> values) throws Exception;
+    }
+
+    // Creates the HistoryReadDetails for a group of nodes within a time slice
+    @FunctionalInterface
+    private interface HistoryDetailsFactory {
+        HistoryReadDetails create(long sliceStart, long sliceEnd, int nodeCount);
+    }
+
+    // A group of nodes within a time slice, read by a single chain of HistoryRead requests
+    private static class HistoryReadTask {
+
+        private final HistoryReadDetails details;
+        private final List<String> tagNames;
+        private final long sliceEnd;
+        private final boolean lastOfSlice;
+        private final BlockingQueue<byte[]> pages = new LinkedBlockingQueue<>(HISTORY_PAGES_PER_TASK);
+        private volatile Exception failure;
+
+        HistoryReadTask(HistoryReadDetails details, List<String> tagNames, long sliceEnd, boolean lastOfSlice) {
+            this.details = details;
+            this.tagNames = tagNames;
+            this.sliceEnd = sliceEnd;
+            this.lastOfSlice = lastOfSlice;
+        }
+
+        HistoryReadDetails getDetails() {
+            return details;
+        }
+
+        List<String> getTagNames() {
+            return tagNames;
+        }
+
+        long getSliceEnd() {
+            return sliceEnd;
+        }
+
+        boolean isLastOfSlice() {
+            return lastOfSlice;
+        }
+
+        Exception getFailure() {
+            return failure;
+        }
+
+        void setFailure(Exception failure) {
+            this.failure = failure;
+        }
+
+        // Blocks while the consumer is behind, which throttles the requests of this task
+        void putPage(byte[] page) throws ProcessException {
+            try {
+                pages.put(page);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ProcessException(e);
+            }
+        }
+
+        // Marks the end of this task for the consumer, also after a failure
+        void finish() {
+            try {
+                pages.put(END_OF_PAGES);
+            } catch (InterruptedException e) {
+                // Only happens when the consumer has given up already
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        byte[] takePage() throws InterruptedException {
+            return pages.take();
+        }
     }
 
     // Custom SubscriptionListener to handle recreating subscription when transfer fails
@@ -737,37 +2419,317 @@ public class StandardOPCUAService extends AbstractControllerService implements O
 
         @Override
         public void onPublishFailure(UaException exception) {
+            metrics.publishFailures.increment();
             getLogger().warn("Subscription publish failure: " + exception.getMessage() + ", status code: " + exception.getStatusCode());
         }
 
+        @Override
+        public void onNotificationDataLost(UaSubscription subscription) {
+            // The client has already called Republish for the missing sequence numbers, but the server no longer
+            // had them in its retransmission queue
+            metrics.notificationsLost.increment();
+            recreate(subscription, "Notifications of subscription " + subscription.getSubscriptionId()
+                    + " could not be republished");
+        }
+
         @Override
         public void onSubscriptionTransferFailed(UaSubscription subscription, StatusCode statusCode) {
-            getLogger().warn("Subscription transfer failed: "+ statusCode + ". Trying to recreate subscription...");
+            recreate(subscription, "Subscription transfer failed: " + statusCode);
+        }
 
-            // Get config from subscription object
-            long minPublishInterval = (long) subscription.getRequestedPublishingInterval();
-            BlockingQueue<String> queue = subscriptionMap.get(subscription.getSubscriptionId().toString())
-                    .getQueue();
-            List<ReadValueId> readValueIds = new ArrayList<>();
-            DataChangeFilter df = null;
-            for(UaMonitoredItem mi : subscription.getMonitoredItems()) {
-                if(df == null) df = mi.getMonitoringFilter().decode();
-                readValueIds.add(mi.getReadValueId());
+        private void recreate(UaSubscription subscription, String reason) {
+            for (SharedSubscription shared : sharedSubscriptions.values()) {
+                UaSubscription sharedSubscription = shared.subscription;
+                if (sharedSubscription != null
+                        && sharedSubscription.getSubscriptionId().equals(subscription.getSubscriptionId())) {
+                    getLogger().warn(reason + ". Trying to recreate the subscription shared by all subscribers with "
+                            + "a publishing interval of " + shared.publishInterval + " ms...");
+                    metrics.subscriptionRecreations.increment();
+                    try {
+                        recreateExecutor.execute(new RecreateSharedTask(shared));
+                    } catch (RejectedExecutionException e) {
+                        // The service has been disabled
+                    }
+                    return;
+                }
+            }
+
+            String subscriptionUid = subscriberUids.remove(subscription.getSubscriptionId());
+            if (subscriptionUid == null || !subscriptionMap.containsKey(subscriptionUid)) {
+                // Unsubscribed in the meantime
+                return;
+            }
+
+            getLogger().warn(reason + ". Trying to recreate subscription " + subscriptionUid + "...");
+            metrics.subscriptionRecreations.increment();
+
+            // Requests must not block the threads of the client, which deliver their responses
+            try {
+                recreateExecutor.execute(new RecreateTask(subscriptionUid, subscription));
+            } catch (RejectedExecutionException e) {
+                // The service has been disabled
+            }
+        }
+    }
+
+    // Recreates an event subscription with the monitored items and client handles of a subscription which could not
+    // be transferred or lost notifications, under the same uid. A failed attempt is repeated with a jittered
+    // exponential backoff.
+    private class RecreateTask implements Runnable {
+
+        private final String subscriptionUid;
+        private final long minPublishInterval;
+        private final List<ReadValueId> eventReadValueIds = new ArrayList<>();
+        private final List<UInteger> eventItemHandles = new ArrayList<>();
+        private EventFilter eventFilter;
+        private int eventQueueSize;
+        private final Backoff backoff = new Backoff(INITIAL_RECONNECT_DELAY, maxReconnectDelay);
+        private UaSubscription oldSubscription;
+
+        RecreateTask(String subscriptionUid, UaSubscription subscription) {
+            this.subscriptionUid = subscriptionUid;
+            this.minPublishInterval = (long) subscription.getRequestedPublishingInterval();
+            this.oldSubscription = subscription;
+
+            for (UaMonitoredItem mi : subscription.getMonitoredItems()) {
+                if (eventFilter == null) eventFilter = mi.getMonitoringFilter().decode();
+                eventQueueSize = Math.max(eventQueueSize, mi.getRevisedQueueSize().intValue());
+                eventReadValueIds.add(mi.getReadValueId());
+                eventItemHandles.add(mi.getClientHandle());
+            }
+        }
+
+        @Override
+        public void run() {
+            SubscriptionConfig config = subscriptionMap.get(subscriptionUid);
+            if (config == null) {
+                // Unsubscribed while waiting for the next attempt
+                return;
+            }
+
+            if (oldSubscription != null) {
+                // Clean up the previous subscription first
+                try {
+                    opcClient.getSubscriptionManager().deleteSubscription(oldSubscription.getSubscriptionId())
+                            .get(4, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    getLogger().debug("Deleting the previous subscription failed: " + e.getMessage());
+                }
+                oldSubscription = null;
+            }
+
+            UaSubscription newSub = null;
+            try {
+                newSub = createSubscription(minPublishInterval);
+                if (!eventReadValueIds.isEmpty()) {
+                    createEventItems(newSub, eventReadValueIds, eventItemHandles, config.getQueue(), eventFilter,
+                            eventQueueSize);
+                }
+
+                config.setSubscription(newSub);
+                subscriberUids.put(newSub.getSubscriptionId(), subscriptionUid);
+                if (!subscriptionMap.containsKey(subscriptionUid)) {
+                    // Unsubscribed while recreating
+                    subscriberUids.remove(newSub.getSubscriptionId());
+                    opcClient.getSubscriptionManager().deleteSubscription(newSub.getSubscriptionId());
+                    return;
+                }
+                getLogger().info("Subscription " + subscriptionUid + " recreated with "
+                        + eventReadValueIds.size() + " monitored items");
+
+            } catch (Exception e) {
+                metrics.subscriptionRecreationFailures.increment();
+                if (newSub != null) {
+                    // Items which were created are created again by the next attempt
+                    opcClient.getSubscriptionManager().deleteSubscription(newSub.getSubscriptionId());
+                }
+
+                long delay = backoff.nextDelay();
+                getLogger().error("Recreating subscription " + subscriptionUid + " failed: " + e.getMessage()
+                        + ". Retrying in " + delay + " ms");
+                try {
+                    recreateExecutor.schedule(this, delay, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException ree) {
+                    // The service has been disabled
+                }
             }
+        }
+    }
+
+
+    // Recreates a shared subscription with all its items and their client handles. The new monitored items report
+    // their current values, and the values in between are backfilled from the history for the subscribers which asked
+    // for it. A failed attempt is repeated with a jittered exponential backoff. sharedLock is only held to change the
+    // shared state, so subscribers of other subscriptions aren't blocked by the requests and the backfill.
+    private class RecreateSharedTask implements Runnable {
 
-            // Try to clean up the previous subscription first
-            unsubscribe(subscription.getSubscriptionId().toString());
+        private final SharedSubscription shared;
+        private final Backoff backoff = new Backoff(INITIAL_RECONNECT_DELAY, maxReconnectDelay);
+        private UaSubscription oldSubscription;
+
+        RecreateSharedTask(SharedSubscription shared) {
+            this.shared = shared;
+            this.oldSubscription = shared.subscription;
+        }
+
+        @Override
+        public void run() {
+            synchronized (sharedLock) {
+                if (shared.closed) {
+                    // All subscribers left while waiting for the next attempt
+                    return;
+                }
+            }
 
-            // Recreate subscription with the previous MonitoredItems
             try {
-                UaSubscription newSub = createSubscription(minPublishInterval);
-                createMonitorItems(newSub, readValueIds, queue, df);
-                putSubToMap(newSub, queue);
+                // Values changed while the subscription was gone are read from history first
+                for (SubscriptionConfig config : new ArrayList<>(subscriptionMap.values())) {
+                    if (config.getShared() == shared && config.getLastSourceTimes() != null) {
+                        backfill(config.getLastSourceTimes(), config.getMaxBackfillPeriod(), config.getQueue());
+                    }
+                }
+
+                synchronized (shared.syncLock) {
+                    // The subscription may have been recreated by a sync of a subscriber in the meantime
+                    if (oldSubscription != null && shared.subscription == oldSubscription) {
+                        // Clean up the previous subscription first
+                        try {
+                            opcClient.getSubscriptionManager()
+                                    .deleteSubscription(oldSubscription.getSubscriptionId()).get(4, TimeUnit.SECONDS);
+                        } catch (Exception e) {
+                            getLogger().debug("Deleting the previous subscription failed: " + e.getMessage());
+                        }
+                        shared.subscription = null;
+
+                        // All items are created again by the sync
+                        synchronized (sharedLock) {
+                            shared.pendingDeletes.clear();
+                            for (SharedItem item : shared.items.values()) {
+                                item.monitoredItem = null;
+                                shared.pendingCreates.add(item);
+                            }
+                        }
+                    }
+                    oldSubscription = null;
+
+                    syncShared(shared);
+                }
+                getLogger().info("Subscription with a publishing interval of " + shared.publishInterval
+                        + " ms recreated");
+
             } catch (Exception e) {
-                e.printStackTrace();
-                getLogger().error("Recreating subscription failed!");
+                metrics.subscriptionRecreationFailures.increment();
+
+                long delay = backoff.nextDelay();
+                getLogger().error("Recreating the subscription with a publishing interval of "
+                        + shared.publishInterval + " ms failed: " + e.getMessage()
+                        + ". Retrying in " + delay + " ms");
+                try {
+                    recreateExecutor.schedule(this, delay, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException ree) {
+                    // The service has been disabled
+                }
             }
         }
     }
 
+    // A value and the time it was received at, from System.nanoTime()
+    private static class CachedValue {
+
+        private final DataValue value;
+        private final long received = System.nanoTime();
+
+        CachedValue(DataValue value) {
+            this.value = value;
+        }
+    }
+
+    // A subscription on the server, whose monitored items are shared by the subscribers with the same publishing
+    // interval
+    private static class SharedSubscription {
+
+        private final long publishInterval;
+        // Null until it is created on the server, and while it is recreated
+        private volatile UaSubscription subscription;
+        // Held while sending the changes to the server, so that they are sent in order
+        private final Object syncLock = new Object();
+
+        // The fields below are only accessed while holding sharedLock
+        // Items by node and data change trigger
+        private final Map<String, SharedItem> items = new HashMap<>();
+        // Items added since the last sync, which are not created on the server yet
+        private final Set<SharedItem> pendingCreates = new LinkedHashSet<>();
+        // Monitored items without subscribers, which are not deleted on the server yet
+        private final List<UaMonitoredItem> pendingDeletes = new ArrayList<>();
+        // Set when the last item is released, the subscription is then deleted by the next sync
+        private boolean closed;
+
+        SharedSubscription(long publishInterval) {
+            this.publishInterval = publishInterval;
+        }
+    }
+
+    // A monitored item, whose values are offered to the queues of all its subscribers. It is deleted when the last
+    // subscriber leaves
+    private class SharedItem {
+
+        private final String key;
+        private final String fullName;
+        private final ReadValueId readValueId;
+        private final DataChangeFilter filter;
+        private final UInteger clientHandle;
+        // Null until the item is created, or if the server rejected it
+        private volatile UaMonitoredItem monitoredItem;
+        // The last value, which is offered to subscribers joining later
+        private volatile DataValue lastValue;
+        private final List<ItemSubscriber> subscribers = new CopyOnWriteArrayList<>();
+
+        SharedItem(String key, String fullName, ReadValueId readValueId, DataChangeFilter filter,
+                   UInteger clientHandle) {
+            this.key = key;
+            this.fullName = fullName;
+            this.readValueId = readValueId;
+            this.filter = filter;
+            this.clientHandle = clientHandle;
+        }
+
+        void onValue(DataValue value) {
+            lastValue = value;
+            valueCache.put(fullName, new CachedValue(value));
+            metrics.notificationsReceived.increment();
+
+            // The line is written once for all subscribers
+            String valueLine = writeCsv(fullName, "Both", value, false, "");
+            for (ItemSubscriber subscriber : subscribers) {
+                subscriber.offer(value, valueLine);
+            }
+        }
+    }
+
+    private class ItemSubscriber {
+
+        private final String subscriptionUid;
+        private final BlockingQueue<String> queue;
+        // Null if gaps are not filled for the subscriber
+        private final AtomicLong lastSourceTime;
+
+        ItemSubscriber(String subscriptionUid, BlockingQueue<String> queue, AtomicLong lastSourceTime) {
+            this.subscriptionUid = subscriptionUid;
+            this.queue = queue;
+            this.lastSourceTime = lastSourceTime;
+        }
+
+        void offer(DataValue value, String valueLine) {
+            if (lastSourceTime != null && value.getSourceTime() != null) {
+                // Drop values which have been delivered by the backfill already
+                long sourceTime = value.getSourceTime().getJavaTime();
+                if (sourceTime <= lastSourceTime.get()) return;
+                lastSourceTime.set(sourceTime);
+            }
+
+            if (!queue.offer(valueLine)) {
+                metrics.notificationsDropped.increment();
+            }
+        }
+    }
 }
@@ -0,0 +1,347 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.fraunhofer.fit.opcua;
+
+import org.eclipse.milo.opcua.sdk.core.AccessLevel;
+import org.eclipse.milo.opcua.sdk.core.Reference;
+import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.sdk.server.api.AccessContext;
+import org.eclipse.milo.opcua.sdk.server.api.DataItem;
+import org.eclipse.milo.opcua.sdk.server.api.MonitoredItem;
+import org.eclipse.milo.opcua.sdk.server.api.Namespace;
+import org.eclipse.milo.opcua.sdk.server.api.config.OpcUaServerConfig;
+import org.eclipse.milo.opcua.sdk.server.identity.AnonymousIdentityValidator;
+import org.eclipse.milo.opcua.sdk.server.nodes.AttributeContext;
+import org.eclipse.milo.opcua.sdk.server.nodes.ServerNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaFolderNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.sdk.server.util.SubscriptionModel;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.application.DefaultCertificateManager;
+import org.eclipse.milo.opcua.stack.core.application.DefaultCertificateValidator;
+import org.eclipse.milo.opcua.stack.core.security.SecurityPolicy;
+import org.eclipse.milo.opcua.stack.core.types.builtin.*;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.NodeClass;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.BuildInfo;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
+import org.eclipse.milo.opcua.stack.core.types.structured.WriteValue;
+import org.eclipse.milo.opcua.stack.core.util.FutureUtils;
+import org.eclipse.milo.opcua.stack.core.util.SelfSignedCertificateBuilder;
+import org.eclipse.milo.opcua.stack.core.util.SelfSignedCertificateGenerator;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
+
+/**
+ * An OPC UA server running in the test JVM, so that tests and load tests don't need a PLC or network.
+ *
+ * The variables are doubles, or arrays of doubles if an array size is set, and are spread over a tree of folders
+ * of the given depth below the folder "Load" of the Objects folder. Every change period, all variables get a new
+ * value with the current time as source and server timestamp. Only security policy None and anonymous access are
+ * offered.
+ */
+public class EmbeddedOpcUaServer {
+
+    public static final String NAMESPACE_URI = "urn:fraunhofer:fit:opcua:test";
+    public static final String ROOT_FOLDER = "Load";
+
+    // Each folder which isn't a leaf has this many subfolders
+    private static final int FOLDERS_PER_LEVEL = 4;
+
+    private final int variableCount;
+    private final int depth;
+    private final int arraySize;
+    private final long changePeriod;
+    private final int port;
+
+    private OpcUaServer server;
+    private LoadNamespace namespace;
+    private ScheduledExecutorService changeExecutor;
+    private final AtomicLong changeCount = new AtomicLong();
+    private final AtomicLong monitoredItemCount = new AtomicLong();
+
+    /**
+     * @param variableCount The number of variables
+     * @param depth The number of folder levels below the root folder, 0 puts all variables into it
+     * @param arraySize The length of the array values, 0 for scalar values
+     * @param changePeriod The period in milliseconds all variables change with, 0 for constant values
+     */
+    public EmbeddedOpcUaServer(int variableCount, int depth, int arraySize, long changePeriod) throws IOException {
+        this.variableCount = variableCount;
+        this.depth = depth;
+        this.arraySize = arraySize;
+        this.changePeriod = changePeriod;
+
+        try (ServerSocket socket = new ServerSocket(0)) {
+            this.port = socket.getLocalPort();
+        }
+    }
+
+    public void start() throws Exception {
+        KeyPair keyPair = SelfSignedCertificateGenerator.generateRsaKeyPair(2048);
+        X509Certificate certificate = new SelfSignedCertificateBuilder(keyPair)
+                .setCommonName("Embedded OPC UA Test Server")
+                .setApplicationUri(NAMESPACE_URI)
+                .addDnsName("localhost")
+                .addIpAddress("127.0.0.1")
+                .build();
+
+        OpcUaServerConfig config = OpcUaServerConfig.builder()
+                .setApplicationUri(NAMESPACE_URI)
+                .setApplicationName(LocalizedText.english("Embedded OPC UA Test Server"))
+                .setProductUri(NAMESPACE_URI)
+                .setServerName("test")
+                .setBindAddresses(Collections.singletonList("localhost"))
+                .setBindPort(port)
+                .setBuildInfo(new BuildInfo(NAMESPACE_URI, "Fraunhofer FIT", "Embedded OPC UA Test Server",
+                        "1.0", "1", DateTime.now()))
+                .setCertificateManager(new DefaultCertificateManager(keyPair, certificate))
+                .setCertificateValidator(new DefaultCertificateValidator(
+                        Files.createTempDirectory("opcua-test-pki").toFile()))
+                .setIdentityValidator(AnonymousIdentityValidator.INSTANCE)
+                .setSecurityPolicies(EnumSet.of(SecurityPolicy.None))
+                .setUserTokenPolicies(Collections.singletonList(OpcUaServerConfig.USER_TOKEN_POLICY_ANONYMOUS))
+                .build();
+
+        server = new OpcUaServer(config);
+        namespace = server.getNamespaceManager().registerAndAdd(NAMESPACE_URI,
+                index -> new LoadNamespace(server, index));
+        server.startup().get();
+
+        if (changePeriod > 0) {
+            changeExecutor = Executors.newSingleThreadScheduledExecutor();
+            changeExecutor.scheduleAtFixedRate(this::changeValues, changePeriod, changePeriod, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void stop() throws Exception {
+        if (changeExecutor != null) {
+            changeExecutor.shutdownNow();
+        }
+        if (server != null) {
+            server.shutdown().get();
+        }
+    }
+
+    public String getEndpoint() {
+        return "opc.tcp://localhost:" + port + "/test";
+    }
+
+    /**
+     * @return The node IDs of all variables, in the form "ns=2;s=Load/0/1/Variable17"
+     */
+    public List<String> getVariableNodeIds() {
+        List<String> nodeIds = new ArrayList<>(variableCount);
+        for (UaVariableNode node : namespace.variables) {
+            NodeId nodeId = node.getNodeId();
+            nodeIds.add("ns=" + nodeId.getNamespaceIndex() + ";s=" + nodeId.getIdentifier());
+        }
+        return nodeIds;
+    }
+
+    public String getRootFolderNodeId() {
+        return "ns=" + namespace.getNamespaceIndex() + ";s=" + ROOT_FOLDER;
+    }
+
+    /**
+     * @return The number of value changes of all variables so far
+     */
+    public long getChangeCount() {
+        return changeCount.get();
+    }
+
+    /**
+     * @return The number of monitored items of all clients
+     */
+    public long getMonitoredItemCount() {
+        return monitoredItemCount.get();
+    }
+
+    private void changeValues() {
+        DateTime now = DateTime.now();
+        long tick = now.getJavaTime() / changePeriod;
+        for (int i = 0; i < namespace.variables.size(); i++) {
+            namespace.variables.get(i).setValue(new DataValue(value(i, tick), StatusCode.GOOD, now, now));
+        }
+        changeCount.addAndGet(namespace.variables.size());
+    }
+
+    // A value which differs from the value of the last tick
+    private Variant value(int i, long tick) {
+        double value = i + (tick % 1000) * 0.001;
+        if (arraySize == 0) {
+            return new Variant(value);
+        }
+        Double[] array = new Double[arraySize];
+        for (int j = 0; j < arraySize; j++) {
+            array[j] = value + j;
+        }
+        return new Variant(array);
+    }
+
+    private class LoadNamespace implements Namespace {
+
+        private final OpcUaServer server;
+        private final UShort namespaceIndex;
+        private final SubscriptionModel subscriptionModel;
+        private final List<UaVariableNode> variables = new ArrayList<>();
+
+        LoadNamespace(OpcUaServer server, UShort namespaceIndex) {
+            this.server = server;
+            this.namespaceIndex = namespaceIndex;
+            this.subscriptionModel = new SubscriptionModel(server, this);
+
+            UaFolderNode root = addFolder(null, ROOT_FOLDER, ROOT_FOLDER);
+            server.getUaNamespace().addReference(Identifiers.ObjectsFolder, Identifiers.Organizes, true,
+                    root.getNodeId().expanded(), NodeClass.Object);
+
+            // Folders of the deepest level, which hold the variables
+            List<UaFolderNode> leaves = Collections.singletonList(root);
+            for (int level = 0; level < depth; level++) {
+                List<UaFolderNode> children = new ArrayList<>();
+                for (UaFolderNode parent : leaves) {
+                    for (int f = 0; f < FOLDERS_PER_LEVEL; f++) {
+                        children.add(addFolder(parent, parent.getNodeId().getIdentifier() + "/" + f,
+                                String.valueOf(f)));
+                    }
+                }
+                leaves = children;
+            }
+
+            DateTime now = DateTime.now();
+            for (int i = 0; i < variableCount; i++) {
+                UaFolderNode folder = leaves.get(i % leaves.size());
+                String name = "Variable" + i;
+                UaVariableNode node = new UaVariableNode.UaVariableNodeBuilder(server.getNodeMap())
+                        .setNodeId(new NodeId(namespaceIndex, folder.getNodeId().getIdentifier() + "/" + name))
+                        .setAccessLevel(ubyte(AccessLevel.getMask(AccessLevel.READ_WRITE)))
+                        .setUserAccessLevel(ubyte(AccessLevel.getMask(AccessLevel.READ_WRITE)))
+                        .setBrowseName(new QualifiedName(namespaceIndex, name))
+                        .setDisplayName(LocalizedText.english(name))
+                        .setDataType(Identifiers.Double)
+                        .setTypeDefinition(Identifiers.BaseDataVariableType)
+                        .build();
+                node.setValue(new DataValue(value(i, 0), StatusCode.GOOD, now, now));
+                server.getNodeMap().addNode(node);
+                folder.addOrganizes(node);
+                variables.add(node);
+            }
+        }
+
+        private UaFolderNode addFolder(UaFolderNode parent, String id, String name) {
+            UaFolderNode folder = new UaFolderNode(server.getNodeMap(), new NodeId(namespaceIndex, id),
+                    new QualifiedName(namespaceIndex, name), LocalizedText.english(name));
+            server.getNodeMap().addNode(folder);
+            if (parent != null) {
+                parent.addOrganizes(folder);
+            }
+            return folder;
+        }
+
+        @Override
+        public UShort getNamespaceIndex() {
+            return namespaceIndex;
+        }
+
+        @Override
+        public String getNamespaceUri() {
+            return NAMESPACE_URI;
+        }
+
+        @Override
+        public CompletableFuture<List<Reference>> browse(AccessContext context, NodeId nodeId) {
+            ServerNode node = server.getNodeMap().get(nodeId);
+            if (node == null) {
+                return FutureUtils.failedFuture(new UaException(StatusCodes.Bad_NodeIdUnknown));
+            }
+            return CompletableFuture.completedFuture(node.getReferences());
+        }
+
+        @Override
+        public void read(ReadContext context, Double maxAge, TimestampsToReturn timestamps,
+                         List<ReadValueId> readValueIds) {
+            List<DataValue> results = new ArrayList<>(readValueIds.size());
+            for (ReadValueId readValueId : readValueIds) {
+                ServerNode node = server.getNodeMap().get(readValueId.getNodeId());
+                if (node == null) {
+                    results.add(new DataValue(StatusCodes.Bad_NodeIdUnknown));
+                } else {
+                    results.add(node.readAttribute(new AttributeContext(context), readValueId.getAttributeId(),
+                            timestamps, readValueId.getIndexRange(), readValueId.getDataEncoding()));
+                }
+            }
+            context.complete(results);
+        }
+
+        @Override
+        public void write(WriteContext context, List<WriteValue> writeValues) {
+            List<StatusCode> results = new ArrayList<>(writeValues.size());
+            for (WriteValue writeValue : writeValues) {
+                ServerNode node = server.getNodeMap().get(writeValue.getNodeId());
+                if (node == null) {
+                    results.add(new StatusCode(StatusCodes.Bad_NodeIdUnknown));
+                    continue;
+                }
+                try {
+                    node.writeAttribute(new AttributeContext(context), writeValue.getAttributeId(),
+                            writeValue.getValue(), writeValue.getIndexRange());
+                    results.add(StatusCode.GOOD);
+                } catch (UaException e) {
+                    results.add(e.getStatusCode());
+                }
+            }
+            context.complete(results);
+        }
+
+        @Override
+        public void onDataItemsCreated(List<DataItem> dataItems) {
+            subscriptionModel.onDataItemsCreated(dataItems);
+            monitoredItemCount.addAndGet(dataItems.size());
+        }
+
+        @Override
+        public void onDataItemsModified(List<DataItem> dataItems) {
+            subscriptionModel.onDataItemsModified(dataItems);
+        }
+
+        @Override
+        public void onDataItemsDeleted(List<DataItem> dataItems) {
+            subscriptionModel.onDataItemsDeleted(dataItems);
+            monitoredItemCount.addAndGet(-dataItems.size());
+        }
+
+        @Override
+        public void onMonitoringModeChanged(List<MonitoredItem> monitoredItems) {
+            subscriptionModel.onMonitoringModeChanged(monitoredItems);
+        }
+    }
+}
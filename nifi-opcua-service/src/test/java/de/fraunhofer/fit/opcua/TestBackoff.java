@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.fraunhofer.fit.opcua;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestBackoff {
+
+    @Test
+    public void testDelaysDoubleUpToMax() {
+        Backoff backoff = new Backoff(1000, 30000, new Random(42));
+        long[] caps = {1000, 2000, 4000, 8000, 16000, 30000, 30000};
+        for (long cap : caps) {
+            long delay = backoff.nextDelay();
+            assertTrue("Delay " + delay + " for cap " + cap, delay >= cap / 2 && delay <= cap);
+        }
+        assertEquals(caps.length, backoff.getAttempts());
+    }
+
+    @Test
+    public void testManyAttempts() {
+        Backoff backoff = new Backoff(1000, Long.MAX_VALUE, new Random(42));
+        for (int i = 0; i < 100; i++) {
+            assertTrue(backoff.nextDelay() > 0);
+        }
+    }
+
+    @Test
+    public void testReset() {
+        Backoff backoff = new Backoff(1000, 30000, new Random(42));
+        for (int i = 0; i < 10; i++) {
+            backoff.nextDelay();
+        }
+        backoff.reset();
+        assertEquals(0, backoff.getAttempts());
+        assertTrue(backoff.nextDelay() <= 1000);
+    }
+}
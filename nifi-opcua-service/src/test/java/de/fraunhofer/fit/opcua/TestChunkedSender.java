@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.fraunhofer.fit.opcua;
+
+import org.apache.nifi.util.MockComponentLog;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestChunkedSender {
+
+    @Test
+    public void testFailedChunk() throws InterruptedException {
+        List<Integer> requests = Arrays.asList(0, 1, 2, 3, 4, 5, 6);
+        long[] results = new long[requests.size()];
+        List<List<Integer>> sent = new ArrayList<>();
+
+        // The second chunk is rejected by the server, the third one is lost
+        ChunkedSender.send(requests, 3, 2, chunk -> {
+            sent.add(chunk);
+            CompletableFuture<List<Integer>> future = new CompletableFuture<>();
+            if (chunk.get(0) == 3) {
+                future.completeExceptionally(new UaException(StatusCodes.Bad_TooManyOperations, "too many"));
+            } else if (chunk.get(0) == 6) {
+                future.completeExceptionally(new RuntimeException("connection closed"));
+            } else {
+                future.complete(chunk);
+            }
+            return future;
+        }, (offset, response) -> {
+            for (int j = 0; j < response.size(); j++) {
+                results[offset + j] = 1;
+            }
+        }, (index, statusCode) -> results[index] = statusCode, new MockComponentLog("chunks", this));
+
+        assertEquals(3, sent.size());
+        assertEquals(1, results[0]);
+        assertEquals(1, results[2]);
+        assertEquals(StatusCodes.Bad_TooManyOperations, results[3]);
+        assertEquals(StatusCodes.Bad_TooManyOperations, results[5]);
+        assertEquals(StatusCodes.Bad_CommunicationError, results[6]);
+    }
+
+    @Test
+    public void testSendFailure() throws InterruptedException {
+        long[] results = new long[2];
+
+        ChunkedSender.send(Arrays.asList(0, 1), 1, 1, chunk -> {
+            if (chunk.get(0) == 0) throw new IllegalStateException("not connected");
+            return CompletableFuture.completedFuture(Collections.singletonList(1));
+        }, (offset, response) -> results[offset] = response.get(0),
+                (index, statusCode) -> results[index] = statusCode, new MockComponentLog("chunks", this));
+
+        assertEquals(StatusCodes.Bad_CommunicationError, results[0]);
+        assertEquals(1, results[1]);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.fraunhofer.fit.opcua;
+
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.FilterOperator;
+import org.eclipse.milo.opcua.stack.core.types.structured.*;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestEventFilterParser {
+
+    @Test
+    public void testSelectClauses() {
+        EventFilter filter = EventFilterParser.parse(
+                Arrays.asList("Severity", "ActiveState/Id", "2:Custom", "ConditionId"), null);
+
+        SimpleAttributeOperand[] select = filter.getSelectClauses();
+        assertEquals(4, select.length);
+        assertEquals("Severity", EventFilterParser.getFieldName(select[0]));
+        assertEquals("ActiveState/Id", EventFilterParser.getFieldName(select[1]));
+        assertEquals("2:Custom", EventFilterParser.getFieldName(select[2]));
+        assertEquals("ConditionId", EventFilterParser.getFieldName(select[3]));
+        assertEquals(Identifiers.ConditionType, select[3].getTypeDefinitionId());
+        assertNull(filter.getWhereClause().getElements());
+    }
+
+    @Test
+    public void testWhereClause() {
+        EventFilter filter = EventFilterParser.parse(Collections.singletonList("EventId"),
+                "OfType i=2915 and Severity >= 500 AND SourceName != 'Pump 1'");
+
+        ContentFilterElement[] elements = filter.getWhereClause().getElements();
+        assertEquals(6, elements.length);
+
+        // And(OfType, And(GreaterThanOrEqual, Not(Equals)))
+        assertEquals(FilterOperator.And, elements[0].getFilterOperator());
+        assertEquals(FilterOperator.OfType, elements[1].getFilterOperator());
+        assertEquals(FilterOperator.And, elements[2].getFilterOperator());
+        assertEquals(FilterOperator.GreaterThanOrEqual, elements[3].getFilterOperator());
+        assertEquals(FilterOperator.Not, elements[4].getFilterOperator());
+        assertEquals(FilterOperator.Equals, elements[5].getFilterOperator());
+
+        ElementOperand right = elements[0].getFilterOperands()[1].decode();
+        assertEquals(2, right.getIndex().intValue());
+
+        LiteralOperand type = elements[1].getFilterOperands()[0].decode();
+        assertEquals(NodeId.parse("i=2915"), type.getValue().getValue());
+
+        LiteralOperand severity = elements[3].getFilterOperands()[1].decode();
+        assertEquals(500, severity.getValue().getValue());
+
+        LiteralOperand name = elements[5].getFilterOperands()[1].decode();
+        assertEquals("Pump 1", name.getValue().getValue());
+    }
+
+    @Test
+    public void testQuotedAnd() {
+        EventFilter filter = EventFilterParser.parse(Collections.singletonList("EventId"),
+                "Message = 'Pump and valve' AND SourceName LIKE 'A AND B%'");
+
+        ContentFilterElement[] elements = filter.getWhereClause().getElements();
+        assertEquals(3, elements.length);
+
+        // And(Equals, Like)
+        assertEquals(FilterOperator.And, elements[0].getFilterOperator());
+        assertEquals(FilterOperator.Equals, elements[1].getFilterOperator());
+        assertEquals(FilterOperator.Like, elements[2].getFilterOperator());
+
+        LiteralOperand message = elements[1].getFilterOperands()[1].decode();
+        assertEquals("Pump and valve", message.getValue().getValue());
+
+        LiteralOperand name = elements[2].getFilterOperands()[1].decode();
+        assertEquals("A AND B%", name.getValue().getValue());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCondition() {
+        EventFilterParser.parse(Collections.singletonList("EventId"), "Severity");
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.fraunhofer.fit.opcua;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestLatencyHistogram {
+
+    @Test
+    public void testBuckets() {
+        for (long value : new long[]{0, 1, 3, 4, 5, 7, 8, 9, 1000, 123456789, Long.MAX_VALUE}) {
+            int bucket = HistogramBuckets.bucketOf(value);
+            assertTrue(value <= HistogramBuckets.upperBound(bucket));
+            if (bucket > 0) assertTrue(value > HistogramBuckets.upperBound(bucket - 1));
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(0.5));
+
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(50, histogram.getMean());
+        assertEquals(100, histogram.getMax());
+
+        // Percentiles are accurate to a quarter of their power of two
+        long p50 = histogram.getPercentile(0.5);
+        assertTrue(p50 >= 50 && p50 <= 63);
+        long p99 = histogram.getPercentile(0.99);
+        assertTrue(p99 >= 99 && p99 <= 100);
+    }
+
+    @Test
+    public void testServiceMetrics() {
+        ServiceMetrics metrics = new ServiceMetrics();
+        metrics.read.record(System.nanoTime(), true);
+        metrics.read.record(System.nanoTime(), false);
+        metrics.monitoredItemCreate.addErrors(3);
+        metrics.notificationsDropped.increment();
+
+        Map<String, Long> snapshot = metrics.snapshot();
+        assertEquals(2L, (long) snapshot.get("read.count"));
+        assertEquals(1L, (long) snapshot.get("read.errors"));
+        assertEquals(3L, (long) snapshot.get("monitoredItemCreate.errors"));
+        assertEquals(0L, (long) snapshot.get("write.count"));
+        assertEquals(1L, (long) snapshot.get("subscription.notifications.dropped"));
+        assertTrue(snapshot.containsKey("historyRead.latency.p99.us"));
+    }
+}
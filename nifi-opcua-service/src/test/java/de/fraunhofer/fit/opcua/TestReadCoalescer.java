@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.fraunhofer.fit.opcua;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestReadCoalescer {
+
+    private final List<List<NodeId>> reads = new CopyOnWriteArrayList<>();
+    private volatile boolean failReads;
+    private ServiceMetrics metrics;
+    private ReadCoalescer coalescer;
+
+    @Before
+    public void init() {
+        metrics = new ServiceMetrics();
+        coalescer = new ReadCoalescer(50, 3, (nodeIds, maxAge) -> {
+            reads.add(new ArrayList<>(nodeIds));
+            CompletableFuture<List<DataValue>> future = new CompletableFuture<>();
+            if (failReads) {
+                future.completeExceptionally(new Exception("Bad_Timeout"));
+                return future;
+            }
+            List<DataValue> values = new ArrayList<>();
+            for (NodeId nodeId : nodeIds) {
+                values.add(new DataValue(new Variant(nodeId.getIdentifier())));
+            }
+            future.complete(values);
+            return future;
+        }, metrics);
+    }
+
+    @After
+    public void shutdown() {
+        coalescer.shutdown();
+    }
+
+    @Test
+    public void testReadsMergedAndSplit() throws Exception {
+        CompletableFuture<List<DataValue>> read1 = coalescer.read(nodes("a", "b"), 0);
+        CompletableFuture<List<DataValue>> read2 = coalescer.read(nodes("b", "c"), 0);
+
+        assertEquals(Arrays.asList("a", "b"), identifiers(read1.get()));
+        assertEquals(Arrays.asList("b", "c"), identifiers(read2.get()));
+        // b is read once for both callers
+        assertEquals(1, reads.size());
+        assertEquals(nodes("a", "b", "c"), reads.get(0));
+        assertEquals(2L, (long) metrics.snapshot().get("coalescing.calls"));
+        assertEquals(1L, (long) metrics.snapshot().get("coalescing.requests"));
+    }
+
+    @Test
+    public void testLargeBatchSplitIntoRequests() throws Exception {
+        CompletableFuture<List<DataValue>> read1 = coalescer.read(nodes("a", "b", "c"), 0);
+        CompletableFuture<List<DataValue>> read2 = coalescer.read(nodes("d", "e", "a"), 0);
+
+        assertEquals(Arrays.asList("d", "e", "a"), identifiers(read2.get()));
+        assertEquals(Arrays.asList("a", "b", "c"), identifiers(read1.get()));
+        assertEquals(2, reads.size());
+    }
+
+    @Test
+    public void testDifferentMaxAgesNotMerged() throws Exception {
+        CompletableFuture<List<DataValue>> read1 = coalescer.read(nodes("a"), 0);
+        CompletableFuture<List<DataValue>> read2 = coalescer.read(nodes("a"), 1000);
+        read1.get();
+        read2.get();
+        assertEquals(2, reads.size());
+    }
+
+    @Test
+    public void testFailedReadFailsAllCallers() throws Exception {
+        failReads = true;
+        CompletableFuture<List<DataValue>> read1 = coalescer.read(nodes("a"), 0);
+        CompletableFuture<List<DataValue>> read2 = coalescer.read(nodes("b"), 0);
+        for (CompletableFuture<List<DataValue>> read : Arrays.asList(read1, read2)) {
+            try {
+                read.get();
+                assertTrue("The read should have failed", false);
+            } catch (ExecutionException e) {
+                assertEquals("Bad_Timeout", e.getCause().getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testShutdownFailsPendingReads() throws Exception {
+        CompletableFuture<List<DataValue>> read = coalescer.read(nodes("a"), 0);
+        coalescer.shutdown();
+        assertTrue(read.isCompletedExceptionally());
+        assertTrue(coalescer.read(nodes("a"), 0).isCompletedExceptionally());
+    }
+
+    private static List<NodeId> nodes(String... names) {
+        List<NodeId> nodeIds = new ArrayList<>();
+        for (String name : names) {
+            nodeIds.add(new NodeId(2, name));
+        }
+        return nodeIds;
+    }
+
+    private static List<Object> identifiers(List<DataValue> values) {
+        List<Object> identifiers = new ArrayList<>();
+        for (DataValue value : values) {
+            identifiers.add(value.getValue().getValue());
+        }
+        return identifiers;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.fraunhofer.fit.opcua;
+
+import org.apache.nifi.util.MockComponentLog;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestScanScheduler {
+
+    private final List<Long> readTimes = new CopyOnWriteArrayList<>();
+    private final List<List<NodeId>> reads = new CopyOnWriteArrayList<>();
+    private ServiceMetrics metrics;
+    private ScanScheduler scheduler;
+
+    @Before
+    public void init() {
+        metrics = new ServiceMetrics();
+        scheduler = new ScanScheduler(2, 3, (nodeIds) -> {
+            readTimes.add(System.currentTimeMillis());
+            reads.add(new ArrayList<>(nodeIds));
+            List<DataValue> values = new ArrayList<>();
+            for (int i = 0; i < nodeIds.size(); i++) {
+                values.add(new DataValue(new Variant(i)));
+            }
+            return values;
+        }, (tagName, value) -> tagName + "," + value.getValue().getValue(),
+                metrics, new MockComponentLog("scan", this));
+    }
+
+    @After
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testNextBoundary() {
+        assertEquals(1000, ScanScheduler.nextBoundary(0, 1000, 0));
+        assertEquals(1000, ScanScheduler.nextBoundary(999, 1000, 0));
+        assertEquals(2000, ScanScheduler.nextBoundary(1000, 1000, 0));
+        assertEquals(1250, ScanScheduler.nextBoundary(300, 1000, 250));
+        assertEquals(250, ScanScheduler.nextBoundary(100, 1000, 250));
+    }
+
+    @Test
+    public void testScansAlignedToBoundaries() throws Exception {
+        BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+        scheduler.subscribe("1", "fast", 100, 20, nodes("a", "b"), queue);
+        Thread.sleep(1050);
+        scheduler.unsubscribe("1");
+        // Let a scan which is still running finish
+        Thread.sleep(200);
+
+        assertTrue(readTimes.size() >= 5);
+        int onTime = 0;
+        long lastPeriod = Long.MIN_VALUE;
+        for (long time : readTimes) {
+            // Each scan belongs to a later period than the one before, even if it was delayed
+            long period = Math.floorDiv(time - 20, 100);
+            assertTrue("Two scans in period " + period, period > lastPeriod);
+            lastPeriod = period;
+            if (Math.floorMod(time - 20, 100) < 50) onTime++;
+        }
+        // Scheduling may be late on a busy machine, but doesn't drift
+        assertTrue("Only " + onTime + " of " + readTimes.size() + " scans on time", onTime * 2 >= readTimes.size());
+        assertEquals(2 * readTimes.size(), queue.size());
+        assertEquals(readTimes.size(), (long) metrics.snapshot().get("scan.count"));
+    }
+
+    @Test
+    public void testReadTimeout() throws Exception {
+        ScanScheduler stuck = new ScanScheduler(1, 100, (nodeIds) -> {
+            throw new TimeoutException();
+        }, (tagName, value) -> tagName, metrics, new MockComponentLog("scan", this));
+        try {
+            stuck.subscribe("1", "stuck", 100, 0, nodes("a"), new LinkedBlockingQueue<>());
+            Thread.sleep(350);
+        } finally {
+            stuck.shutdown();
+        }
+
+        // A failed scan doesn't stop the next ones
+        Map<String, Long> snapshot = metrics.snapshot();
+        assertTrue(snapshot.get("scan.count") >= 2);
+        assertEquals(snapshot.get("scan.count"), snapshot.get("scan.errors"));
+    }
+
+    @Test
+    public void testSubscribersShareScans() throws Exception {
+        BlockingQueue<String> queue1 = new LinkedBlockingQueue<>();
+        BlockingQueue<String> queue2 = new LinkedBlockingQueue<>();
+        scheduler.subscribe("1", "shared", 100, 0, nodes("a", "b", "c"), queue1);
+        scheduler.subscribe("2", "shared", 100, 0, nodes("c", "d"), queue2);
+        assertEquals(Arrays.asList("a", "b", "c", "d"), scheduler.getTagNames("shared"));
+
+        Thread.sleep(250);
+        scheduler.unsubscribe("1");
+        scheduler.unsubscribe("2");
+
+        // 4 nodes are read in requests of at most 3 nodes
+        boolean split = false;
+        for (List<NodeId> read : reads) {
+            assertTrue(read.size() <= 3);
+            split |= read.size() == 1;
+        }
+        assertTrue(split);
+        assertTrue(queue1.contains("c,2"));
+        assertTrue(queue2.contains("c,2"));
+        assertTrue(queue2.contains("d,0"));
+        assertEquals(0, scheduler.getTagNames("shared").size());
+    }
+
+    @Test
+    public void testUpdate() {
+        scheduler.subscribe("1", "update", 1000, 0, nodes("a", "b"), new LinkedBlockingQueue<>());
+        assertTrue(scheduler.update("1", nodes("b", "c")));
+        assertEquals(Arrays.asList("b", "c"), scheduler.getTagNames("update"));
+        assertTrue(scheduler.unsubscribe("1"));
+        assertTrue(!scheduler.update("1", nodes("a")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConflictingPeriod() {
+        scheduler.subscribe("1", "conflict", 1000, 0, nodes("a"), new LinkedBlockingQueue<>());
+        scheduler.subscribe("2", "conflict", 500, 0, nodes("a"), new LinkedBlockingQueue<>());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPhaseNotLessThanPeriod() {
+        scheduler.subscribe("1", "phase", 1000, 1000, nodes("a"), new LinkedBlockingQueue<>());
+    }
+
+    @Test
+    public void testOverrunsSkipBoundaries() throws Exception {
+        ScanScheduler slow = new ScanScheduler(1, 100, (nodeIds) -> {
+            Thread.sleep(250);
+            return Arrays.asList(new DataValue(new Variant(0)));
+        }, (tagName, value) -> tagName, metrics, new MockComponentLog("scan", this));
+        try {
+            slow.subscribe("1", "slow", 100, 0, nodes("a"), new LinkedBlockingQueue<>());
+            Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+        } finally {
+            slow.shutdown();
+        }
+        assertTrue(metrics.snapshot().get("scan.overruns") > 0);
+    }
+
+    private static Map<String, NodeId> nodes(String... names) {
+        Map<String, NodeId> nodeIds = new LinkedHashMap<>();
+        for (String name : names) {
+            nodeIds.put(name, new NodeId(2, name));
+        }
+        return nodeIds;
+    }
+}
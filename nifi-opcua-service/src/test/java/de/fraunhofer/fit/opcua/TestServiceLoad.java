@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.fraunhofer.fit.opcua;
+
+import org.apache.nifi.reporting.InitializationException;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the throughput and latency of the service against an embedded server. The measurements are logged, and
+ * only checked for plausibility, so that the tests don't depend on the speed of the machine. The tests only run when
+ * the duration of each measurement is set in seconds with the system property "opcua.load.seconds".
+ */
+public class TestServiceLoad {
+
+    private static final int VARIABLE_COUNT = 2000;
+    private static final int DEPTH = 3;
+    private static final long CHANGE_PERIOD = 100;
+    private static final int READ_BATCH_SIZE = 100;
+
+    private static final String DURATION_PROPERTY = "opcua.load.seconds";
+    private static final long DURATION = TimeUnit.SECONDS.toMillis(Long.getLong(DURATION_PROPERTY, 5));
+
+    private static final Logger logger = LoggerFactory.getLogger(TestServiceLoad.class);
+
+    private static EmbeddedOpcUaServer server;
+    private TestRunner runner;
+    private StandardOPCUAService service;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        // The measurements take a while, so they only run when their duration is set
+        Assume.assumeTrue(System.getProperty(DURATION_PROPERTY) != null);
+        server = new EmbeddedOpcUaServer(VARIABLE_COUNT, DEPTH, 0, CHANGE_PERIOD);
+        server.start();
+    }
+
+    @AfterClass
+    public static void stopServer() throws Exception {
+        if (server == null) return;
+        server.stop();
+    }
+
+    @Before
+    public void init() throws InitializationException {
+        runner = TestRunners.newTestRunner(TestProcessor.class);
+        service = new StandardOPCUAService();
+        runner.addControllerService("load", service);
+        runner.setProperty(service, StandardOPCUAService.ENDPOINT, server.getEndpoint());
+        runner.enableControllerService(service);
+    }
+
+    @After
+    public void shutdown() {
+        runner.disableControllerService(service);
+    }
+
+    @Test
+    public void testSubscriptionThroughput() throws Exception {
+        LinkedBlockingQueue<String> queue = new LinkedBlockingQueue<>();
+        String subscriberUid = service.subscribe(server.getVariableNodeIds(), queue, false, 100,
+                new HashMap<>(), 0);
+
+        // Let the initial values arrive before measuring
+        Thread.sleep(1000);
+        queue.clear();
+
+        long start = System.currentTimeMillis();
+        long received = 0;
+        while (System.currentTimeMillis() - start < DURATION) {
+            received += queue.size();
+            queue.clear();
+            Thread.sleep(100);
+        }
+        received += queue.size();
+        long elapsed = System.currentTimeMillis() - start;
+        service.unsubscribe(subscriberUid);
+
+        logger.info("Subscription of " + VARIABLE_COUNT + " variables: "
+                + received * 1000 / elapsed + " notifications/s");
+        assertTrue(received > 0);
+        assertEquals(0L, (long) service.getMetrics().get("subscription.notifications.dropped"));
+    }
+
+    @Test
+    public void testReadLatency() {
+        List<String> nodeIds = server.getVariableNodeIds();
+        LatencyHistogram latency = new LatencyHistogram();
+
+        long start = System.currentTimeMillis();
+        int reads = 0;
+        while (System.currentTimeMillis() - start < DURATION) {
+            int from = (reads * READ_BATCH_SIZE) % VARIABLE_COUNT;
+            long readStart = System.nanoTime();
+            byte[] values = service.getValue(nodeIds.subList(from, from + READ_BATCH_SIZE), "Both", false, "", 0);
+            latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - readStart));
+            assertEquals(READ_BATCH_SIZE, new String(values).split(System.lineSeparator()).length);
+            reads++;
+        }
+
+        logger.info("Reads of " + READ_BATCH_SIZE + " variables: " + reads * 1000L / DURATION
+                + " reads/s, latency p50 " + latency.getPercentile(0.5) + " us, p99 "
+                + latency.getPercentile(0.99) + " us, max " + latency.getMax() + " us");
+        Map<String, Long> metrics = service.getMetrics();
+        assertEquals(reads, (long) metrics.get("read.count"));
+        assertEquals(0L, (long) metrics.get("read.errors"));
+    }
+
+    @Test
+    public void testBrowseTime() {
+        long start = System.nanoTime();
+        byte[] nodes = service.getNodes("-", DEPTH + 1, 1000, false, server.getRootFolderNodeId());
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        int variables = 0;
+        for (String line : new String(nodes).split("\n")) {
+            if (line.contains("Variable")) variables++;
+        }
+        logger.info("Browse of " + VARIABLE_COUNT + " variables in " + DEPTH + " levels: " + elapsed + " ms");
+        assertEquals(VARIABLE_COUNT, variables);
+    }
+}
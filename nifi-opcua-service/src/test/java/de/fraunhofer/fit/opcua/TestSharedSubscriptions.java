@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.fraunhofer.fit.opcua;
+
+import org.apache.nifi.reporting.InitializationException;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestSharedSubscriptions {
+
+    private static EmbeddedOpcUaServer server;
+    private static List<String> nodeIds;
+    private TestRunner runner;
+    private StandardOPCUAService service;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        server = new EmbeddedOpcUaServer(10, 0, 0, 100);
+        server.start();
+        nodeIds = server.getVariableNodeIds();
+    }
+
+    @AfterClass
+    public static void stopServer() throws Exception {
+        server.stop();
+    }
+
+    @Before
+    public void init() throws InitializationException {
+        runner = TestRunners.newTestRunner(TestProcessor.class);
+        service = new StandardOPCUAService();
+        runner.addControllerService("shared", service);
+        runner.setProperty(service, StandardOPCUAService.ENDPOINT, server.getEndpoint());
+        runner.enableControllerService(service);
+    }
+
+    @After
+    public void shutdown() {
+        runner.disableControllerService(service);
+    }
+
+    @Test
+    public void testOverlappingSubscribersShareItems() throws Exception {
+        BlockingQueue<String> queue1 = new LinkedBlockingQueue<>();
+        BlockingQueue<String> queue2 = new LinkedBlockingQueue<>();
+        String uid1 = service.subscribe(nodeIds.subList(0, 6), queue1, false, 100, null, 0);
+        String uid2 = service.subscribe(nodeIds.subList(4, 10), queue2, false, 100, null, 0);
+        assertEquals(10, server.getMonitoredItemCount());
+
+        Thread.sleep(1000);
+        assertEquals(new HashSet<>(nodeIds.subList(0, 6)), tagsOf(queue1));
+        assertEquals(new HashSet<>(nodeIds.subList(4, 10)), tagsOf(queue2));
+
+        // The shared items are kept for the remaining subscriber
+        service.unsubscribe(uid1);
+        assertEquals(6, server.getMonitoredItemCount());
+
+        service.updateSubscription(uid2, nodeIds.subList(0, 2));
+        assertEquals(2, server.getMonitoredItemCount());
+
+        service.unsubscribe(uid2);
+        assertEquals(0, server.getMonitoredItemCount());
+    }
+
+    @Test
+    public void testLateSubscriberGetsLastValue() throws Exception {
+        BlockingQueue<String> queue1 = new LinkedBlockingQueue<>();
+        BlockingQueue<String> queue2 = new LinkedBlockingQueue<>();
+        String uid1 = service.subscribe(nodeIds, queue1, false, 100, null, 0);
+        Thread.sleep(500);
+
+        // The items exist already, so the server doesn't report their current values again
+        String uid2 = service.subscribe(nodeIds, queue2, false, 100, null, 0);
+        assertEquals(nodeIds.size(), server.getMonitoredItemCount());
+        assertEquals(new HashSet<>(nodeIds), tagsOf(queue2));
+
+        service.unsubscribe(uid1);
+        service.unsubscribe(uid2);
+    }
+
+    @Test
+    public void testDifferentTriggersAreNotShared() throws Exception {
+        String uid1 = service.subscribe(nodeIds, new LinkedBlockingQueue<>(), false, 100, null, 0);
+        String uid2 = service.subscribe(nodeIds, new LinkedBlockingQueue<>(), true, 100, null, 0);
+        assertEquals(2 * nodeIds.size(), server.getMonitoredItemCount());
+
+        service.unsubscribe(uid1);
+        service.unsubscribe(uid2);
+        assertEquals(0, server.getMonitoredItemCount());
+    }
+
+    @Test
+    public void testGetValueFromSubscribedValues() throws Exception {
+        String uid = service.subscribe(nodeIds.subList(0, 5), new LinkedBlockingQueue<>(), false, 100, null, 0);
+        Thread.sleep(500);
+
+        byte[] values = service.getValue(nodeIds, "Both", false, "", 60000);
+        assertEquals(nodeIds.size(), new String(values).split(System.lineSeparator()).length);
+        assertEquals(5L, (long) service.getMetrics().get("cache.hits"));
+        assertEquals(5L, (long) service.getMetrics().get("cache.misses"));
+
+        // A max age of 0 always reads
+        service.getValue(nodeIds, "Both", false, "", 0);
+        assertEquals(5L, (long) service.getMetrics().get("cache.hits"));
+
+        service.unsubscribe(uid);
+    }
+
+    private static Set<String> tagsOf(BlockingQueue<String> queue) {
+        Set<String> tags = new HashSet<>();
+        for (String msg : queue) {
+            tags.add(msg.substring(0, msg.indexOf(',')));
+        }
+        return tags;
+    }
+}
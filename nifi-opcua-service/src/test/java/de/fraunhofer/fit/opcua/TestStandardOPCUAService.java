@@ -73,7 +73,7 @@ public class TestStandardOPCUAService {
         List<String> tagList = Arrays.asList("ns=4;s=S71500/ET200MP-Station_2.PLC_1.GlobalVars.I_MAG1_EXT",
                 "ns=4;s=S71500/ET200MP-Station_2.PLC_1.GlobalVars.I_MAG2_EXT");
 
-        byte[] bytes = service.getValue(tagList, "Both", true, "");
+        byte[] bytes = service.getValue(tagList, "Both", true, "", 0);
         System.out.println(new String(bytes));
 
         runner.disableControllerService(service);
@@ -98,7 +98,7 @@ public class TestStandardOPCUAService {
         List<String> tagList = Arrays.asList("ns=4;s=S71500/ET200MP-Station_2.PLC_1.GlobalVars.I_MAG1_EXT",
                 "ns=4;s=S71500/ET200MP-Station_2.PLC_1.GlobalVars.I_MAG2_EXT");
 
-        byte[] bytes = service.getValue(tagList, "Both", true, "");
+        byte[] bytes = service.getValue(tagList, "Both", true, "", 0);
         System.out.println(new String(bytes));
 
         runner.disableControllerService(service);
@@ -127,7 +127,7 @@ public class TestStandardOPCUAService {
         List<String> tagList = Arrays.asList("ns=4;s=S71500/ET200MP-Station_2.PLC_1.GlobalVars.I_MAG1_EXT",
                 "ns=4;s=S71500/ET200MP-Station_2.PLC_1.GlobalVars.I_MAG2_EXT");
 
-        byte[] bytes = service.getValue(tagList, "Both", true, "");
+        byte[] bytes = service.getValue(tagList, "Both", true, "", 0);
         System.out.println(new String(bytes));
 
         runner.disableControllerService(service);
@@ -155,7 +155,7 @@ public class TestStandardOPCUAService {
         List<String> tagList = Arrays.asList("ns=4;s=S71500/ET200MP-Station_2.PLC_1.GlobalVars.I_MAG1_EXT",
                 "ns=4;s=S71500/ET200MP-Station_2.PLC_1.GlobalVars.I_MAG2_EXT");
 
-        byte[] bytes = service.getValue(tagList, "Both", true, "");
+        byte[] bytes = service.getValue(tagList, "Both", true, "", 0);
         System.out.println(new String(bytes));
 
         runner.disableControllerService(service);